@@ -1,9 +1,12 @@
 package mn.foreman.slackbot;
 
+import mn.foreman.slackbot.db.incident.IncidentRepository;
 import mn.foreman.slackbot.db.session.StateRepository;
+import mn.foreman.slackbot.db.settings.SettingsRepository;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.context.metrics.buffering.BufferingApplicationStartup;
 import org.springframework.boot.web.servlet.ServletComponentScan;
 import org.springframework.data.mongodb.repository.config.EnableMongoRepositories;
 import org.springframework.scheduling.annotation.EnableScheduling;
@@ -12,19 +15,29 @@ import org.springframework.scheduling.annotation.EnableScheduling;
  * The Foreman Telegram bot.
  */
 @SpringBootApplication
-@EnableMongoRepositories(basePackageClasses = StateRepository.class)
+@EnableMongoRepositories(basePackageClasses = {
+        IncidentRepository.class,
+        SettingsRepository.class,
+        StateRepository.class
+})
 @EnableScheduling
 @ServletComponentScan
 public class SlackBotApplication {
 
+    /** The max number of startup steps to keep. */
+    private static final int STARTUP_STEPS = 4096;
+
     /**
      * Application entry point.
      *
      * @param args The command line arguments.
      */
     public static void main(final String[] args) {
-        SpringApplication.run(
-                SlackBotApplication.class,
-                args);
+        final SpringApplication application =
+                new SpringApplication(SlackBotApplication.class);
+        // Keeps the startup steps for the actuator startup endpoint
+        application.setApplicationStartup(
+                new BufferingApplicationStartup(STARTUP_STEPS));
+        application.run(args);
     }
 }
\ No newline at end of file
@@ -0,0 +1,65 @@
+package mn.foreman.slackbot.admin;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.servlet.HandlerInterceptor;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+
+/**
+ * Rejects admin requests that don't carry the configured admin token as a
+ * bearer token. Admin endpoints are disabled entirely when no token is
+ * configured.
+ */
+public class AdminAuthInterceptor
+        implements HandlerInterceptor {
+
+    /** The logger for this class. */
+    private static final Logger LOG =
+            LoggerFactory.getLogger(AdminAuthInterceptor.class);
+
+    /** The bearer prefix. */
+    private static final String PREFIX = "Bearer ";
+
+    /** The admin token. */
+    private final byte[] adminToken;
+
+    /**
+     * Constructor.
+     *
+     * @param adminToken The admin token.
+     */
+    public AdminAuthInterceptor(final String adminToken) {
+        this.adminToken = adminToken.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public boolean preHandle(
+            final HttpServletRequest request,
+            final HttpServletResponse response,
+            final Object handler) {
+        final String authorization =
+                request.getHeader(HttpHeaders.AUTHORIZATION);
+        if (this.adminToken.length > 0 &&
+                authorization != null &&
+                authorization.startsWith(PREFIX) &&
+                MessageDigest.isEqual(
+                        this.adminToken,
+                        authorization
+                                .substring(PREFIX.length())
+                                .getBytes(StandardCharsets.UTF_8))) {
+            return true;
+        }
+
+        LOG.warn("Rejected admin request to {} from {}",
+                request.getRequestURI(),
+                request.getRemoteAddr());
+        response.setStatus(HttpStatus.UNAUTHORIZED.value());
+        return false;
+    }
+}
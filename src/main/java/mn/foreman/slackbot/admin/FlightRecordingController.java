@@ -0,0 +1,62 @@
+package mn.foreman.slackbot.admin;
+
+import mn.foreman.slackbot.jfr.FlightRecordings;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+
+/** Admin endpoint for dumping the continuous flight recording. */
+@RestController
+public class FlightRecordingController {
+
+    /** The continuous flight recording. */
+    private final FlightRecordings flightRecordings;
+
+    /**
+     * Constructor.
+     *
+     * @param flightRecordings The continuous flight recording.
+     */
+    public FlightRecordingController(final FlightRecordings flightRecordings) {
+        this.flightRecordings = flightRecordings;
+    }
+
+    /**
+     * Dumps the continuous flight recording.
+     *
+     * @return The recording, or not found if recording is disabled.
+     *
+     * @throws IOException on failure.
+     */
+    @GetMapping("/admin/jfr")
+    public ResponseEntity<StreamingResponseBody> dump() throws IOException {
+        final Optional<Path> dump = this.flightRecordings.dump();
+        if (dump.isEmpty()) {
+            return ResponseEntity.notFound().build();
+        }
+
+        final Path file = dump.get();
+        return ResponseEntity
+                .ok()
+                .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                .header(
+                        HttpHeaders.CONTENT_DISPOSITION,
+                        "attachment; filename=\"" + file.getFileName() + "\"")
+                .body(outputStream -> {
+                    try {
+                        Files.copy(file, outputStream);
+                    } finally {
+                        Files.deleteIfExists(file);
+                    }
+                });
+    }
+}
@@ -0,0 +1,28 @@
+package mn.foreman.slackbot.admin;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/** An {@link ImportResult} summarizes a bulk registration import. */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class ImportResult {
+
+    /** Why records were rejected, up to a limit. */
+    private List<String> errors;
+
+    /** The number of records that were imported. */
+    private int imported;
+
+    /** The number of records that were received. */
+    private int received;
+
+    /** The number of records that were rejected. */
+    private int rejected;
+}
@@ -0,0 +1,74 @@
+package mn.foreman.slackbot.admin;
+
+import mn.foreman.slackbot.config.RuntimeSettings;
+import mn.foreman.slackbot.db.settings.Settings;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PatchMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+
+/**
+ * Admin endpoints for tuning the polling and delivery settings while the bot
+ * is running.
+ */
+@RestController
+@RequestMapping("/admin/settings")
+public class SettingsAdminController {
+
+    /** The settings that can be tuned at runtime. */
+    private final RuntimeSettings runtimeSettings;
+
+    /**
+     * Constructor.
+     *
+     * @param runtimeSettings The settings that can be tuned at runtime.
+     */
+    public SettingsAdminController(final RuntimeSettings runtimeSettings) {
+        this.runtimeSettings = runtimeSettings;
+    }
+
+    /**
+     * Returns the settings in effect.
+     *
+     * @return The settings in effect.
+     */
+    @GetMapping
+    public Settings getSettings() {
+        return this.runtimeSettings.getEffective();
+    }
+
+    /**
+     * Reverts every setting to its configured default.
+     *
+     * @return The settings in effect.
+     */
+    @DeleteMapping
+    public Settings resetSettings() {
+        this.runtimeSettings.reset();
+        return this.runtimeSettings.getEffective();
+    }
+
+    /**
+     * Changes the provided settings. Settings that aren't provided are left
+     * as they are.
+     *
+     * @param changes The changes.
+     *
+     * @return The settings in effect.
+     */
+    @PatchMapping
+    public Settings updateSettings(@RequestBody final Settings changes) {
+        try {
+            return this.runtimeSettings.update(changes);
+        } catch (final IllegalArgumentException iae) {
+            throw new ResponseStatusException(
+                    HttpStatus.BAD_REQUEST,
+                    iae.getMessage());
+        }
+    }
+}
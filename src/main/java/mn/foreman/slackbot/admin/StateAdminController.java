@@ -0,0 +1,95 @@
+package mn.foreman.slackbot.admin;
+
+import mn.foreman.slackbot.notifications.PriorityPoller;
+
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import javax.servlet.http.HttpServletRequest;
+import java.io.IOException;
+
+/**
+ * Admin endpoints for importing and exporting registrations in bulk, and for
+ * polling a registration on demand.
+ */
+@RestController
+@RequestMapping("/admin/states")
+public class StateAdminController {
+
+    /** Polls registrations on demand. */
+    private final PriorityPoller priorityPoller;
+
+    /** Imports and exports the registrations. */
+    private final StateImporter stateImporter;
+
+    /**
+     * Constructor.
+     *
+     * @param stateImporter  Imports and exports the registrations.
+     * @param priorityPoller Polls registrations on demand.
+     */
+    public StateAdminController(
+            final StateImporter stateImporter,
+            final PriorityPoller priorityPoller) {
+        this.stateImporter = stateImporter;
+        this.priorityPoller = priorityPoller;
+    }
+
+    /**
+     * Streams the registrations as newline-delimited JSON.
+     *
+     * @param clientId The client whose registrations should be exported. All
+     *                 registrations are exported if not provided.
+     *
+     * @return The registrations.
+     */
+    @GetMapping(produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> exportStates(
+            @RequestParam(required = false) final Integer clientId) {
+        return ResponseEntity
+                .ok()
+                .contentType(MediaType.APPLICATION_NDJSON)
+                .body(outputStream ->
+                        this.stateImporter.exportStates(
+                                clientId,
+                                outputStream));
+    }
+
+    /**
+     * Imports the newline-delimited JSON registrations in the request body.
+     *
+     * @param request The request.
+     *
+     * @return The result.
+     *
+     * @throws IOException          on failure to read.
+     * @throws InterruptedException if interrupted while validating.
+     */
+    @PostMapping
+    public ImportResult importStates(final HttpServletRequest request)
+            throws IOException, InterruptedException {
+        return this.stateImporter.importStates(request.getInputStream());
+    }
+
+    /**
+     * Polls the provided registration right away, ahead of the poll cycle.
+     *
+     * @param chatId The registration's chat ID.
+     *
+     * @return Accepted, or not found if the chat isn't registered.
+     */
+    @PostMapping("/{chatId}/poll")
+    public ResponseEntity<Void> poll(@PathVariable final String chatId) {
+        if (!this.priorityPoller.enqueue(chatId)) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.accepted().build();
+    }
+}
@@ -0,0 +1,370 @@
+package mn.foreman.slackbot.admin;
+
+import mn.foreman.slackbot.config.PingCache;
+import mn.foreman.slackbot.db.session.State;
+import mn.foreman.slackbot.db.session.StateRegistry;
+import mn.foreman.slackbot.db.session.StateRepository;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.data.util.CloseableIterator;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+/**
+ * Imports and exports registrations in bulk as newline-delimited JSON
+ * {@link StateRecord StateRecords}.
+ *
+ * <p>Imported credentials are validated against Foreman in parallel, bounded
+ * by the configured concurrency, and the valid records are upserted with Mongo
+ * bulk writes. Exports stream from a cursor so the collection is never loaded
+ * into memory at once.</p>
+ */
+@Component
+public class StateImporter {
+
+    /** The logger for this class. */
+    private static final Logger LOG =
+            LoggerFactory.getLogger(StateImporter.class);
+
+    /** The max number of rejection reasons to report. */
+    private static final int MAX_ERRORS = 100;
+
+    /** The number of records to upsert in a single bulk write. */
+    private final int batchSize;
+
+    /** The max number of validations to run at once. */
+    private final int concurrency;
+
+    /** The threads that validate credentials. */
+    private final ExecutorService executorService;
+
+    /** The template for bulk writes and streaming. */
+    private final MongoTemplate mongoTemplate;
+
+    /** The mapper. */
+    private final ObjectMapper objectMapper;
+
+    /** Pings Foreman with the imported credentials. */
+    private final PingCache pingCache;
+
+    /** The registered {@link State States} being polled. */
+    private final StateRegistry stateRegistry;
+
+    /** The repository where {@link State States} are stored. */
+    private final StateRepository stateRepository;
+
+    /**
+     * Constructor.
+     *
+     * @param mongoTemplate   The template for bulk writes and streaming.
+     * @param stateRepository The repository where {@link State States} are
+     *                        stored.
+     * @param stateRegistry   The registered {@link State States} being
+     *                        polled.
+     * @param objectMapper    The mapper.
+     * @param pingCache       Pings Foreman with the imported credentials.
+     * @param concurrency     The max number of validations to run at once.
+     * @param batchSize       The number of records to upsert in a single bulk
+     *                        write.
+     */
+    public StateImporter(
+            final MongoTemplate mongoTemplate,
+            final StateRepository stateRepository,
+            final StateRegistry stateRegistry,
+            final ObjectMapper objectMapper,
+            final PingCache pingCache,
+            @Value("${bot.admin.import.concurrency}") final int concurrency,
+            @Value("${bot.admin.import.batchSize}") final int batchSize) {
+        this.mongoTemplate = mongoTemplate;
+        this.stateRepository = stateRepository;
+        this.stateRegistry = stateRegistry;
+        this.objectMapper = objectMapper;
+        this.pingCache = pingCache;
+        this.concurrency = concurrency;
+        this.batchSize = batchSize;
+        this.executorService = Executors.newFixedThreadPool(concurrency);
+    }
+
+    /** Stops the validation threads. */
+    @PreDestroy
+    public void close() {
+        this.executorService.shutdownNow();
+    }
+
+    /**
+     * Writes the registrations to the provided stream, one JSON record per
+     * line.
+     *
+     * @param clientId     The client whose registrations should be exported,
+     *                     or {@code null} for every registration.
+     * @param outputStream The stream to write to.
+     *
+     * @throws IOException on failure.
+     */
+    public void exportStates(
+            final Integer clientId,
+            final OutputStream outputStream)
+            throws IOException {
+        final Query query =
+                clientId != null
+                        ? Query.query(Criteria.where("clientId").is(clientId))
+                        : new Query();
+        // Only what's exported is read
+        query
+                .fields()
+                .include("clientId", "apiKey", "botToken", "teamId", "enterpriseId");
+
+        final OutputStream out = new BufferedOutputStream(outputStream);
+        try (final CloseableIterator<State> states =
+                     this.mongoTemplate.stream(
+                             query,
+                             State.class)) {
+            while (states.hasNext()) {
+                final State state = states.next();
+                out.write(
+                        this.objectMapper.writeValueAsBytes(
+                                StateRecord
+                                        .builder()
+                                        .channel(state.getChatId())
+                                        .clientId(state.getClientId())
+                                        .apiKey(state.getApiKey())
+                                        .botToken(state.getBotToken())
+                                        .teamId(state.getTeamId())
+                                        .enterpriseId(state.getEnterpriseId())
+                                        .build()));
+                out.write('\n');
+            }
+        }
+        out.flush();
+    }
+
+    /**
+     * Reads newline-delimited {@link StateRecord StateRecords} from the
+     * provided stream, validates their credentials, and upserts the valid
+     * ones.
+     *
+     * @param inputStream The stream to read from.
+     *
+     * @return The result.
+     *
+     * @throws IOException          on failure to read.
+     * @throws InterruptedException if interrupted while validating.
+     */
+    public ImportResult importStates(final InputStream inputStream)
+            throws IOException, InterruptedException {
+        final AtomicInteger received = new AtomicInteger();
+        final AtomicInteger imported = new AtomicInteger();
+        final AtomicInteger rejected = new AtomicInteger();
+        final List<String> errors =
+                Collections.synchronizedList(new ArrayList<>());
+        final List<StateRecord> valid =
+                Collections.synchronizedList(new ArrayList<>());
+
+        final Semaphore permits = new Semaphore(this.concurrency);
+        try (final BufferedReader reader =
+                     new BufferedReader(
+                             new InputStreamReader(
+                                     inputStream,
+                                     StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isBlank()) {
+                    continue;
+                }
+
+                final int lineNumber = received.incrementAndGet();
+                final StateRecord record;
+                try {
+                    record = this.objectMapper.readValue(line, StateRecord.class);
+                } catch (final JsonProcessingException e) {
+                    reject(lineNumber, "unreadable record", rejected, errors);
+                    continue;
+                }
+                if (!isComplete(record)) {
+                    reject(lineNumber, "missing fields", rejected, errors);
+                    continue;
+                }
+
+                // Reading waits on the validations so the backlog stays
+                // bounded
+                permits.acquire();
+                this.executorService.execute(() -> {
+                    try {
+                        if (hasValidCredentials(record)) {
+                            valid.add(record);
+                        } else {
+                            reject(lineNumber, "invalid credentials", rejected, errors);
+                        }
+                    } catch (final Exception e) {
+                        reject(lineNumber, "validation failed", rejected, errors);
+                    } finally {
+                        permits.release();
+                    }
+                });
+
+                if (valid.size() >= this.batchSize) {
+                    imported.addAndGet(upsert(drain(valid)));
+                }
+            }
+        }
+
+        // Wait for the remaining validations
+        permits.acquire(this.concurrency);
+        imported.addAndGet(upsert(drain(valid)));
+
+        LOG.info("Imported {} of {} registrations ({} rejected)",
+                imported.get(),
+                received.get(),
+                rejected.get());
+
+        return ImportResult
+                .builder()
+                .received(received.get())
+                .imported(imported.get())
+                .rejected(rejected.get())
+                .errors(new ArrayList<>(errors))
+                .build();
+    }
+
+    /**
+     * Removes and returns everything in the provided list.
+     *
+     * @param records The list to drain.
+     *
+     * @return The drained records.
+     */
+    private static List<StateRecord> drain(final List<StateRecord> records) {
+        synchronized (records) {
+            final List<StateRecord> drained = new ArrayList<>(records);
+            records.clear();
+            return drained;
+        }
+    }
+
+    /**
+     * Checks whether or not the provided record has every required field.
+     *
+     * @param record The record.
+     *
+     * @return Whether or not the record is complete.
+     */
+    private static boolean isComplete(final StateRecord record) {
+        return record.getClientId() > 0 &&
+                record.getChannel() != null && !record.getChannel().isBlank() &&
+                record.getApiKey() != null && !record.getApiKey().isBlank() &&
+                record.getBotToken() != null && !record.getBotToken().isBlank();
+    }
+
+    /**
+     * Records that the provided line was rejected.
+     *
+     * @param lineNumber The record number.
+     * @param reason     Why it was rejected.
+     * @param rejected   The rejection count.
+     * @param errors     The rejection reasons.
+     */
+    private static void reject(
+            final int lineNumber,
+            final String reason,
+            final AtomicInteger rejected,
+            final List<String> errors) {
+        rejected.incrementAndGet();
+        if (errors.size() < MAX_ERRORS) {
+            errors.add(String.format("record %d: %s", lineNumber, reason));
+        }
+    }
+
+    /**
+     * Checks the provided record's credentials against Foreman.
+     *
+     * @param record The record.
+     *
+     * @return Whether or not the credentials are valid.
+     */
+    private boolean hasValidCredentials(final StateRecord record) {
+        return this.pingCache
+                .ping(
+                        record.getClientId(),
+                        record.getApiKey())
+                .pingClient();
+    }
+
+    /**
+     * Upserts the provided records in a single bulk write. Existing
+     * registrations keep their notification cursor.
+     *
+     * @param records The records.
+     *
+     * @return The number of records that were upserted.
+     */
+    private int upsert(final List<StateRecord> records) {
+        if (records.isEmpty()) {
+            return 0;
+        }
+
+        final Instant now = Instant.now();
+        final BulkOperations bulkOperations =
+                this.mongoTemplate.bulkOps(
+                        BulkOperations.BulkMode.UNORDERED,
+                        State.class);
+        records.forEach(record -> {
+            final Update update =
+                    new Update()
+                            .set("clientId", record.getClientId())
+                            .set("apiKey", record.getApiKey())
+                            .set("botToken", record.getBotToken())
+                            .setOnInsert("dateRegistered", now)
+                            .setOnInsert("lastNotificationId", 0);
+            // Older exports don't know the workspace, so it's kept if known
+            if (record.getTeamId() != null) {
+                update
+                        .set("teamId", record.getTeamId())
+                        .set("enterpriseId", record.getEnterpriseId());
+            }
+            bulkOperations.upsert(
+                    Query.query(
+                            Criteria
+                                    .where("_id")
+                                    .is(record.getChannel())),
+                    update);
+        });
+        bulkOperations.execute();
+
+        // Start polling the new registrations right away
+        this.stateRepository
+                .findAllById(
+                        records
+                                .stream()
+                                .map(StateRecord::getChannel)
+                                .collect(Collectors.toList()))
+                .forEach(this.stateRegistry::put);
+
+        return records.size();
+    }
+}
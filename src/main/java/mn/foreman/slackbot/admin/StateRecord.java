@@ -0,0 +1,32 @@
+package mn.foreman.slackbot.admin;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/** A {@link StateRecord} is a registration as it's imported and exported. */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class StateRecord {
+
+    /** The API key. */
+    private String apiKey;
+
+    /** The bots token. */
+    private String botToken;
+
+    /** The channel to notify. */
+    private String channel;
+
+    /** The client ID. */
+    private int clientId;
+
+    /** The Slack enterprise the workspace belongs to, if any. */
+    private String enterpriseId;
+
+    /** The Slack workspace the channel belongs to. */
+    private String teamId;
+}
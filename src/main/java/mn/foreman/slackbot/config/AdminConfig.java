@@ -0,0 +1,33 @@
+package mn.foreman.slackbot.config;
+
+import mn.foreman.slackbot.admin.AdminAuthInterceptor;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+/** Secures the admin endpoints with the configured admin token. */
+@Configuration
+public class AdminConfig
+        implements WebMvcConfigurer {
+
+    /** The admin token. */
+    private final String adminToken;
+
+    /**
+     * Constructor.
+     *
+     * @param adminToken The admin token.
+     */
+    public AdminConfig(@Value("${bot.admin.token}") final String adminToken) {
+        this.adminToken = adminToken;
+    }
+
+    @Override
+    public void addInterceptors(final InterceptorRegistry registry) {
+        registry
+                .addInterceptor(new AdminAuthInterceptor(this.adminToken))
+                .addPathPatterns("/admin/**");
+    }
+}
@@ -1,8 +1,10 @@
 package mn.foreman.slackbot.config;
 
 import mn.foreman.slackbot.db.session.State;
+import mn.foreman.slackbot.db.session.StateRegistry;
 import mn.foreman.slackbot.db.session.StateRepository;
 import mn.foreman.slackbot.handlers.*;
+import mn.foreman.slackbot.notifications.PriorityPoller;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.slack.api.bolt.App;
@@ -21,7 +23,7 @@ import java.time.Instant;
 /**
  * The two parts of this app are the oauth to allow other users to install this
  * bot followed by the functionality for the slash commands on Slack for now we
- * have start, register, forget, test, and help commands available.
+ * have start, register, forget, test, filter, and help commands available.
  */
 @Configuration
 public class BotConfig {
@@ -30,12 +32,34 @@ public class BotConfig {
      * This is the handler for the forget command
      *
      * @param stateRepository the repository where {@link State}s are stored.
+     * @param stateRegistry   the registered {@link State}s being polled.
      *
      * @return returns the forget command
      */
     @Bean
-    public SlashCommandHandler forgetHandler(final StateRepository stateRepository) {
-        return new ForgetCommandHandler(stateRepository);
+    public SlashCommandHandler forgetHandler(
+            final StateRepository stateRepository,
+            final StateRegistry stateRegistry) {
+        return new ForgetCommandHandler(
+                stateRepository,
+                stateRegistry);
+    }
+
+    /**
+     * This is the handler for the filter command
+     *
+     * @param stateRepository the repository where {@link State}s are stored.
+     * @param stateRegistry   the registered {@link State}s being polled.
+     *
+     * @return returns the filter command
+     */
+    @Bean
+    public SlashCommandHandler filterHandler(
+            final StateRepository stateRepository,
+            final StateRegistry stateRegistry) {
+        return new FilterCommandHandler(
+                stateRepository,
+                stateRegistry);
     }
 
     /**
@@ -49,26 +73,21 @@ public class BotConfig {
     }
 
     /**
-     * Creates the {@link App}.
+     * Creates the Slack {@link AppConfig}.
      *
-     * @param signingSecret      The slack API signing secret.
-     * @param clientId           The slack API client ID.
-     * @param clientSecret       The slack API client secret.
-     * @param oAuthInstallPath   The slack API install path.
-     * @param oAuthRedirectPath  The slack API redirect path.
-     * @param scope              The bot scope.
-     * @param oAuthCompletionUrl The completion URL.
-     * @param rootDirectory      The path where states are stored.
-     * @param startHandler       handles the start command.
-     * @param registerHandler    handles the register command.
-     * @param forgetHandler      handles the forget command.
-     * @param testHandler        handles the test command.
-     * @param helpHandler        handles the help command.
+     * @param signingSecret        The slack API signing secret.
+     * @param clientId             The slack API client ID.
+     * @param clientSecret         The slack API client secret.
+     * @param oAuthInstallPath     The slack API install path.
+     * @param oAuthRedirectPath    The slack API redirect path.
+     * @param scope                The bot scope.
+     * @param oAuthCompletionUrl   The completion URL.
+     * @param oAuthCancellationUrl The cancellation URL.
      *
-     * @return The new {@link App}.
+     * @return The new {@link AppConfig}.
      */
     @Bean
-    public App initSlackApp(
+    public AppConfig appConfig(
             @Value("${bot.credentials.signingSecret}") final String signingSecret,
             @Value("${bot.credentials.clientId}") final String clientId,
             @Value("${bot.credentials.clientSecret}") final String clientSecret,
@@ -76,32 +95,38 @@ public class BotConfig {
             @Value("${bot.oauth.redirectUriPath}") final String oAuthRedirectPath,
             @Value("${bot.scope}") final String scope,
             @Value("${bot.oauth.completionUrl}") final String oAuthCompletionUrl,
-            @Value("${bot.oauth.cancellationUrl}") final String oAuthCancellationUrl,
-            @Value("${bot.rootDir}") final String rootDirectory,
-            final SlashCommandHandler startHandler,
-            final SlashCommandHandler registerHandler,
-            final SlashCommandHandler forgetHandler,
-            final SlashCommandHandler testHandler,
-            final SlashCommandHandler helpHandler) {
-
+            @Value("${bot.oauth.cancellationUrl}") final String oAuthCancellationUrl) {
         // This handles the installation and Oauth. The singleTeamBotToken is
         // set to null since this app will be used on multiple work spaces
         // the oautCompletionUrl directs the user back to foreman
-        final AppConfig appConfig =
-                AppConfig
-                        .builder()
-                        .singleTeamBotToken(null)
-                        .clientId(clientId)
-                        .clientSecret(clientSecret)
-                        .signingSecret(signingSecret)
-                        .scope(scope)
-                        .oAuthInstallPageRenderingEnabled(false)
-                        .oauthInstallPath(oAuthInstallPath)
-                        .oauthRedirectUriPath(oAuthRedirectPath)
-                        .oauthCompletionUrl(oAuthCompletionUrl)
-                        .oauthCancellationUrl(oAuthCancellationUrl)
-                        .build();
+        return AppConfig
+                .builder()
+                .singleTeamBotToken(null)
+                .clientId(clientId)
+                .clientSecret(clientSecret)
+                .signingSecret(signingSecret)
+                .scope(scope)
+                .oAuthInstallPageRenderingEnabled(false)
+                .oauthInstallPath(oAuthInstallPath)
+                .oauthRedirectUriPath(oAuthRedirectPath)
+                .oauthCompletionUrl(oAuthCompletionUrl)
+                .oauthCancellationUrl(oAuthCancellationUrl)
+                .build();
+    }
 
+    /**
+     * Creates the {@link InstallationService} where the workspace
+     * installations, and their bot tokens, are stored.
+     *
+     * @param appConfig     The Slack app config.
+     * @param rootDirectory The path where installations are stored.
+     *
+     * @return The new {@link InstallationService}.
+     */
+    @Bean
+    public InstallationService installationService(
+            final AppConfig appConfig,
+            @Value("${bot.rootDir}") final String rootDirectory) {
         // Default installation and oauth service from slack. Creates and
         // stores the files locally under the users profile under the file
         // .slack-app
@@ -110,7 +135,35 @@ public class BotConfig {
                         appConfig,
                         rootDirectory);
         installationService.setHistoricalDataEnabled(true);
+        return installationService;
+    }
 
+    /**
+     * Creates the {@link App}.
+     *
+     * @param appConfig           The Slack app config.
+     * @param installationService Stores the workspace installations.
+     * @param rootDirectory       The path where states are stored.
+     * @param startHandler        handles the start command.
+     * @param registerHandler     handles the register command.
+     * @param forgetHandler       handles the forget command.
+     * @param testHandler         handles the test command.
+     * @param filterHandler       handles the filter command.
+     * @param helpHandler         handles the help command.
+     *
+     * @return The new {@link App}.
+     */
+    @Bean
+    public App initSlackApp(
+            final AppConfig appConfig,
+            final InstallationService installationService,
+            @Value("${bot.rootDir}") final String rootDirectory,
+            final SlashCommandHandler startHandler,
+            final SlashCommandHandler registerHandler,
+            final SlashCommandHandler forgetHandler,
+            final SlashCommandHandler testHandler,
+            final SlashCommandHandler filterHandler,
+            final SlashCommandHandler helpHandler) {
         final OAuthStateService stateService =
                 new FileOAuthStateService(
                         appConfig,
@@ -135,6 +188,9 @@ public class BotConfig {
         app.command(
                 "/foreman_test",
                 testHandler);
+        app.command(
+                "/foreman_filter",
+                filterHandler);
         app.command(
                 "/foreman_help",
                 helpHandler);
@@ -160,7 +216,10 @@ public class BotConfig {
      *
      * @param stateRepository     the repository where {@link State}s are
      *                            stored.
-     * @param foremanApiUrl       the Url for the Foreman Api
+     * @param stateRegistry       the registered {@link State}s being polled.
+     * @param pingCache           pings Foreman with the provided
+     *                            credentials
+     * @param priorityPoller      polls new registrations right away
      * @param foremanDashboardUrl the Url for the Foreman Dashboard
      *
      * @return returns the register command
@@ -168,11 +227,15 @@ public class BotConfig {
     @Bean
     public SlashCommandHandler registerHandler(
             final StateRepository stateRepository,
-            @Value("${foreman.apiUrl}") final String foremanApiUrl,
+            final StateRegistry stateRegistry,
+            final PingCache pingCache,
+            final PriorityPoller priorityPoller,
             @Value("${foreman.baseUrl}") final String foremanDashboardUrl) {
         return new RegisterCommandHandler(
                 stateRepository,
-                foremanApiUrl,
+                stateRegistry,
+                pingCache,
+                priorityPoller,
                 foremanDashboardUrl);
     }
 
@@ -204,14 +267,16 @@ public class BotConfig {
      * confirmation of success or notifies of failure
      *
      * @param stateRepository the repository where {@link State}s are stored.
-     * @param foremanApiUrl   the URL for the user foreman API
+     * @param pingCache       pings Foreman with the session's credentials
+     * @param priorityPoller  polls the session right away
      *
      * @return returns the test command
      */
     @Bean
     public SlashCommandHandler testHandler(
             final StateRepository stateRepository,
-            @Value("${foreman.apiUrl}") final String foremanApiUrl) {
-        return new TestCommandHandler(stateRepository, foremanApiUrl);
+            final PingCache pingCache,
+            final PriorityPoller priorityPoller) {
+        return new TestCommandHandler(stateRepository, pingCache, priorityPoller);
     }
 }
@@ -6,6 +6,7 @@ import mn.foreman.api.JdkWebUtil;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 
+import java.time.Duration;
 import java.util.concurrent.TimeUnit;
 
 /** Utilities for interacting with the Foreman API. */
@@ -17,13 +18,15 @@ public class ForemanUtils {
      * @param clientId       The client ID.
      * @param apiKey         The client API key.
      * @param foremanBaseUrl The Foreman base URL.
+     * @param timeout        The request timeout.
      *
      * @return The new API handler.
      */
     public static ForemanApi toApi(
             final int clientId,
             final String apiKey,
-            final String foremanBaseUrl) {
+            final String foremanBaseUrl,
+            final Duration timeout) {
         return new ForemanApiImpl(
                 Integer.toString(clientId),
                 "",
@@ -31,7 +34,7 @@ public class ForemanUtils {
                 new JdkWebUtil(
                         foremanBaseUrl,
                         apiKey,
-                        5,
-                        TimeUnit.SECONDS));
+                        (int) timeout.toMillis(),
+                        TimeUnit.MILLISECONDS));
     }
 }
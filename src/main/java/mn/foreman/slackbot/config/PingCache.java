@@ -0,0 +1,232 @@
+package mn.foreman.slackbot.config;
+
+import mn.foreman.api.endpoints.ping.Ping;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Caches the results of pinging Foreman with a client's credentials so that
+ * repeated commands with the same credentials are answered from memory.
+ *
+ * <p>Results are keyed by the client ID and a hash of the API key, so the key
+ * itself is never held by the cache. Rejected credentials are cached as well,
+ * for their own, much shorter, TTL so a client who fixes their key isn't
+ * kept waiting, while results where Foreman couldn't be reached aren't
+ * cached at all.</p>
+ *
+ * <p>The in-flight ping is cached too, so concurrent commands with the same
+ * credentials share a single request to Foreman rather than each sending
+ * their own.</p>
+ */
+@Component
+public class PingCache {
+
+    /** The number of entries above which expired entries are purged. */
+    private static final int PURGE_THRESHOLD = 1024;
+
+    /** The cached results, and the pings in flight. */
+    private final Map<String, CompletableFuture<Result>> cache =
+            new ConcurrentHashMap<>();
+
+    /** The Foreman API URL. */
+    private final String foremanApiUrl;
+
+    /** How long rejected credentials are cached. */
+    private final Duration negativeTtl;
+
+    /** Holds the Foreman request timeout. */
+    private final RuntimeSettings runtimeSettings;
+
+    /** How long accepted credentials are cached. */
+    private final Duration ttl;
+
+    /**
+     * Constructor.
+     *
+     * @param foremanApiUrl   The Foreman API URL.
+     * @param ttl             How long accepted credentials are cached.
+     * @param negativeTtl     How long rejected credentials are cached.
+     * @param runtimeSettings Holds the Foreman request timeout.
+     */
+    public PingCache(
+            @Value("${foreman.apiUrl}") final String foremanApiUrl,
+            @Value("${foreman.pingCache.ttl}") final Duration ttl,
+            @Value("${foreman.pingCache.negativeTtl}") final Duration negativeTtl,
+            final RuntimeSettings runtimeSettings) {
+        this.foremanApiUrl = foremanApiUrl;
+        this.ttl = ttl;
+        this.negativeTtl = negativeTtl;
+        this.runtimeSettings = runtimeSettings;
+    }
+
+    /**
+     * Checks whether or not the provided entry holds a result that hasn't
+     * expired.
+     *
+     * @param entry The entry.
+     * @param now   The current time.
+     *
+     * @return Whether or not the entry holds a fresh result.
+     */
+    private static boolean isFresh(
+            final CompletableFuture<Result> entry,
+            final Instant now) {
+        return entry.isDone() &&
+                !entry.isCompletedExceptionally() &&
+                entry.join().expires.isAfter(now);
+    }
+
+    /**
+     * Pings Foreman with the provided credentials, using a cached result if
+     * one hasn't expired, or waiting for the ping that's already in flight
+     * for them.
+     *
+     * @param clientId The client ID.
+     * @param apiKey   The API key.
+     *
+     * @return The result.
+     */
+    public Result ping(
+            final int clientId,
+            final String apiKey) {
+        final String key = toKey(clientId, apiKey);
+        final Instant now = Instant.now();
+
+        final CompletableFuture<Result> pending = new CompletableFuture<>();
+        final CompletableFuture<Result> entry =
+                this.cache.compute(
+                        key,
+                        (ignored, existing) ->
+                                existing != null &&
+                                        (!existing.isDone() || isFresh(existing, now))
+                                        ? existing
+                                        : pending);
+        if (entry != pending) {
+            return entry.join();
+        }
+
+        try {
+            final Ping ping =
+                    ForemanUtils
+                            .toApi(
+                                    clientId,
+                                    apiKey,
+                                    this.foremanApiUrl,
+                                    this.runtimeSettings.getForemanTimeout())
+                            .ping();
+            final boolean reachable = ping.ping();
+            final boolean authenticated = reachable && ping.pingClient();
+            final Result result =
+                    new Result(
+                            reachable,
+                            authenticated,
+                            now.plus(
+                                    authenticated
+                                            ? this.ttl
+                                            : this.negativeTtl));
+            pending.complete(result);
+
+            if (reachable) {
+                if (this.cache.size() >= PURGE_THRESHOLD) {
+                    this.cache.values().removeIf(cached ->
+                            cached.isDone() && !isFresh(cached, now));
+                }
+            } else {
+                this.cache.remove(key, pending);
+            }
+
+            return result;
+        } catch (final RuntimeException e) {
+            this.cache.remove(key, pending);
+            pending.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    /**
+     * Creates the cache key for the provided credentials.
+     *
+     * @param clientId The client ID.
+     * @param apiKey   The API key.
+     *
+     * @return The key.
+     */
+    private static String toKey(
+            final int clientId,
+            final String apiKey) {
+        try {
+            final byte[] hash =
+                    MessageDigest
+                            .getInstance("SHA-256")
+                            .digest(apiKey.getBytes(StandardCharsets.UTF_8));
+            final StringBuilder key =
+                    new StringBuilder()
+                            .append(clientId)
+                            .append(':');
+            for (final byte b : hash) {
+                key.append(String.format("%02x", b));
+            }
+            return key.toString();
+        } catch (final NoSuchAlgorithmException e) {
+            // Every JVM is required to provide SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /** The result of pinging Foreman with a client's credentials. */
+    public static class Result {
+
+        /** Whether or not the credentials were accepted. */
+        private final boolean authenticated;
+
+        /** When the result expires. */
+        private final Instant expires;
+
+        /** Whether or not Foreman could be reached. */
+        private final boolean reachable;
+
+        /**
+         * Constructor.
+         *
+         * @param reachable     Whether or not Foreman could be reached.
+         * @param authenticated Whether or not the credentials were accepted.
+         * @param expires       When the result expires.
+         */
+        private Result(
+                final boolean reachable,
+                final boolean authenticated,
+                final Instant expires) {
+            this.reachable = reachable;
+            this.authenticated = authenticated;
+            this.expires = expires;
+        }
+
+        /**
+         * Returns whether or not Foreman could be reached.
+         *
+         * @return Whether or not Foreman could be reached.
+         */
+        public boolean ping() {
+            return this.reachable;
+        }
+
+        /**
+         * Returns whether or not the credentials were accepted.
+         *
+         * @return Whether or not the credentials were accepted.
+         */
+        public boolean pingClient() {
+            return this.authenticated;
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package mn.foreman.slackbot.config;
+
+import mn.foreman.slackbot.notifications.Notifier;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.annotation.SchedulingConfigurer;
+import org.springframework.scheduling.config.ScheduledTaskRegistrar;
+
+import java.util.Date;
+
+/**
+ * Schedules the notification poll cycles. The delay between cycles is read
+ * from the {@link RuntimeSettings} after every cycle, so a new delay takes
+ * effect from the next cycle on.
+ */
+@Configuration
+public class PollSchedulingConfig
+        implements SchedulingConfigurer {
+
+    /** The delay before the first cycle, in milliseconds. */
+    private final long initialDelay;
+
+    /** Runs the poll cycles. */
+    private final Notifier notifier;
+
+    /** The settings that can be tuned at runtime. */
+    private final RuntimeSettings runtimeSettings;
+
+    /**
+     * Constructor.
+     *
+     * @param notifier        Runs the poll cycles.
+     * @param runtimeSettings The settings that can be tuned at runtime.
+     * @param initialDelay    The delay before the first cycle, in
+     *                        milliseconds.
+     */
+    public PollSchedulingConfig(
+            final Notifier notifier,
+            final RuntimeSettings runtimeSettings,
+            @Value("${bot.check.initialDelay}") final long initialDelay) {
+        this.notifier = notifier;
+        this.runtimeSettings = runtimeSettings;
+        this.initialDelay = initialDelay;
+    }
+
+    @Override
+    public void configureTasks(final ScheduledTaskRegistrar taskRegistrar) {
+        taskRegistrar.addTriggerTask(
+                this.notifier::sendNotifications,
+                triggerContext -> {
+                    final Date lastCompletion =
+                            triggerContext.lastCompletionTime();
+                    if (lastCompletion == null) {
+                        return new Date(System.currentTimeMillis() + this.initialDelay);
+                    }
+                    return new Date(
+                            lastCompletion.getTime() +
+                                    this.runtimeSettings.getPollDelay().toMillis());
+                });
+    }
+}
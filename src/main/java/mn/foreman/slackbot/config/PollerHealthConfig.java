@@ -0,0 +1,91 @@
+package mn.foreman.slackbot.config;
+
+import mn.foreman.slackbot.notifications.PollWatchdog;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+
+/**
+ * Reports the health of the poller, based on the time since the last
+ * completed cycle, so the orchestrator can take a stalled bot out of rotation
+ * and then restart it. The indicators are part of the readiness and liveness
+ * probe groups. The timeouts are on top of the poll delay, which can be
+ * changed at runtime.
+ */
+@Configuration
+public class PollerHealthConfig {
+
+    /**
+     * Reports the poller down once no cycle has completed for the liveness
+     * timeout, which should lead to a restart.
+     *
+     * @param watchdog        Tracks the cycles.
+     * @param runtimeSettings Holds the poll delay.
+     * @param livenessTimeout How long without a completed cycle before the
+     *                        bot is considered dead.
+     *
+     * @return The indicator.
+     */
+    @Bean
+    public HealthIndicator pollerLivenessHealthIndicator(
+            final PollWatchdog watchdog,
+            final RuntimeSettings runtimeSettings,
+            @Value("${bot.watchdog.livenessTimeout}") final Duration livenessTimeout) {
+        return () -> toHealth(
+                watchdog,
+                runtimeSettings.getPollDelay().plus(livenessTimeout));
+    }
+
+    /**
+     * Reports the poller down once no cycle has completed for the readiness
+     * timeout.
+     *
+     * @param watchdog         Tracks the cycles.
+     * @param runtimeSettings  Holds the poll delay.
+     * @param readinessTimeout How long without a completed cycle before the
+     *                         bot is considered not ready.
+     *
+     * @return The indicator.
+     */
+    @Bean
+    public HealthIndicator pollerReadinessHealthIndicator(
+            final PollWatchdog watchdog,
+            final RuntimeSettings runtimeSettings,
+            @Value("${bot.watchdog.readinessTimeout}") final Duration readinessTimeout) {
+        return () -> toHealth(
+                watchdog,
+                runtimeSettings.getPollDelay().plus(readinessTimeout));
+    }
+
+    /**
+     * Creates the poller health for the provided timeout.
+     *
+     * @param watchdog Tracks the cycles.
+     * @param timeout  How long without a completed cycle before the poller is
+     *                 down.
+     *
+     * @return The health.
+     */
+    private static Health toHealth(
+            final PollWatchdog watchdog,
+            final Duration timeout) {
+        final Duration since = watchdog.getSinceLastCompleted();
+        return (since.compareTo(timeout) < 0
+                ? Health.up()
+                : Health.down())
+                .withDetail("cycled", watchdog.hasCycled())
+                .withDetail("lastCompleted", watchdog.getLastCompleted().toString())
+                .withDetail("sinceLastCompletedMillis", since.toMillis())
+                .withDetail("cycleRunningMillis", watchdog.getCycleRunning().toMillis())
+                .withDetail("inFlight", watchdog.getInFlight())
+                .withDetail("oldestInFlightMillis", watchdog.getOldestInFlight().toMillis())
+                .withDetail("abandoned", watchdog.getAbandoned())
+                .withDetail("timeoutMillis", timeout.toMillis())
+                .build();
+    }
+}
@@ -0,0 +1,297 @@
+package mn.foreman.slackbot.config;
+
+import mn.foreman.slackbot.db.settings.Settings;
+import mn.foreman.slackbot.db.settings.SettingsRepository;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.time.Duration;
+import java.util.function.Function;
+
+/**
+ * The polling and delivery settings that can be tuned without a restart.
+ *
+ * <p>Overrides are stored in a single {@link Settings} document and layered
+ * over the configured defaults. The document is re-read on its own schedule,
+ * more often than the poll cycles run, so a change made through the admin
+ * endpoint, or directly in Mongo, is picked up within one cycle without the
+ * poller reading Mongo itself.</p>
+ */
+@Component
+public class RuntimeSettings {
+
+    /** The ID of the settings document. */
+    private static final String ID = "runtime";
+
+    /** The logger for this class. */
+    private static final Logger LOG =
+            LoggerFactory.getLogger(RuntimeSettings.class);
+
+    /** The configured defaults. */
+    private final Settings defaults;
+
+    /** Where the overrides are stored. */
+    private final SettingsRepository settingsRepository;
+
+    /** The current overrides. */
+    private volatile Settings overrides = new Settings();
+
+    /**
+     * Constructor.
+     *
+     * @param settingsRepository  Where the overrides are stored.
+     * @param pollDelayMillis     The default delay between poll cycles.
+     * @param pollParallelism     The default number of sessions processed at
+     *                            once by the blocking poller.
+     * @param sessionMaxInFlight  The default max number of sessions in flight
+     *                            for the async poller.
+     * @param deliveryMaxInFlight The default max number of Slack deliveries in
+     *                            flight.
+     * @param deliveryRate        The default max number of Slack deliveries
+     *                            started per second.
+     * @param foremanTimeout      The default Foreman request timeout.
+     * @param maxFailingMiners    The default max number of failing miners
+     *                            rendered in a single message.
+     */
+    public RuntimeSettings(
+            final SettingsRepository settingsRepository,
+            @Value("${bot.check.fixedDelay}") final long pollDelayMillis,
+            @Value("${notifications.parallelism}") final int pollParallelism,
+            @Value("${notifications.async.maxInFlight}") final int sessionMaxInFlight,
+            @Value("${notifications.delivery.maxInFlight}") final int deliveryMaxInFlight,
+            @Value("${notifications.delivery.ratePerSecond}") final int deliveryRate,
+            @Value("${foreman.timeout}") final Duration foremanTimeout,
+            @Value("${notifications.max}") final int maxFailingMiners) {
+        this.settingsRepository = settingsRepository;
+        this.defaults =
+                Settings
+                        .builder()
+                        .id(ID)
+                        .pollDelayMillis(pollDelayMillis)
+                        .pollParallelism(pollParallelism)
+                        .sessionMaxInFlight(sessionMaxInFlight)
+                        .deliveryMaxInFlight(deliveryMaxInFlight)
+                        .deliveryRatePerSecond(deliveryRate)
+                        .foremanTimeoutMillis(foremanTimeout.toMillis())
+                        .maxFailingMiners(maxFailingMiners)
+                        .build();
+    }
+
+    /**
+     * Returns the provided change, or the current value if there isn't one.
+     *
+     * @param change  The change.
+     * @param current The current value.
+     * @param <T>     The setting type.
+     *
+     * @return The merged value.
+     */
+    private static <T> T merge(
+            final T change,
+            final T current) {
+        return change != null
+                ? change
+                : current;
+    }
+
+    /**
+     * Ensures the provided setting, if present, is positive.
+     *
+     * @param name  The setting name.
+     * @param value The value.
+     *
+     * @throws IllegalArgumentException if the value isn't positive.
+     */
+    private static void requirePositive(
+            final String name,
+            final Number value) {
+        if (value != null && value.longValue() <= 0) {
+            throw new IllegalArgumentException(name + " must be positive");
+        }
+    }
+
+    /**
+     * Returns the max number of Slack deliveries in flight at once.
+     *
+     * @return The max number of deliveries.
+     */
+    public int getDeliveryMaxInFlight() {
+        return get(Settings::getDeliveryMaxInFlight);
+    }
+
+    /**
+     * Returns the max number of Slack deliveries started per second.
+     *
+     * @return The max number of deliveries per second.
+     */
+    public int getDeliveryRatePerSecond() {
+        return get(Settings::getDeliveryRatePerSecond);
+    }
+
+    /**
+     * Returns the settings in effect, with the defaults filled in.
+     *
+     * @return The settings in effect.
+     */
+    public Settings getEffective() {
+        return Settings
+                .builder()
+                .id(ID)
+                .pollDelayMillis(get(Settings::getPollDelayMillis))
+                .pollParallelism(getPollParallelism())
+                .sessionMaxInFlight(getSessionMaxInFlight())
+                .deliveryMaxInFlight(getDeliveryMaxInFlight())
+                .deliveryRatePerSecond(getDeliveryRatePerSecond())
+                .foremanTimeoutMillis(get(Settings::getForemanTimeoutMillis))
+                .maxFailingMiners(getMaxFailingMiners())
+                .build();
+    }
+
+    /**
+     * Returns the Foreman request timeout.
+     *
+     * @return The timeout.
+     */
+    public Duration getForemanTimeout() {
+        return Duration.ofMillis(get(Settings::getForemanTimeoutMillis));
+    }
+
+    /**
+     * Returns the max number of failing miners rendered in a single message.
+     *
+     * @return The max number of failing miners.
+     */
+    public int getMaxFailingMiners() {
+        return get(Settings::getMaxFailingMiners);
+    }
+
+    /**
+     * Returns the delay between poll cycles.
+     *
+     * @return The delay.
+     */
+    public Duration getPollDelay() {
+        return Duration.ofMillis(get(Settings::getPollDelayMillis));
+    }
+
+    /**
+     * Returns the number of sessions processed at once by the blocking
+     * poller.
+     *
+     * @return The parallelism.
+     */
+    public int getPollParallelism() {
+        return get(Settings::getPollParallelism);
+    }
+
+    /**
+     * Returns the max number of sessions in flight at once for the async
+     * poller.
+     *
+     * @return The max number of sessions.
+     */
+    public int getSessionMaxInFlight() {
+        return get(Settings::getSessionMaxInFlight);
+    }
+
+    /** Re-reads the overrides. The last ones read are kept on failure. */
+    @PostConstruct
+    @Scheduled(
+            initialDelayString = "${bot.settings.refreshInterval}",
+            fixedDelayString = "${bot.settings.refreshInterval}")
+    public void refresh() {
+        try {
+            this.overrides =
+                    this.settingsRepository
+                            .findById(ID)
+                            .orElseGet(Settings::new);
+        } catch (final Exception e) {
+            LOG.warn("Failed to read the runtime settings", e);
+        }
+    }
+
+    /** Removes every override, reverting to the configured defaults. */
+    public void reset() {
+        this.settingsRepository.deleteById(ID);
+        this.overrides = new Settings();
+        LOG.info("Runtime settings reset to the defaults");
+    }
+
+    /**
+     * Applies the provided overrides on top of the current ones. Settings
+     * that aren't provided are left as they are.
+     *
+     * @param changes The changes.
+     *
+     * @return The settings now in effect.
+     *
+     * @throws IllegalArgumentException if a setting isn't valid.
+     */
+    public Settings update(final Settings changes) {
+        requirePositive("deliveryMaxInFlight", changes.getDeliveryMaxInFlight());
+        requirePositive("deliveryRatePerSecond", changes.getDeliveryRatePerSecond());
+        requirePositive("foremanTimeoutMillis", changes.getForemanTimeoutMillis());
+        requirePositive("maxFailingMiners", changes.getMaxFailingMiners());
+        requirePositive("pollDelayMillis", changes.getPollDelayMillis());
+        requirePositive("pollParallelism", changes.getPollParallelism());
+        requirePositive("sessionMaxInFlight", changes.getSessionMaxInFlight());
+
+        final Settings current = this.overrides;
+        final Settings updated =
+                current
+                        .toBuilder()
+                        .id(ID)
+                        .deliveryMaxInFlight(
+                                merge(
+                                        changes.getDeliveryMaxInFlight(),
+                                        current.getDeliveryMaxInFlight()))
+                        .deliveryRatePerSecond(
+                                merge(
+                                        changes.getDeliveryRatePerSecond(),
+                                        current.getDeliveryRatePerSecond()))
+                        .foremanTimeoutMillis(
+                                merge(
+                                        changes.getForemanTimeoutMillis(),
+                                        current.getForemanTimeoutMillis()))
+                        .maxFailingMiners(
+                                merge(
+                                        changes.getMaxFailingMiners(),
+                                        current.getMaxFailingMiners()))
+                        .pollDelayMillis(
+                                merge(
+                                        changes.getPollDelayMillis(),
+                                        current.getPollDelayMillis()))
+                        .pollParallelism(
+                                merge(
+                                        changes.getPollParallelism(),
+                                        current.getPollParallelism()))
+                        .sessionMaxInFlight(
+                                merge(
+                                        changes.getSessionMaxInFlight(),
+                                        current.getSessionMaxInFlight()))
+                        .build();
+        this.overrides = this.settingsRepository.save(updated);
+        LOG.info("Runtime settings updated: {}", this.overrides);
+        return getEffective();
+    }
+
+    /**
+     * Returns the provided setting, falling back to the default.
+     *
+     * @param setting The setting.
+     * @param <T>     The setting type.
+     *
+     * @return The setting.
+     */
+    private <T> T get(final Function<Settings, T> setting) {
+        final T value = setting.apply(this.overrides);
+        return value != null
+                ? value
+                : setting.apply(this.defaults);
+    }
+}
@@ -0,0 +1,45 @@
+package mn.foreman.slackbot.config;
+
+import mn.foreman.slackbot.db.incident.IncidentIndexes;
+import mn.foreman.slackbot.db.session.StateIndexes;
+import mn.foreman.slackbot.db.session.StateRegistry;
+import mn.foreman.slackbot.jfr.FlightRecordings;
+import mn.foreman.slackbot.notifications.DeliveryScheduler;
+import mn.foreman.slackbot.notifications.NotificationsLifecycle;
+import mn.foreman.slackbot.notifications.PollWatchdog;
+import mn.foreman.slackbot.replay.TrafficRecorder;
+
+import org.springframework.boot.LazyInitializationExcludeFilter;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Configures how the bot starts. With the {@code fast-startup} profile, beans
+ * are only created when they're first needed, except for the ones below,
+ * which do their work in the background and would otherwise never start.
+ */
+@Configuration
+public class StartupConfig {
+
+    /**
+     * Keeps the beans that start background work eager when lazy
+     * initialization is enabled.
+     *
+     * @return The filter.
+     */
+    @Bean
+    public static LazyInitializationExcludeFilter eagerBackgroundBeans() {
+        return LazyInitializationExcludeFilter.forBeanTypes(
+                DeliveryScheduler.class,
+                FlightRecordings.class,
+                IncidentIndexes.class,
+                NotificationsLifecycle.class,
+                PollSchedulingConfig.class,
+                PollWatchdog.class,
+                RuntimeSettings.class,
+                StateIndexes.class,
+                StateRegistry.class,
+                StartupTimings.class,
+                TrafficRecorder.class);
+    }
+}
@@ -0,0 +1,116 @@
+package mn.foreman.slackbot.config;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.actuate.info.Info;
+import org.springframework.boot.actuate.info.InfoContributor;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.boot.context.event.ApplicationStartedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Measures how long the bot takes to start and to finish its first poll
+ * cycle. The timings are logged and reported under {@code startup} in the
+ * actuator info endpoint.
+ */
+@Component
+public class StartupTimings
+        implements InfoContributor {
+
+    /** The logger for this class. */
+    private static final Logger LOG =
+            LoggerFactory.getLogger(StartupTimings.class);
+
+    /** Whether or not the first cycle has completed. */
+    private final AtomicBoolean cycled = new AtomicBoolean();
+
+    /** How long the first cycle took, in milliseconds. */
+    private volatile long firstCycleMillis = -1;
+
+    /** The JVM uptime when the first cycle completed, in milliseconds. */
+    private volatile long firstCycleUptimeMillis = -1;
+
+    /** The JVM uptime when the context was started, in milliseconds. */
+    private volatile long startedUptimeMillis = -1;
+
+    /** The JVM uptime when the bot was ready, in milliseconds. */
+    private volatile long readyUptimeMillis = -1;
+
+    /** How long the warm-up took, in milliseconds. */
+    private volatile long warmUpMillis = -1;
+
+    /**
+     * Returns the JVM uptime.
+     *
+     * @return The uptime, in milliseconds.
+     */
+    private static long uptime() {
+        return ManagementFactory.getRuntimeMXBean().getUptime();
+    }
+
+    @Override
+    public void contribute(final Info.Builder builder) {
+        final Map<String, Object> startup = new LinkedHashMap<>();
+        startup.put("startedMillis", this.startedUptimeMillis);
+        startup.put("warmUpMillis", this.warmUpMillis);
+        startup.put("readyMillis", this.readyUptimeMillis);
+        startup.put("firstCycleMillis", this.firstCycleMillis);
+        startup.put("firstCycleCompletedMillis", this.firstCycleUptimeMillis);
+        builder.withDetail("startup", startup);
+    }
+
+    /**
+     * Records a completed poll cycle. Only the first one is kept.
+     *
+     * @param millis How long the cycle took, in milliseconds.
+     */
+    public void cycleCompleted(final long millis) {
+        if (this.cycled.compareAndSet(false, true)) {
+            this.firstCycleMillis = millis;
+            this.firstCycleUptimeMillis = uptime();
+            LOG.info("First poll cycle took {} ms, completed {} ms after the JVM started",
+                    millis,
+                    this.firstCycleUptimeMillis);
+        }
+    }
+
+    /**
+     * Records when the bot became ready. Runners, including the warm-up, have
+     * finished by now.
+     *
+     * @param event The event.
+     */
+    @EventListener
+    public void onReady(final ApplicationReadyEvent event) {
+        this.readyUptimeMillis = uptime();
+        LOG.info("Ready {} ms after the JVM started (context {} ms, warm-up {} ms)",
+                this.readyUptimeMillis,
+                this.startedUptimeMillis,
+                this.warmUpMillis);
+    }
+
+    /**
+     * Records when the context was started.
+     *
+     * @param event The event.
+     */
+    @EventListener
+    public void onStarted(final ApplicationStartedEvent event) {
+        this.startedUptimeMillis = uptime();
+    }
+
+    /**
+     * Records how long the warm-up took.
+     *
+     * @param millis How long the warm-up took, in milliseconds.
+     */
+    public void warmedUp(final long millis) {
+        this.warmUpMillis = millis;
+    }
+}
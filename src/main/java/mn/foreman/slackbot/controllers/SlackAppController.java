@@ -1,21 +1,120 @@
 package mn.foreman.slackbot.controllers;
 
+import com.slack.api.app_backend.SlackSignature;
 import com.slack.api.bolt.App;
-import com.slack.api.bolt.servlet.SlackAppServlet;
+import com.slack.api.bolt.request.Request;
+import com.slack.api.bolt.response.Response;
+import com.slack.api.bolt.servlet.SlackAppServletAdapter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 
+import javax.servlet.AsyncContext;
 import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
-/** A controller to serve the {@link App}. */
-@WebServlet("/slack/events")
+/**
+ * A controller to serve the {@link App}. Requests are handed off to the
+ * {@link SlackEventDispatcher}, and the container thread is released while
+ * they're handled. Requests that aren't handled within Slack's three second
+ * window are acknowledged empty, and their response follows through the
+ * request's {@code response_url}.
+ */
+@WebServlet(value = "/slack/events", asyncSupported = true)
 public class SlackAppController
-        extends SlackAppServlet {
+        extends HttpServlet {
+
+    /** The header Slack sets on retried requests. */
+    private static final String RETRY_NUM_HEADER = "X-Slack-Retry-Num";
+
+    /** The logger for this class. */
+    private static final Logger LOG =
+            LoggerFactory.getLogger(SlackAppController.class);
+
+    /** Reads the requests and writes the responses. */
+    private final SlackAppServletAdapter adapter;
+
+    /** Dispatches the requests. */
+    private final SlackEventDispatcher dispatcher;
+
+    /** How long to wait for a request before acknowledging it empty. */
+    private final Duration timeout;
 
     /**
      * Constructor.
      *
-     * @param app The {@link App}.
+     * @param app        The {@link App}.
+     * @param dispatcher Dispatches the requests.
+     * @param timeout    How long to wait for a request before acknowledging
+     *                   it empty.
      */
-    public SlackAppController(final App app) {
-        super(app);
+    public SlackAppController(
+            final App app,
+            final SlackEventDispatcher dispatcher,
+            @Value("${bot.events.timeout}") final Duration timeout) {
+        this.adapter = new SlackAppServletAdapter(app.config());
+        this.dispatcher = dispatcher;
+        this.timeout = timeout;
+    }
+
+    @Override
+    protected void doPost(
+            final HttpServletRequest req,
+            final HttpServletResponse resp) throws IOException {
+        final Request<?> slackRequest = this.adapter.buildSlackRequest(req);
+        if (slackRequest == null) {
+            return;
+        }
+
+        final AsyncContext asyncContext = req.startAsync();
+        // The dispatch timeout below answers first
+        asyncContext.setTimeout(this.timeout.multipliedBy(2).toMillis());
+        final CompletableFuture<Response> dispatched =
+                this.dispatcher.dispatch(
+                        slackRequest,
+                        req.getHeader(RETRY_NUM_HEADER),
+                        req.getHeader(SlackSignature.HeaderNames.X_SLACK_REQUEST_TIMESTAMP),
+                        req.getHeader(SlackSignature.HeaderNames.X_SLACK_SIGNATURE));
+        dispatched
+                .copy()
+                .orTimeout(
+                        this.timeout.toMillis(),
+                        TimeUnit.MILLISECONDS)
+                .whenComplete((response, throwable) -> {
+                    try {
+                        final HttpServletResponse asyncResponse =
+                                (HttpServletResponse) asyncContext.getResponse();
+                        if (response != null) {
+                            this.adapter.writeResponse(
+                                    asyncResponse,
+                                    response);
+                        } else if (throwable instanceof TimeoutException) {
+                            // Acknowledge now so Slack doesn't retry, and
+                            // answer once the handler finishes
+                            this.adapter.writeResponse(
+                                    asyncResponse,
+                                    Response.ok());
+                            this.dispatcher.respondLater(
+                                    slackRequest,
+                                    dispatched);
+                        } else {
+                            LOG.error("Failed to handle a request", throwable);
+                            this.adapter.writeResponse(
+                                    asyncResponse,
+                                    Response.error(500));
+                        }
+                    } catch (final IOException ioe) {
+                        LOG.warn("Failed to write a response", ioe);
+                    } finally {
+                        asyncContext.complete();
+                    }
+                });
     }
 }
@@ -0,0 +1,282 @@
+package mn.foreman.slackbot.controllers;
+
+import com.slack.api.app_backend.SlackSignature;
+import com.slack.api.bolt.App;
+import com.slack.api.bolt.request.Request;
+import com.slack.api.bolt.response.Response;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs incoming Slack requests through the {@link App} on a bounded pool of
+ * handler threads, rather than on the servlet container's threads.
+ *
+ * <p>Slack resends requests that aren't acknowledged quickly, marking them
+ * with {@code X-Slack-Retry-Num}. Every request's signature is verified
+ * before anything else, and verified requests are remembered for a short
+ * while by a hash of their body. A retry of a request that's already been
+ * seen is answered from that record instead of being run again: with the
+ * original response if it's done, or with an acknowledgement while it's still
+ * running. Requests that can't be queued are rejected so that Slack backs
+ * off.</p>
+ *
+ * <p>Requests that outlive Slack's acknowledgement window are acknowledged
+ * empty by the {@link SlackAppController}, and their response is sent to the
+ * request's {@code response_url} once it's ready.</p>
+ */
+@Component
+public class SlackEventDispatcher {
+
+    /** The logger for this class. */
+    private static final Logger LOG =
+            LoggerFactory.getLogger(SlackEventDispatcher.class);
+
+    /** The number of entries above which expired entries are purged. */
+    private static final int PURGE_THRESHOLD = 1024;
+
+    /** The app that handles the requests. */
+    private final App app;
+
+    /** The threads that handle the requests. */
+    private final ThreadPoolExecutor executor;
+
+    /** The requests that were seen recently, keyed by body hash. */
+    private final Map<String, Entry> seen = new ConcurrentHashMap<>();
+
+    /** How long requests are remembered. */
+    private final Duration ttl;
+
+    /** Verifies that requests came from Slack. */
+    private final SlackSignature.Verifier verifier;
+
+    /**
+     * Constructor.
+     *
+     * @param app        The app that handles the requests.
+     * @param threads    The number of threads that handle the requests.
+     * @param queueDepth The max number of requests waiting for a thread.
+     * @param ttl        How long requests are remembered.
+     */
+    public SlackEventDispatcher(
+            final App app,
+            @Value("${bot.events.threads}") final int threads,
+            @Value("${bot.events.queueDepth}") final int queueDepth,
+            @Value("${bot.events.dedupTtl}") final Duration ttl) {
+        this.app = app;
+        this.ttl = ttl;
+        this.verifier =
+                new SlackSignature.Verifier(
+                        new SlackSignature.Generator(
+                                app.config().getSigningSecret()));
+        this.executor =
+                new ThreadPoolExecutor(
+                        threads,
+                        threads,
+                        0,
+                        TimeUnit.MILLISECONDS,
+                        new ArrayBlockingQueue<>(queueDepth));
+    }
+
+    /**
+     * Creates the key for the provided request body.
+     *
+     * @param body The request body.
+     *
+     * @return The key.
+     */
+    private static String toKey(final String body) {
+        try {
+            return Base64
+                    .getEncoder()
+                    .encodeToString(
+                            MessageDigest
+                                    .getInstance("SHA-256")
+                                    .digest(body.getBytes(StandardCharsets.UTF_8)));
+        } catch (final NoSuchAlgorithmException nsae) {
+            throw new IllegalStateException(nsae);
+        }
+    }
+
+    /** Stops the handler threads. */
+    @PreDestroy
+    public void close() {
+        this.executor.shutdown();
+    }
+
+    /**
+     * Dispatches the provided request.
+     *
+     * @param request   The request.
+     * @param retryNum  The {@code X-Slack-Retry-Num} header, if present.
+     * @param timestamp The {@code X-Slack-Request-Timestamp} header.
+     * @param signature The {@code X-Slack-Signature} header.
+     *
+     * @return The future response.
+     */
+    public CompletableFuture<Response> dispatch(
+            final Request<?> request,
+            final String retryNum,
+            final String timestamp,
+            final String signature) {
+        final String body = request.getRequestBodyAsString();
+
+        // Checked before the request is remembered, so that forged requests
+        // can't claim a body hash and suppress the genuine one
+        if (!isVerified(timestamp, body, signature)) {
+            LOG.warn("Rejecting a Slack request with an invalid signature");
+            return CompletableFuture.completedFuture(Response.error(401));
+        }
+
+        final String key = toKey(body);
+        final Instant now = Instant.now();
+
+        if (retryNum != null) {
+            final Entry original = this.seen.get(key);
+            if (original != null && original.expires.isAfter(now)) {
+                LOG.info("Answering Slack retry {} without running it again",
+                        retryNum);
+                return original.response.isDone()
+                        ? original.response
+                        : CompletableFuture.completedFuture(Response.ok());
+            }
+        }
+
+        if (this.seen.size() >= PURGE_THRESHOLD) {
+            this.seen.values().removeIf(entry -> !entry.expires.isAfter(now));
+        }
+
+        final CompletableFuture<Response> response = new CompletableFuture<>();
+        final Entry entry =
+                new Entry(
+                        response,
+                        now.plus(this.ttl));
+        this.seen.put(
+                key,
+                entry);
+        try {
+            this.executor.execute(() -> {
+                try {
+                    response.complete(this.app.run(request));
+                } catch (final Exception e) {
+                    response.completeExceptionally(e);
+                }
+            });
+        } catch (final RejectedExecutionException ree) {
+            LOG.warn("Slack request rejected, {} requests are queued",
+                    this.executor.getQueue().size());
+            response.complete(Response.error(503));
+        }
+
+        // Failures shouldn't keep retries from running it again
+        response.whenComplete((result, throwable) -> {
+            if (throwable != null ||
+                    (result.getStatusCode() != null && result.getStatusCode() >= 500)) {
+                this.seen.remove(key, entry);
+            }
+        });
+        return response;
+    }
+
+    /**
+     * Sends the provided response to the request's {@code response_url} once
+     * it's ready. Used for requests that were already acknowledged empty
+     * because they outlived Slack's acknowledgement window.
+     *
+     * @param request  The request.
+     * @param response The future response.
+     */
+    public void respondLater(
+            final Request<?> request,
+            final CompletableFuture<Response> response) {
+        response.whenComplete((result, throwable) -> {
+            final String responseUrl = request.getResponseUrl();
+            if (throwable != null) {
+                LOG.warn("Failed to handle a late Slack request", throwable);
+            } else if (responseUrl == null ||
+                    result.getBody() == null ||
+                    result.getBody().isEmpty()) {
+                LOG.debug("Dropping a late Slack response with nowhere to go");
+            } else {
+                try {
+                    final Integer code =
+                            this.app
+                                    .slack()
+                                    .send(
+                                            responseUrl,
+                                            result.getBody())
+                                    .getCode();
+                    if (code == null || code != 200) {
+                        LOG.warn("Slack rejected a late response: {}", code);
+                    }
+                } catch (final Exception e) {
+                    LOG.warn("Failed to send a late Slack response", e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Checks whether the provided request was signed by Slack.
+     *
+     * @param timestamp The {@code X-Slack-Request-Timestamp} header.
+     * @param body      The request body.
+     * @param signature The {@code X-Slack-Signature} header.
+     *
+     * @return Whether the request was signed by Slack.
+     */
+    private boolean isVerified(
+            final String timestamp,
+            final String body,
+            final String signature) {
+        if (!this.app.config().isRequestVerificationEnabled()) {
+            return true;
+        }
+        try {
+            return timestamp != null &&
+                    signature != null &&
+                    this.verifier.isValid(timestamp, body, signature);
+        } catch (final NumberFormatException nfe) {
+            return false;
+        }
+    }
+
+    /** A request that was seen recently. */
+    private static class Entry {
+
+        /** When the entry expires. */
+        private final Instant expires;
+
+        /** The future response. */
+        private final CompletableFuture<Response> response;
+
+        /**
+         * Constructor.
+         *
+         * @param response The future response.
+         * @param expires  When the entry expires.
+         */
+        Entry(
+                final CompletableFuture<Response> response,
+                final Instant expires) {
+            this.response = response;
+            this.expires = expires;
+        }
+    }
+}
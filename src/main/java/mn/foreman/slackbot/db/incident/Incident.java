@@ -0,0 +1,60 @@
+package mn.foreman.slackbot.db.incident;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+
+import java.time.Instant;
+
+/**
+ * An {@link Incident} tracks the Slack message that was posted when a trigger
+ * started failing in a chat, so that later notifications for the same trigger
+ * can edit that message in place.
+ */
+@Data
+@Builder(toBuilder = true)
+@NoArgsConstructor
+@AllArgsConstructor
+public class Incident {
+
+    /** The chat ID. */
+    private String chatId;
+
+    /** The incident ID, which is the chat ID and the trigger subject. */
+    @Id
+    private String id;
+
+    /** When the incident was opened. */
+    private Instant opened;
+
+    /** When the trigger recovered, or {@code null} while still failing. */
+    private Instant resolved;
+
+    /** The trigger subject. */
+    private String subject;
+
+    /** The latest failure message, which recoveries are appended to. */
+    private String text;
+
+    /** The timestamp of the Slack message that's kept up to date. */
+    private String ts;
+
+    /** When the incident was last updated. */
+    private Instant updated;
+
+    /**
+     * Creates the incident ID for the provided chat and trigger.
+     *
+     * @param chatId  The chat ID.
+     * @param subject The trigger subject.
+     *
+     * @return The incident ID.
+     */
+    public static String toId(
+            final String chatId,
+            final String subject) {
+        return chatId + ":" + subject;
+    }
+}
@@ -0,0 +1,58 @@
+package mn.foreman.slackbot.db.incident;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.time.Duration;
+
+/**
+ * Ensures the indexes for the {@link Incident} collection exist. Incidents
+ * expire once they haven't been updated for the configured TTL.
+ */
+@Component
+public class IncidentIndexes {
+
+    /** The logger for this class. */
+    private static final Logger LOG =
+            LoggerFactory.getLogger(IncidentIndexes.class);
+
+    /** The template. */
+    private final MongoTemplate mongoTemplate;
+
+    /** How long an incident is kept after its last update. */
+    private final Duration ttl;
+
+    /**
+     * Constructor.
+     *
+     * @param mongoTemplate The template.
+     * @param ttl           How long an incident is kept after its last
+     *                      update.
+     */
+    public IncidentIndexes(
+            final MongoTemplate mongoTemplate,
+            @Value("${notifications.incidents.ttl}") final Duration ttl) {
+        this.mongoTemplate = mongoTemplate;
+        this.ttl = ttl;
+    }
+
+    /** Creates the indexes, if they don't already exist. */
+    @PostConstruct
+    public void ensureIndexes() {
+        final String updated =
+                this.mongoTemplate
+                        .indexOps(Incident.class)
+                        .ensureIndex(
+                                new Index()
+                                        .on("updated", Sort.Direction.ASC)
+                                        .named("updated")
+                                        .expire(this.ttl));
+        LOG.info("Ensured Incident index {}", updated);
+    }
+}
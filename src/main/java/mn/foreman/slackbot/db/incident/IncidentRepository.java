@@ -0,0 +1,9 @@
+package mn.foreman.slackbot.db.incident;
+
+import org.springframework.data.mongodb.repository.MongoRepository;
+
+/** A repository for storing {@link Incident incidents}. */
+public interface IncidentRepository
+        extends MongoRepository<Incident, String> {
+
+}
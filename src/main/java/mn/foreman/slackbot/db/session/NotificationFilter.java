@@ -0,0 +1,39 @@
+package mn.foreman.slackbot.db.session;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * A {@link NotificationFilter} holds the rules that decide which notifications
+ * are sent to a chat. Rules that aren't set match everything.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class NotificationFilter {
+
+    /** A case-insensitive substring that a failing miner's diagnosis must contain. */
+    private String diagnosis;
+
+    /** A case-insensitive glob that a failing miner's name must match. */
+    private String minerPattern;
+
+    /** The kinds of notifications to send. */
+    private Type type;
+
+    /** The kinds of notifications that can be sent. */
+    public enum Type {
+
+        /** Failures and recoveries. */
+        ALL,
+
+        /** Only failures. */
+        FAILURES,
+
+        /** Only recoveries. */
+        RECOVERIES
+    }
+}
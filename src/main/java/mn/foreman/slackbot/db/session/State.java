@@ -7,7 +7,7 @@ import java.time.Instant;
 
 /** A {@link State} represents the bot's state for each registered chat id. */
 @Data
-@Builder
+@Builder(toBuilder = true)
 @Setter
 @NoArgsConstructor
 @AllArgsConstructor
@@ -29,6 +29,15 @@ public class State {
     /** When the session was added. */
     private Instant dateRegistered;
 
+    /** The Slack enterprise the workspace belongs to, if any. */
+    private String enterpriseId;
+
+    /** Which notifications are sent, or {@code null} to send all of them. */
+    private NotificationFilter filter;
+
     /** The last notification id. */
     private int lastNotificationId;
+
+    /** The Slack workspace the chat belongs to. */
+    private String teamId;
 }
@@ -0,0 +1,61 @@
+package mn.foreman.slackbot.db.session;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+
+/**
+ * Ensures the indexes for the {@link State} collection exist. Spring Data
+ * doesn't create indexes automatically, so they're defined here explicitly.
+ *
+ * <p>The index choice is reasoned from the query shapes, not measured. The
+ * poller has no stored "due" or "active" predicate to index: every
+ * registration is active and is loaded once by {@link
+ * StateRepositoryCustom#findRegistrations()}, a full read that no index
+ * would speed up, and whether a session is due is decided in memory by the
+ * catch-up planner. What runs for each due session is the credentials read
+ * and the checkpoint, both point lookups by {@code _id}, which Mongo always
+ * indexes. The remaining lookups are by client, which is what the index
+ * below serves. {@code StateRepositoryBenchmark} times these queries at
+ * 10k, 100k and 1M registrations and fails if any of them is answered with a
+ * collection scan; its numbers should be recorded here once it has been run
+ * against a real Mongo, and the indexes revisited if they disagree.</p>
+ */
+@Component
+public class StateIndexes {
+
+    /** The logger for this class. */
+    private static final Logger LOG =
+            LoggerFactory.getLogger(StateIndexes.class);
+
+    /** The template. */
+    private final MongoTemplate mongoTemplate;
+
+    /**
+     * Constructor.
+     *
+     * @param mongoTemplate The template.
+     */
+    public StateIndexes(final MongoTemplate mongoTemplate) {
+        this.mongoTemplate = mongoTemplate;
+    }
+
+    /** Creates the indexes, if they don't already exist. */
+    @PostConstruct
+    public void ensureIndexes() {
+        // Registrations by client, for lookups and filtered exports
+        final String clientId =
+                this.mongoTemplate
+                        .indexOps(State.class)
+                        .ensureIndex(
+                                new Index()
+                                        .on("clientId", Sort.Direction.ASC)
+                                        .named("clientId"));
+        LOG.info("Ensured State index {}", clientId);
+    }
+}
@@ -0,0 +1,369 @@
+package mn.foreman.slackbot.db.session;
+
+import com.mongodb.client.MongoChangeStreamCursor;
+import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import com.mongodb.client.model.changestream.FullDocument;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * A live, in-memory view of the registered {@link State States}.
+ *
+ * <p>The registry is loaded once at startup and then kept current by a Mongo
+ * change stream so that registrations and removals are visible to the poller
+ * without re-reading the collection every cycle. Change streams require a
+ * replica set, so the registry also periodically resyncs with the repository
+ * as a fallback.</p>
+ *
+ * <p>Entries are kept without their credentials, which are looked up with
+ * {@link StateRepository#findCredentials(String)} when a session is
+ * processed, so API keys and bot tokens aren't held for every registration.
+ * The change stream ignores the updates that only move a cursor, since the
+ * registry already tracks the cursors it hands out through {@link
+ * #advance(String, int)}.</p>
+ *
+ * <p>Every change made through {@link #put(State)}, {@link #remove(String)}
+ * or the change stream is stamped with a version. A resync only overwrites
+ * the entries that haven't changed since its snapshot was read, so a
+ * registration or removal that lands while the snapshot is loading isn't
+ * undone by it.</p>
+ */
+@Component
+public class StateRegistry {
+
+    /** The logger for this class. */
+    private static final Logger LOG =
+            LoggerFactory.getLogger(StateRegistry.class);
+
+    /** How long to wait for a change before checking for shutdown. */
+    private static final long MAX_AWAIT_SECONDS = 1;
+
+    /**
+     * The version of each entry that changed since the last resync, keyed by
+     * chat ID. Removals are kept here too until the next resync.
+     */
+    private final Map<String, Long> changed = new HashMap<>();
+
+    /** The template for watching the collection. */
+    private final MongoTemplate mongoTemplate;
+
+    /** How long to wait between resyncs, in milliseconds. */
+    private final long resyncDelay;
+
+    /** The registered {@link State States}, keyed by chat ID. */
+    private final Map<String, State> states = new ConcurrentHashMap<>();
+
+    /** The repository where {@link State States} are stored. */
+    private final StateRepository stateRepository;
+
+    /** The latest version handed out. */
+    private long version;
+
+    /** Whether or not the registry is running. */
+    private volatile boolean running;
+
+    /** The thread watching the change stream. */
+    private Thread watcher;
+
+    /**
+     * Constructor.
+     *
+     * @param stateRepository The repository where {@link State States} are
+     *                        stored.
+     * @param mongoTemplate   The template for watching the collection.
+     * @param resyncDelay     How long to wait between resyncs, in
+     *                        milliseconds.
+     */
+    public StateRegistry(
+            final StateRepository stateRepository,
+            final MongoTemplate mongoTemplate,
+            @Value("${bot.registry.resyncDelay}") final long resyncDelay) {
+        this.stateRepository = stateRepository;
+        this.mongoTemplate = mongoTemplate;
+        this.resyncDelay = resyncDelay;
+    }
+
+    /**
+     * Returns a copy of the provided {@link State} without its credentials.
+     *
+     * @param state The {@link State}.
+     *
+     * @return The copy.
+     */
+    private static State compact(final State state) {
+        return state
+                .toBuilder()
+                .apiKey(null)
+                .botToken(null)
+                .build();
+    }
+
+    /**
+     * Moves the cursor for the provided chat forward. Cursors never move
+     * backwards, so a late or stale update is ignored.
+     *
+     * @param chatId             The chat ID.
+     * @param lastNotificationId The last notification that was handled.
+     */
+    public void advance(
+            final String chatId,
+            final int lastNotificationId) {
+        this.states.computeIfPresent(
+                chatId,
+                (ignored, state) -> {
+                    if (lastNotificationId > state.getLastNotificationId()) {
+                        state.setLastNotificationId(lastNotificationId);
+                    }
+                    return state;
+                });
+    }
+
+    /**
+     * Returns the {@link State} for the provided chat, if registered. The
+     * {@link State} doesn't carry its credentials.
+     *
+     * @param chatId The chat ID.
+     *
+     * @return The {@link State}, if registered.
+     */
+    public Optional<State> get(final String chatId) {
+        return Optional.ofNullable(this.states.get(chatId));
+    }
+
+    /**
+     * Returns a snapshot of the registered {@link State States}. The {@link
+     * State States} don't carry their credentials.
+     *
+     * @return The registered {@link State States}.
+     */
+    public List<State> getStates() {
+        return new ArrayList<>(this.states.values());
+    }
+
+    /**
+     * Adds or replaces the provided {@link State}. Its credentials aren't
+     * kept, and a cursor that's already further along is.
+     *
+     * @param state The {@link State}.
+     */
+    public synchronized void put(final State state) {
+        this.changed.put(state.getChatId(), ++this.version);
+        store(compact(state));
+    }
+
+    /**
+     * Removes the {@link State} for the provided chat.
+     *
+     * @param chatId The chat ID.
+     */
+    public synchronized void remove(final String chatId) {
+        this.changed.put(chatId, ++this.version);
+        this.states.remove(chatId);
+    }
+
+    /**
+     * Replaces the registry contents with what's currently in the repository,
+     * except for the entries that changed while it was being read.
+     */
+    @Scheduled(
+            initialDelayString = "${bot.registry.resyncDelay}",
+            fixedDelayString = "${bot.registry.resyncDelay}")
+    public void resync() {
+        final long since;
+        synchronized (this) {
+            since = this.version;
+        }
+
+        final Map<String, State> current =
+                this.stateRepository
+                        .findRegistrations()
+                        .stream()
+                        .collect(Collectors.toMap(
+                                State::getChatId,
+                                state -> state));
+
+        synchronized (this) {
+            for (final String chatId : this.states.keySet()) {
+                if (!current.containsKey(chatId) && isUnchangedSince(chatId, since)) {
+                    this.states.remove(chatId);
+                }
+            }
+            for (final State state : current.values()) {
+                if (isUnchangedSince(state.getChatId(), since)) {
+                    store(state);
+                }
+            }
+            // Anything older than the snapshot is reflected in it now
+            this.changed.values().removeIf(changedAt -> changedAt <= since);
+        }
+        LOG.debug("Resynced {} registered sessions", current.size());
+    }
+
+    /** Loads the registry and begins watching for changes. */
+    @PostConstruct
+    public void start() {
+        resync();
+        LOG.info("Loaded {} registered sessions", this.states.size());
+
+        this.running = true;
+        this.watcher = new Thread(this::watch, "state-registry-watcher");
+        this.watcher.setDaemon(true);
+        this.watcher.start();
+    }
+
+    /** Stops watching for changes. */
+    @PreDestroy
+    public void stop() {
+        this.running = false;
+        if (this.watcher != null) {
+            this.watcher.interrupt();
+        }
+    }
+
+    /**
+     * Applies the provided change to the registry.
+     *
+     * @param change The change.
+     */
+    private void apply(final ChangeStreamDocument<Document> change) {
+        switch (change.getOperationType()) {
+            case INSERT:
+            case UPDATE:
+            case REPLACE:
+                final Document document = change.getFullDocument();
+                if (document != null) {
+                    put(this.mongoTemplate
+                            .getConverter()
+                            .read(State.class, document));
+                }
+                break;
+            case DELETE:
+                final BsonValue id = change.getDocumentKey().get("_id");
+                if (id != null && id.isString()) {
+                    remove(id.asString().getValue());
+                }
+                break;
+            default:
+                // The collection was dropped or the stream was invalidated
+                resync();
+                break;
+        }
+    }
+
+    /**
+     * Checks whether or not the provided chat hasn't changed since the
+     * provided version. Must be called while synchronized.
+     *
+     * @param chatId The chat ID.
+     * @param since  The version.
+     *
+     * @return Whether or not the chat hasn't changed.
+     */
+    private boolean isUnchangedSince(
+            final String chatId,
+            final long since) {
+        return this.changed.getOrDefault(chatId, 0L) <= since;
+    }
+
+    /**
+     * Stores the provided {@link State}, keeping the current cursor if it's
+     * further along. Must be called while synchronized.
+     *
+     * @param state The {@link State} without its credentials.
+     */
+    private void store(final State state) {
+        this.states.merge(
+                state.getChatId(),
+                state,
+                (existing, replacement) -> {
+                    // Checkpoints are saved behind delivery, so the stored
+                    // cursor can trail the one in memory
+                    if (existing.getLastNotificationId() > replacement.getLastNotificationId()) {
+                        replacement.setLastNotificationId(existing.getLastNotificationId());
+                    }
+                    return replacement;
+                });
+    }
+
+    /**
+     * Follows the change stream for the {@link State} collection until
+     * stopped. If the stream can't be opened or fails for any reason, the
+     * watcher waits for the resync delay before opening it again, and the
+     * periodic resync keeps the registry current in the meantime.
+     */
+    private void watch() {
+        final String collection =
+                this.mongoTemplate.getCollectionName(State.class);
+        final List<Bson> pipeline =
+                Arrays.asList(
+                        // Checkpoints only move the cursor, which the
+                        // registry already tracks
+                        Aggregates.match(
+                                Filters.or(
+                                        Filters.ne("operationType", "update"),
+                                        Filters.exists(
+                                                "updateDescription.updatedFields.lastNotificationId",
+                                                false))),
+                        Aggregates.project(
+                                Projections.exclude(
+                                        Arrays
+                                                .stream(StateRepositoryCustomImpl.CREDENTIALS)
+                                                .map(field -> "fullDocument." + field)
+                                                .collect(Collectors.toList()))));
+        while (this.running) {
+            try (final MongoChangeStreamCursor<ChangeStreamDocument<Document>> cursor =
+                         this.mongoTemplate
+                                 .getCollection(collection)
+                                 .watch(pipeline)
+                                 .fullDocument(FullDocument.UPDATE_LOOKUP)
+                                 .maxAwaitTime(MAX_AWAIT_SECONDS, TimeUnit.SECONDS)
+                                 .cursor()) {
+                LOG.info("Watching {} for registration changes", collection);
+
+                // Anything that changed before the stream opened
+                resync();
+
+                while (this.running) {
+                    final ChangeStreamDocument<Document> change =
+                            cursor.tryNext();
+                    if (change != null) {
+                        apply(change);
+                    }
+                }
+            } catch (final RuntimeException e) {
+                if (!this.running) {
+                    return;
+                }
+                LOG.warn("Change stream unavailable, relying on periodic resync", e);
+                try {
+                    Thread.sleep(this.resyncDelay);
+                } catch (final InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+}
@@ -2,8 +2,18 @@ package mn.foreman.slackbot.db.session;
 
 import org.springframework.data.mongodb.repository.MongoRepository;
 
+import java.util.List;
+
 /** A repository for storing {@link State sessions}. */
 public interface StateRepository
-        extends MongoRepository<State, String> {
+        extends MongoRepository<State, String>, StateRepositoryCustom {
 
+    /**
+     * Finds the {@link State sessions} registered with the provided client.
+     *
+     * @param clientId The client ID.
+     *
+     * @return The {@link State sessions}.
+     */
+    List<State> findByClientId(int clientId);
 }
@@ -0,0 +1,54 @@
+package mn.foreman.slackbot.db.session;
+
+import java.util.List;
+import java.util.Optional;
+
+/** Targeted reads and writes for {@link State sessions}. */
+public interface StateRepositoryCustom {
+
+    /**
+     * Finds the credentials for the provided chat. Only the chat ID, API key
+     * and bot token are read.
+     *
+     * @param chatId The chat ID.
+     *
+     * @return The credentials, if the chat is registered.
+     */
+    Optional<State> findCredentials(String chatId);
+
+    /**
+     * Finds every registered {@link State session} without its credentials,
+     * which are looked up with {@link #findCredentials(String)} when they're
+     * needed.
+     *
+     * @return The {@link State sessions}.
+     */
+    List<State> findRegistrations();
+
+    /**
+     * Saves the last notification that was delivered for the provided chat.
+     * Only the cursor is written, it never moves backwards, and a chat that
+     * has since been removed is not re-created.
+     *
+     * @param chatId             The chat ID.
+     * @param lastNotificationId The last notification ID.
+     *
+     * @return Whether or not the chat was still registered.
+     */
+    boolean checkpoint(
+            String chatId,
+            int lastNotificationId);
+
+    /**
+     * Replaces the notification filter for the provided chat. Only the filter
+     * is written, so the cursor isn't affected.
+     *
+     * @param chatId The chat ID.
+     * @param filter The new filter, or {@code null} to remove it.
+     *
+     * @return Whether or not the chat is registered.
+     */
+    boolean updateFilter(
+            String chatId,
+            NotificationFilter filter);
+}
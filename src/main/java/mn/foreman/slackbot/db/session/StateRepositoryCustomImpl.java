@@ -0,0 +1,102 @@
+package mn.foreman.slackbot.db.session;
+
+import mn.foreman.slackbot.jfr.CheckpointEvent;
+
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.util.List;
+import java.util.Optional;
+
+/** A {@link StateRepositoryCustom} backed by a {@link MongoTemplate}. */
+public class StateRepositoryCustomImpl
+        implements StateRepositoryCustom {
+
+    /** The fields that are only read when they're needed. */
+    static final String[] CREDENTIALS = {"apiKey", "botToken"};
+
+    /** The template. */
+    private final MongoTemplate mongoTemplate;
+
+    /**
+     * Constructor.
+     *
+     * @param mongoTemplate The template.
+     */
+    public StateRepositoryCustomImpl(final MongoTemplate mongoTemplate) {
+        this.mongoTemplate = mongoTemplate;
+    }
+
+    @Override
+    public boolean checkpoint(
+            final String chatId,
+            final int lastNotificationId) {
+        final CheckpointEvent event = new CheckpointEvent();
+        event.begin();
+        try {
+            return this.mongoTemplate
+                    .updateFirst(
+                            Query.query(
+                                    Criteria
+                                            .where("_id")
+                                            .is(chatId)),
+                            new Update().max(
+                                    "lastNotificationId",
+                                    lastNotificationId),
+                            State.class)
+                    .getMatchedCount() > 0;
+        } finally {
+            event.chatId = chatId;
+            event.lastNotificationId = lastNotificationId;
+            event.commit();
+        }
+    }
+
+    @Override
+    public Optional<State> findCredentials(final String chatId) {
+        final Query query =
+                Query.query(
+                        Criteria
+                                .where("_id")
+                                .is(chatId));
+        query
+                .fields()
+                .include("apiKey", "botToken");
+        return Optional.ofNullable(
+                this.mongoTemplate.findOne(
+                        query,
+                        State.class));
+    }
+
+    @Override
+    public List<State> findRegistrations() {
+        final Query query = new Query();
+        query
+                .fields()
+                .exclude(CREDENTIALS);
+        return this.mongoTemplate.find(
+                query,
+                State.class);
+    }
+
+    @Override
+    public boolean updateFilter(
+            final String chatId,
+            final NotificationFilter filter) {
+        final Update update =
+                filter != null
+                        ? Update.update("filter", filter)
+                        : new Update().unset("filter");
+        return this.mongoTemplate
+                .updateFirst(
+                        Query.query(
+                                Criteria
+                                        .where("_id")
+                                        .is(chatId)),
+                        update,
+                        State.class)
+                .getMatchedCount() > 0;
+    }
+}
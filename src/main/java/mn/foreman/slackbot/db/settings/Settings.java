@@ -0,0 +1,43 @@
+package mn.foreman.slackbot.db.settings;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+
+/**
+ * The polling and delivery {@link Settings} that can be changed while the bot
+ * is running. Settings that aren't set fall back to the configured defaults.
+ */
+@Data
+@Builder(toBuilder = true)
+@NoArgsConstructor
+@AllArgsConstructor
+public class Settings {
+
+    /** The max number of Slack deliveries in flight at once. */
+    private Integer deliveryMaxInFlight;
+
+    /** The max number of Slack deliveries started per second. */
+    private Integer deliveryRatePerSecond;
+
+    /** The Foreman request timeout, in milliseconds. */
+    private Long foremanTimeoutMillis;
+
+    /** The settings ID. */
+    @Id
+    private String id;
+
+    /** The max number of failing miners rendered in a single message. */
+    private Integer maxFailingMiners;
+
+    /** The delay between poll cycles, in milliseconds. */
+    private Long pollDelayMillis;
+
+    /** The number of sessions processed at once by the blocking poller. */
+    private Integer pollParallelism;
+
+    /** The max number of sessions in flight at once for the async poller. */
+    private Integer sessionMaxInFlight;
+}
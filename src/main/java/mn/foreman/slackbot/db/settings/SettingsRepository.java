@@ -0,0 +1,9 @@
+package mn.foreman.slackbot.db.settings;
+
+import org.springframework.data.mongodb.repository.MongoRepository;
+
+/** A repository for storing the runtime {@link Settings}. */
+public interface SettingsRepository
+        extends MongoRepository<Settings, String> {
+
+}
@@ -0,0 +1,198 @@
+package mn.foreman.slackbot.handlers;
+
+import mn.foreman.slackbot.db.session.NotificationFilter;
+import mn.foreman.slackbot.db.session.State;
+import mn.foreman.slackbot.db.session.StateRegistry;
+import mn.foreman.slackbot.db.session.StateRepository;
+import mn.foreman.slackbot.notifications.NotificationFilters;
+
+import com.slack.api.bolt.context.builtin.SlashCommandContext;
+import com.slack.api.bolt.handler.builtin.SlashCommandHandler;
+import com.slack.api.bolt.request.builtin.SlashCommandRequest;
+import com.slack.api.bolt.response.Response;
+
+import java.util.Locale;
+import java.util.Optional;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Lets a channel choose which notifications it gets. Rules are given as
+ * {@code key:value} pairs and are merged into the channel's existing rules:
+ *
+ * <ul>
+ *     <li>{@code miner:<glob>} - only failures where a miner name matches</li>
+ *     <li>{@code diagnosis:<text>} - only failures where a diagnosis contains
+ *     the text (quote it if it has spaces)</li>
+ *     <li>{@code only:failures|recoveries|all} - which kinds to send</li>
+ * </ul>
+ *
+ * <p>{@code clear} removes every rule, and no arguments shows the current
+ * rules.</p>
+ */
+public class FilterCommandHandler implements SlashCommandHandler {
+
+    /** Matches a single {@code key:value} rule. */
+    private static final Pattern RULE =
+            Pattern.compile("(\\w+):(?:\"([^\"]*)\"|(\\S+))");
+
+    /** How to use the command. */
+    private static final String USAGE =
+            "Try something like `/foreman_filter miner:rig-* diagnosis:\"hash rate\" only:failures`, " +
+                    "or `/foreman_filter clear` to get everything again.";
+
+    /** The registered {@link State}s being polled. */
+    private final StateRegistry stateRegistry;
+
+    /** Where {@link State}s are stored. */
+    private final StateRepository stateRepository;
+
+    /**
+     * Constructor.
+     *
+     * @param stateRepository The backing {@link State} repository.
+     * @param stateRegistry   The registered {@link State}s being polled.
+     */
+    public FilterCommandHandler(
+            final StateRepository stateRepository,
+            final StateRegistry stateRegistry) {
+        this.stateRepository = stateRepository;
+        this.stateRegistry = stateRegistry;
+    }
+
+    /**
+     * Describes the provided filter.
+     *
+     * @param filter The filter, or {@code null}.
+     *
+     * @return The description.
+     */
+    private static String describe(final NotificationFilter filter) {
+        if (filter == null) {
+            return "You're getting every notification.";
+        }
+        final NotificationFilter.Type type =
+                filter.getType() != null
+                        ? filter.getType()
+                        : NotificationFilter.Type.ALL;
+        return "*Notifications:* " + type.name().toLowerCase(Locale.ROOT) + "\n" +
+                "*Miners matching:* " + Optional.ofNullable(filter.getMinerPattern()).orElse("anything") + "\n" +
+                "*Diagnosis containing:* " + Optional.ofNullable(filter.getDiagnosis()).orElse("anything");
+    }
+
+    /**
+     * Merges the provided rules into the provided filter.
+     *
+     * @param existing  The existing filter, or {@code null}.
+     * @param arguments The rules.
+     *
+     * @return The new filter.
+     *
+     * @throws IllegalArgumentException if a rule isn't valid.
+     */
+    static NotificationFilter merge(
+            final NotificationFilter existing,
+            final String arguments) {
+        final NotificationFilter filter =
+                existing != null
+                        ? NotificationFilter
+                        .builder()
+                        .diagnosis(existing.getDiagnosis())
+                        .minerPattern(existing.getMinerPattern())
+                        .type(existing.getType())
+                        .build()
+                        : new NotificationFilter();
+
+        final Matcher matcher = RULE.matcher(arguments);
+        int end = 0;
+        while (matcher.find()) {
+            if (!arguments.substring(end, matcher.start()).isBlank()) {
+                throw new IllegalArgumentException(
+                        "I didn't understand `" + arguments.substring(end, matcher.start()).trim() + "`.");
+            }
+            end = matcher.end();
+
+            final String value =
+                    matcher.group(2) != null
+                            ? matcher.group(2)
+                            : matcher.group(3);
+            switch (matcher.group(1).toLowerCase(Locale.ROOT)) {
+                case "miner":
+                    filter.setMinerPattern(value.isBlank() ? null : value);
+                    break;
+                case "diagnosis":
+                    filter.setDiagnosis(value.isBlank() ? null : value);
+                    break;
+                case "only":
+                    try {
+                        filter.setType(
+                                NotificationFilter.Type.valueOf(
+                                        value.toUpperCase(Locale.ROOT)));
+                    } catch (final IllegalArgumentException iae) {
+                        throw new IllegalArgumentException(
+                                "`only` should be failures, recoveries or all.");
+                    }
+                    break;
+                default:
+                    throw new IllegalArgumentException(
+                            "I don't know the `" + matcher.group(1) + "` rule.");
+            }
+        }
+        if (!arguments.substring(end).isBlank()) {
+            throw new IllegalArgumentException(
+                    "I didn't understand `" + arguments.substring(end).trim() + "`.");
+        }
+
+        if (filter.getMinerPattern() == null &&
+                filter.getDiagnosis() == null &&
+                (filter.getType() == null || filter.getType() == NotificationFilter.Type.ALL)) {
+            return null;
+        }
+        return filter;
+    }
+
+    @Override
+    public Response apply(
+            final SlashCommandRequest slashCommandRequest,
+            final SlashCommandContext context) {
+        final String channelId = context.getChannelId();
+        final String arguments = slashCommandRequest.getPayload().getText();
+
+        final Optional<State> stateOpt = this.stateRepository.findById(channelId);
+        if (stateOpt.isEmpty()) {
+            return context.ack("I don't think we've met...");
+        }
+
+        final State state = stateOpt.get();
+        if (arguments == null || arguments.isBlank()) {
+            return context.ack(describe(state.getFilter()));
+        }
+
+        final NotificationFilter filter;
+        if ("clear".equalsIgnoreCase(arguments.trim())) {
+            filter = null;
+        } else {
+            try {
+                filter = merge(state.getFilter(), arguments);
+                if (filter != null) {
+                    // Fail now rather than when the next notification comes in
+                    NotificationFilters.compile(filter);
+                }
+            } catch (final PatternSyntaxException pse) {
+                return context.ack("That miner pattern isn't valid. " + USAGE);
+            } catch (final IllegalArgumentException iae) {
+                return context.ack(iae.getMessage() + " " + USAGE);
+            }
+        }
+
+        this.stateRepository.updateFilter(channelId, filter);
+        // Filters apply from the next poll rather than waiting for the
+        // registry to see the change
+        this.stateRegistry
+                .get(channelId)
+                .ifPresent(registered -> registered.setFilter(filter));
+
+        return context.ack("Got it :white_check_mark:\n\n" + describe(filter));
+    }
+}
@@ -1,6 +1,7 @@
 package mn.foreman.slackbot.handlers;
 
 import mn.foreman.slackbot.db.session.State;
+import mn.foreman.slackbot.db.session.StateRegistry;
 import mn.foreman.slackbot.db.session.StateRepository;
 
 import com.slack.api.bolt.context.builtin.SlashCommandContext;
@@ -13,6 +14,9 @@ import java.util.Optional;
 /** Makes the bot remove a channel so that it doesn't send alerts there anymore */
 public class ForgetCommandHandler implements SlashCommandHandler {
 
+    /** The registered {@link State}s being polled. */
+    private final StateRegistry stateRegistry;
+
     /** Where {@link State}s are stored. */
     private final StateRepository stateRepository;
 
@@ -20,9 +24,13 @@ public class ForgetCommandHandler implements SlashCommandHandler {
      * The constructor for this command
      *
      * @param stateRepository The backing {@link State} repository.
+     * @param stateRegistry   The registered {@link State}s being polled.
      */
-    public ForgetCommandHandler(final StateRepository stateRepository) {
+    public ForgetCommandHandler(
+            final StateRepository stateRepository,
+            final StateRegistry stateRegistry) {
         this.stateRepository = stateRepository;
+        this.stateRegistry = stateRegistry;
     }
 
     @Override
@@ -39,6 +47,7 @@ public class ForgetCommandHandler implements SlashCommandHandler {
         // that
         if (this.stateRepository.existsById(channelId)) {
             this.stateRepository.deleteById(channelId);
+            this.stateRegistry.remove(channelId);
             output = "Got it - I won't send you notifications anymore";
         } else {
             // In this case they haven't done the response step yet.
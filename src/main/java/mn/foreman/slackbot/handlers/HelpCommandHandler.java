@@ -26,6 +26,8 @@ public class HelpCommandHandler
                         "*/foreman_forget:*\n" +
                         "Stops the bot from notifying you.\n\n" +
                         "*/foreman_test:*\n" +
-                        "Tests connectivity with the Foreman API.");
+                        "Tests connectivity with the Foreman API.\n\n" +
+                        "*/foreman_filter:*\n" +
+                        "Chooses which notifications are sent to the channel, e.g. `miner:rig-* diagnosis:\"hash rate\" only:failures`. Use `clear` to get everything again.");
     }
 }
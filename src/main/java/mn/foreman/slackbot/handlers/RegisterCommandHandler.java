@@ -1,10 +1,10 @@
 package mn.foreman.slackbot.handlers;
 
-import mn.foreman.api.ForemanApi;
-import mn.foreman.api.endpoints.ping.Ping;
-import mn.foreman.slackbot.config.ForemanUtils;
+import mn.foreman.slackbot.config.PingCache;
 import mn.foreman.slackbot.db.session.State;
+import mn.foreman.slackbot.db.session.StateRegistry;
 import mn.foreman.slackbot.db.session.StateRepository;
+import mn.foreman.slackbot.notifications.PriorityPoller;
 
 import com.slack.api.bolt.context.builtin.SlashCommandContext;
 import com.slack.api.bolt.handler.builtin.SlashCommandHandler;
@@ -27,12 +27,18 @@ public class RegisterCommandHandler
     /** Logger for this class. */
     private static final Logger LOG = LoggerFactory.getLogger(RegisterCommandHandler.class);
 
-    /** URl for Foreman API. */
-    private final String foremanApiUrl;
-
     /** URL for foreman dashboard */
     private final String foremanDashboardUrl;
 
+    /** Pings Foreman with the provided credentials. */
+    private final PingCache pingCache;
+
+    /** Polls new registrations right away. */
+    private final PriorityPoller priorityPoller;
+
+    /** The registered {@link State}s being polled. */
+    private final StateRegistry stateRegistry;
+
     /** This is the mongo repository for this session state. */
     private final StateRepository stateRepository;
 
@@ -40,15 +46,22 @@ public class RegisterCommandHandler
      * Constructor for this class
      *
      * @param stateRepository     The repository.
-     * @param foremanApiUrl       The Foreman API base URL.
+     * @param stateRegistry       The registered {@link State}s being polled.
+     * @param pingCache           Pings Foreman with the provided
+     *                            credentials.
+     * @param priorityPoller      Polls new registrations right away.
      * @param foremanDashboardUrl The dashboard URL.
      */
     public RegisterCommandHandler(
             final StateRepository stateRepository,
-            final String foremanApiUrl,
+            final StateRegistry stateRegistry,
+            final PingCache pingCache,
+            final PriorityPoller priorityPoller,
             final String foremanDashboardUrl) {
         this.stateRepository = stateRepository;
-        this.foremanApiUrl = foremanApiUrl;
+        this.stateRegistry = stateRegistry;
+        this.pingCache = pingCache;
+        this.priorityPoller = priorityPoller;
         this.foremanDashboardUrl = foremanDashboardUrl;
     }
 
@@ -77,6 +90,7 @@ public class RegisterCommandHandler
             // Re-registering - clear the old
             if (this.stateRepository.findById(channelId).isPresent()) {
                 this.stateRepository.deleteById(channelId);
+                this.stateRegistry.remove(channelId);
             }
 
             if (splitArgs.length >= 2) {
@@ -102,6 +116,7 @@ public class RegisterCommandHandler
     public void findAndDeleteOldState(final String channelId) {
         if (this.stateRepository.existsById(channelId)) {
             this.stateRepository.deleteById(channelId);
+            this.stateRegistry.remove(channelId);
         }
     }
 
@@ -127,8 +142,7 @@ public class RegisterCommandHandler
             final int clientId = Integer.parseInt(clientIdCandidate);
             final String apiKey = splitArgs[1];
 
-            final ForemanApi foremanApi = ForemanUtils.toApi(clientId, apiKey, this.foremanApiUrl);
-            final Ping ping = foremanApi.ping();
+            final PingCache.Result ping = this.pingCache.ping(clientId, apiKey);
             final String channelId = context.getChannelId();
             final String botToken = context.getBotToken();
 
@@ -142,15 +156,23 @@ public class RegisterCommandHandler
                 // sends the user a confirmation message Builds the state
                 // repository and adds the client Id, Api key, bot token and channel
                 // Id to the session/state
-                this.stateRepository.insert(
-                        State
-                                .builder()
-                                .dateRegistered(Instant.now())
-                                .clientId(clientId)
-                                .apiKey(apiKey)
-                                .chatId(channelId)
-                                .botToken(botToken)
-                                .build());
+                // Registered sessions are polled right away rather than
+                // waiting for the registry to see the change
+                this.stateRegistry.put(
+                        this.stateRepository.insert(
+                                State
+                                        .builder()
+                                        .dateRegistered(Instant.now())
+                                        .clientId(clientId)
+                                        .apiKey(apiKey)
+                                        .chatId(channelId)
+                                        .botToken(botToken)
+                                        .teamId(context.getTeamId())
+                                        .enterpriseId(context.getEnterpriseId())
+                                        .build()));
+
+                // Don't make them wait for the next poll cycle
+                this.priorityPoller.enqueue(channelId);
 
                 // Concatenate the confirmation text
                 outPutArgs =
@@ -1,10 +1,9 @@
 package mn.foreman.slackbot.handlers;
 
-import mn.foreman.api.ForemanApi;
-import mn.foreman.api.endpoints.ping.Ping;
-import mn.foreman.slackbot.config.ForemanUtils;
+import mn.foreman.slackbot.config.PingCache;
 import mn.foreman.slackbot.db.session.State;
 import mn.foreman.slackbot.db.session.StateRepository;
+import mn.foreman.slackbot.notifications.PriorityPoller;
 
 import com.slack.api.bolt.context.builtin.SlashCommandContext;
 import com.slack.api.bolt.handler.builtin.SlashCommandHandler;
@@ -16,8 +15,11 @@ import java.util.Optional;
 /** This lets the user test their connectivity to the foreman api */
 public class TestCommandHandler implements SlashCommandHandler {
 
-    /** URl for Foreman Api */
-    private final String foremanApiUrl;
+    /** Pings Foreman with the session's credentials. */
+    private final PingCache pingCache;
+
+    /** Polls the session right away. */
+    private final PriorityPoller priorityPoller;
 
     /** Where {@link State}s are stored. */
     private final StateRepository stateRepository;
@@ -26,13 +28,16 @@ public class TestCommandHandler implements SlashCommandHandler {
      * Constructor for the test command
      *
      * @param stateRepository Where {@link State}s are stored.
-     * @param foremanApiUrl   the Url for the Foreman Api
+     * @param pingCache       pings Foreman with the session's credentials
+     * @param priorityPoller  polls the session right away
      */
     public TestCommandHandler(
             final StateRepository stateRepository,
-            final String foremanApiUrl) {
+            final PingCache pingCache,
+            final PriorityPoller priorityPoller) {
         this.stateRepository = stateRepository;
-        this.foremanApiUrl = foremanApiUrl;
+        this.pingCache = pingCache;
+        this.priorityPoller = priorityPoller;
     }
 
     @Override
@@ -45,8 +50,7 @@ public class TestCommandHandler implements SlashCommandHandler {
         if (stateOpt.isPresent()) {
             final State state = stateOpt.get();
 
-            final ForemanApi foremanApi = ForemanUtils.toApi(state.getClientId(), state.getApiKey(), this.foremanApiUrl);
-            final Ping ping = foremanApi.ping();
+            final PingCache.Result ping = this.pingCache.ping(state.getClientId(), state.getApiKey());
 
             if (ping.ping()) {
                 messageBuilder.append("*Connectivity to Foreman:* :white_check_mark:\n");
@@ -56,6 +60,8 @@ public class TestCommandHandler implements SlashCommandHandler {
 
             if (ping.pingClient()) {
                 messageBuilder.append("*Authentication with your API credentials:* :white_check_mark:\n");
+                // Deliver anything pending now so the channel can see it working
+                this.priorityPoller.enqueue(channelId);
             } else {
                 messageBuilder.append("*Authentication with your API credentials:* :x:\n");
             }
@@ -0,0 +1,24 @@
+package mn.foreman.slackbot.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/** A JFR event for saving a session's notification cursor. */
+@Name("mn.foreman.slackbot.Checkpoint")
+@Label("Checkpoint")
+@Category({"Foreman", "Slack Bot"})
+@StackTrace(false)
+public class CheckpointEvent
+        extends Event {
+
+    /** The chat ID. */
+    @Label("Chat ID")
+    public String chatId;
+
+    /** The cursor that was saved. */
+    @Label("Last Notification ID")
+    public int lastNotificationId;
+}
@@ -0,0 +1,107 @@
+package mn.foreman.slackbot.jfr;
+
+import jdk.jfr.Configuration;
+import jdk.jfr.Recording;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.ParseException;
+import java.time.Duration;
+import java.util.Optional;
+
+/**
+ * Keeps a continuous, low-overhead flight recording running so that the
+ * recent history of the bot's JFR events, along with the JVM's own GC and
+ * thread events, can be dumped on demand. Off by default, and turned on with
+ * {@code bot.jfr.enabled} where the recording is wanted.
+ */
+@Component
+public class FlightRecordings {
+
+    /** The logger for this class. */
+    private static final Logger LOG =
+            LoggerFactory.getLogger(FlightRecordings.class);
+
+    /** Whether or not the continuous recording is enabled. */
+    private final boolean enabled;
+
+    /** How much history to keep. */
+    private final Duration maxAge;
+
+    /** The recording settings to use. */
+    private final String settings;
+
+    /** The continuous recording. */
+    private Recording recording;
+
+    /**
+     * Constructor.
+     *
+     * @param enabled  Whether or not the continuous recording is enabled.
+     * @param settings The recording settings to use.
+     * @param maxAge   How much history to keep.
+     */
+    public FlightRecordings(
+            @Value("${bot.jfr.enabled}") final boolean enabled,
+            @Value("${bot.jfr.settings}") final String settings,
+            @Value("${bot.jfr.maxAge}") final Duration maxAge) {
+        this.enabled = enabled;
+        this.settings = settings;
+        this.maxAge = maxAge;
+    }
+
+    /**
+     * Dumps the continuous recording to a temporary file. The caller is
+     * responsible for deleting the file.
+     *
+     * @return The file, if a recording is running.
+     *
+     * @throws IOException on failure.
+     */
+    public Optional<Path> dump() throws IOException {
+        if (this.recording == null) {
+            return Optional.empty();
+        }
+        final Path file = Files.createTempFile("slack-bot-", ".jfr");
+        this.recording.dump(file);
+        return Optional.of(file);
+    }
+
+    /**
+     * Starts the continuous recording.
+     *
+     * @throws IOException    on failure to read the settings.
+     * @throws ParseException on failure to parse the settings.
+     */
+    @PostConstruct
+    public void start() throws IOException, ParseException {
+        if (!this.enabled) {
+            return;
+        }
+        this.recording =
+                new Recording(
+                        Configuration.getConfiguration(this.settings));
+        this.recording.setName("slack-bot");
+        this.recording.setMaxAge(this.maxAge);
+        this.recording.setToDisk(true);
+        this.recording.start();
+        LOG.info("Started continuous flight recording ({}, {})",
+                this.settings,
+                this.maxAge);
+    }
+
+    /** Stops the continuous recording. */
+    @PreDestroy
+    public void stop() {
+        if (this.recording != null) {
+            this.recording.close();
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package mn.foreman.slackbot.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/** A JFR event for fetching a session's pending notifications from Foreman. */
+@Name("mn.foreman.slackbot.ForemanFetch")
+@Label("Foreman Fetch")
+@Category({"Foreman", "Slack Bot"})
+@StackTrace(false)
+public class ForemanFetchEvent
+        extends Event {
+
+    /** The chat ID. */
+    @Label("Chat ID")
+    public String chatId;
+
+    /** The number of notifications that were returned. */
+    @Label("Notifications")
+    @Description("The number of notifications that were returned")
+    public int notifications;
+
+    /** Whether or not the fetch succeeded. */
+    @Label("Succeeded")
+    public boolean succeeded;
+}
@@ -0,0 +1,27 @@
+package mn.foreman.slackbot.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/** A JFR event for a single pass of the notifier over every session. */
+@Name("mn.foreman.slackbot.PollCycle")
+@Label("Poll Cycle")
+@Category({"Foreman", "Slack Bot"})
+@StackTrace(false)
+public class PollCycleEvent
+        extends Event {
+
+    /** The number of notifications that were processed. */
+    @Label("Notifications")
+    @Description("The number of notifications that were processed")
+    public int notifications;
+
+    /** The number of sessions that were polled. */
+    @Label("Sessions")
+    @Description("The number of sessions that were polled")
+    public int sessions;
+}
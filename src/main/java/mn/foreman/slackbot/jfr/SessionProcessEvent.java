@@ -0,0 +1,26 @@
+package mn.foreman.slackbot.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/** A JFR event for fetching and delivering a session's notifications. */
+@Name("mn.foreman.slackbot.SessionProcess")
+@Label("Session Process")
+@Category({"Foreman", "Slack Bot"})
+@StackTrace(false)
+public class SessionProcessEvent
+        extends Event {
+
+    /** The chat ID. */
+    @Label("Chat ID")
+    public String chatId;
+
+    /** The number of notifications that were processed. */
+    @Label("Notifications")
+    @Description("The number of notifications that were processed")
+    public int notifications;
+}
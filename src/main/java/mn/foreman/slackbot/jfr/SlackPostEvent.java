@@ -0,0 +1,28 @@
+package mn.foreman.slackbot.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/** A JFR event for a single Slack API call. */
+@Name("mn.foreman.slackbot.SlackPost")
+@Label("Slack Post")
+@Category({"Foreman", "Slack Bot"})
+@StackTrace(false)
+public class SlackPostEvent
+        extends Event {
+
+    /** The chat ID. */
+    @Label("Chat ID")
+    public String chatId;
+
+    /** The Slack error, if the call failed. */
+    @Label("Error")
+    public String error;
+
+    /** Whether or not the call succeeded. */
+    @Label("Succeeded")
+    public boolean succeeded;
+}
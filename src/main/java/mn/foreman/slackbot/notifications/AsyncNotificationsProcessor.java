@@ -0,0 +1,28 @@
+package mn.foreman.slackbot.notifications;
+
+import mn.foreman.slackbot.db.session.State;
+import mn.foreman.slackbot.db.session.StateRepository;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * An {@link AsyncNotificationsProcessor} provides a non-blocking mechanism for
+ * obtaining pending Slack notifications for a chat via the Foreman API and
+ * sending notifications to a chat accordingly.
+ */
+public interface AsyncNotificationsProcessor {
+
+    /**
+     * Obtains notifications for the provided session and notifies the chat, as
+     * necessary, without blocking the calling thread.
+     *
+     * @param state           Provides the users credentials.
+     * @param stateRepository The repository where the progress is saved.
+     *
+     * @return A future that completes with the number of notifications that
+     *         were processed.
+     */
+    CompletableFuture<Integer> process(
+            State state,
+            StateRepository stateRepository);
+}
@@ -0,0 +1,170 @@
+package mn.foreman.slackbot.notifications;
+
+import mn.foreman.slackbot.config.RuntimeSettings;
+import mn.foreman.slackbot.db.session.State;
+import mn.foreman.slackbot.db.session.StateRepository;
+import mn.foreman.slackbot.jfr.SessionProcessEvent;
+
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * An {@link AsyncNotificationsProcessor} implementation that fetches from
+ * Foreman with a non-blocking HTTP client and posts to Slack through the
+ * {@link DeliveryScheduler}, so no thread is held while either call is in
+ * flight.
+ */
+@Component
+public class AsyncNotificationsProcessorImpl
+        implements AsyncNotificationsProcessor {
+
+    /** Plans the catch-up after startup. */
+    private final CatchUpPlanner catchUpPlanner;
+
+    /** Bounds the number of sessions that can be in flight at once. */
+    private final AsyncPermits inFlight;
+
+    /** Fetches and delivers the notifications a window at a time. */
+    private final NotificationsPager notificationsPager;
+
+    /** Holds the max number of sessions that can be in flight at once. */
+    private final RuntimeSettings runtimeSettings;
+
+    /**
+     * Constructor.
+     *
+     * @param catchUpPlanner     Plans the catch-up after startup.
+     * @param notificationsPager Fetches and delivers the notifications a
+     *                           window at a time.
+     * @param runtimeSettings    Holds the max number of sessions that can be
+     *                           in flight at once.
+     */
+    public AsyncNotificationsProcessorImpl(
+            final CatchUpPlanner catchUpPlanner,
+            final NotificationsPager notificationsPager,
+            final RuntimeSettings runtimeSettings) {
+        this.catchUpPlanner = catchUpPlanner;
+        this.notificationsPager = notificationsPager;
+        this.runtimeSettings = runtimeSettings;
+        this.inFlight =
+                new AsyncPermits(
+                        runtimeSettings.getSessionMaxInFlight());
+    }
+
+    @Override
+    public CompletableFuture<Integer> process(
+            final State state,
+            final StateRepository stateRepository) {
+        // Sessions catching up after a restart wait for their slot
+        if (!this.catchUpPlanner.isDue(state)) {
+            return CompletableFuture.completedFuture(0);
+        }
+
+        // Once too many sessions are in flight, the session waits in line
+        // for a permit rather than holding up the caller
+        this.inFlight.resize(this.runtimeSettings.getSessionMaxInFlight());
+
+        final SessionProcessEvent event = new SessionProcessEvent();
+        return this.inFlight
+                .acquire()
+                .thenCompose(ignored -> {
+                    event.begin();
+                    event.chatId = state.getChatId();
+                    return this.notificationsPager.process(
+                            state,
+                            stateRepository);
+                })
+                .whenComplete((count, throwable) -> {
+                    this.inFlight.release();
+                    if (count != null) {
+                        event.notifications = count;
+                    }
+                    event.commit();
+                });
+    }
+
+    /**
+     * A resizable number of permits that are handed out without blocking. A
+     * caller that can't get one right away is given a future that completes
+     * once one is released to it, in the order they asked.
+     */
+    static class AsyncPermits {
+
+        /** The callers waiting for a permit. */
+        private final Deque<CompletableFuture<Void>> waiting =
+                new ArrayDeque<>();
+
+        /** The number of permits. */
+        private int permits;
+
+        /** The number of permits held. */
+        private int used;
+
+        /**
+         * Constructor.
+         *
+         * @param permits The number of permits.
+         */
+        AsyncPermits(final int permits) {
+            this.permits = permits;
+        }
+
+        /**
+         * Acquires a permit.
+         *
+         * @return The future that completes once the permit is held.
+         */
+        synchronized CompletableFuture<Void> acquire() {
+            if (this.used < this.permits) {
+                this.used++;
+                return CompletableFuture.completedFuture(null);
+            }
+            final CompletableFuture<Void> permit = new CompletableFuture<>();
+            this.waiting.add(permit);
+            return permit;
+        }
+
+        /**
+         * Releases a permit, handing it to the next caller waiting for one.
+         * Permits that were removed while held are taken back instead.
+         */
+        void release() {
+            final CompletableFuture<Void> next;
+            synchronized (this) {
+                next = this.used <= this.permits
+                        ? this.waiting.poll()
+                        : null;
+                if (next == null) {
+                    this.used--;
+                }
+            }
+            // Completed outside the lock, since it starts the next session
+            if (next != null) {
+                next.complete(null);
+            }
+        }
+
+        /**
+         * Changes the number of permits. Permits that are added are handed to
+         * the callers waiting for one.
+         *
+         * @param permits The new number of permits.
+         */
+        void resize(final int permits) {
+            final List<CompletableFuture<Void>> granted = new ArrayList<>();
+            synchronized (this) {
+                this.permits = permits;
+                while (this.used < this.permits && !this.waiting.isEmpty()) {
+                    this.used++;
+                    granted.add(this.waiting.poll());
+                }
+            }
+            granted.forEach(permit -> permit.complete(null));
+        }
+    }
+}
@@ -0,0 +1,391 @@
+package mn.foreman.slackbot.notifications;
+
+import mn.foreman.slackbot.db.session.State;
+
+import com.slack.api.Slack;
+import com.slack.api.bolt.AppConfig;
+import com.slack.api.bolt.model.Bot;
+import com.slack.api.bolt.service.InstallationService;
+import com.slack.api.token_rotation.CurrentToken;
+import com.slack.api.token_rotation.RefreshedToken;
+import com.slack.api.token_rotation.TokenRotator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Resolves the current bot token for a session's workspace through the
+ * {@link InstallationService}, so reinstalls and rotated tokens are picked up
+ * without the chat registering again.
+ *
+ * <p>Tokens are cached in memory per workspace. Lookups never block: an entry
+ * that's close to its TTL, or whose token is close to expiring, is refreshed
+ * in the background while the cached token keeps being served, and rotation
+ * happens as part of that refresh. Until a workspace's first lookup completes,
+ * and for sessions registered before the workspace was recorded, the token
+ * stored with the session is used.</p>
+ *
+ * <p>Tokens that Slack rejected are remembered, and are never handed out
+ * again: until a different token is found, resolving fails rather than
+ * falling back to a token that's known to be bad.</p>
+ */
+@Component
+public class BotTokenResolver {
+
+    /** The logger for this class. */
+    private static final Logger LOG =
+            LoggerFactory.getLogger(BotTokenResolver.class);
+
+    /** The number of rejected tokens above which they're forgotten. */
+    private static final int MAX_REJECTED = 1024;
+
+    /** The cached tokens, keyed by workspace. */
+    private final Map<String, Entry> cache = new ConcurrentHashMap<>();
+
+    /** Where the workspace installations are stored. */
+    private final InstallationService installationService;
+
+    /** How long before the TTL an entry is refreshed. */
+    private final long refreshAheadMillis;
+
+    /** The tokens that Slack rejected. */
+    private final Set<String> rejected = ConcurrentHashMap.newKeySet();
+
+    /** The thread that refreshes and rotates the tokens. */
+    private final ExecutorService refreshExecutor =
+            Executors.newSingleThreadExecutor(runnable -> {
+                final Thread thread = new Thread(runnable, "bot-token-refresh");
+                thread.setDaemon(true);
+                return thread;
+            });
+
+    /** How long before a token expires that it's rotated. */
+    private final long rotateBeforeMillis;
+
+    /** Rotates the expiring tokens. */
+    private final TokenRotator tokenRotator;
+
+    /** How long an entry is trusted before it's looked up again. */
+    private final long ttlMillis;
+
+    /**
+     * Constructor.
+     *
+     * @param installationService Where the workspace installations are
+     *                            stored.
+     * @param appConfig           The Slack app config.
+     * @param ttl                 How long an entry is trusted before it's
+     *                            looked up again.
+     * @param refreshAhead        How long before the TTL an entry is
+     *                            refreshed.
+     * @param rotateBefore        How long before a token expires that it's
+     *                            rotated.
+     */
+    public BotTokenResolver(
+            final InstallationService installationService,
+            final AppConfig appConfig,
+            @Value("${bot.tokens.ttl}") final Duration ttl,
+            @Value("${bot.tokens.refreshAhead}") final Duration refreshAhead,
+            @Value("${bot.tokens.rotateBefore}") final Duration rotateBefore) {
+        this.installationService = installationService;
+        this.ttlMillis = ttl.toMillis();
+        this.refreshAheadMillis = refreshAhead.toMillis();
+        this.rotateBeforeMillis = rotateBefore.toMillis();
+        this.tokenRotator =
+                new TokenRotator(
+                        Slack.getInstance().methods(),
+                        this.rotateBeforeMillis,
+                        appConfig.getClientId(),
+                        appConfig.getClientSecret());
+    }
+
+    /**
+     * Returns the cache key for the provided workspace.
+     *
+     * @param enterpriseId The enterprise, if any.
+     * @param teamId       The workspace.
+     *
+     * @return The key.
+     */
+    private static String toKey(
+            final String enterpriseId,
+            final String teamId) {
+        return enterpriseId != null
+                ? enterpriseId + ":" + teamId
+                : teamId;
+    }
+
+    /** Stops the refresh thread. */
+    @PreDestroy
+    public void close() {
+        this.refreshExecutor.shutdownNow();
+    }
+
+    /**
+     * Drops the cached token for the provided session's workspace and looks
+     * it up again in the background. Called when Slack rejects a token.
+     *
+     * @param state The {@link State} for the session.
+     * @param token The token that Slack rejected.
+     */
+    public void invalidate(
+            final State state,
+            final String token) {
+        if (token != null && this.rejected.add(token)) {
+            LOG.warn("Slack rejected the bot token for {}, holding its " +
+                            "deliveries until a new token is found",
+                    state.getChatId());
+            if (this.rejected.size() > MAX_REJECTED) {
+                this.rejected.clear();
+                this.rejected.add(token);
+            }
+        }
+
+        final String teamId = state.getTeamId();
+        if (teamId == null) {
+            return;
+        }
+        final String key = toKey(state.getEnterpriseId(), teamId);
+        final Entry entry = this.cache.get(key);
+        if (entry != null) {
+            entry.expired = true;
+            if (System.currentTimeMillis() < entry.retryAt) {
+                return;
+            }
+        }
+        scheduleRefresh(
+                key,
+                state.getEnterpriseId(),
+                teamId,
+                entry);
+    }
+
+    /**
+     * Returns the bot token to use for the provided session. Never blocks.
+     *
+     * @param state The {@link State} for the session.
+     *
+     * @return The bot token.
+     *
+     * @throws IllegalStateException if the only token available for the
+     *                               session was already rejected by Slack.
+     */
+    public String resolve(final State state) {
+        final String teamId = state.getTeamId();
+        if (teamId == null) {
+            return requireAccepted(state, state.getBotToken());
+        }
+
+        final String key = toKey(state.getEnterpriseId(), teamId);
+        final Entry entry = this.cache.get(key);
+        if (entry == null || entry.isDue(this.ttlMillis - this.refreshAheadMillis, this.rotateBeforeMillis)) {
+            scheduleRefresh(
+                    key,
+                    state.getEnterpriseId(),
+                    teamId,
+                    entry);
+        }
+
+        return requireAccepted(
+                state,
+                entry != null && entry.token != null && !entry.expired
+                        ? entry.token
+                        : state.getBotToken());
+    }
+
+    /**
+     * Looks up, and rotates if needed, the token for the provided workspace.
+     *
+     * @param key          The cache key.
+     * @param enterpriseId The enterprise, if any.
+     * @param teamId       The workspace.
+     */
+    private void refresh(
+            final String key,
+            final String enterpriseId,
+            final String teamId) {
+        try {
+            final Bot bot =
+                    this.installationService.findBot(
+                            enterpriseId,
+                            teamId);
+            String token = null;
+            Long expiresAt = null;
+            if (bot != null) {
+                token = bot.getBotAccessToken();
+                expiresAt = bot.getBotTokenExpiresAt();
+                if (bot.getBotRefreshToken() != null && expiresAt != null) {
+                    final Optional<RefreshedToken> refreshed =
+                            this.tokenRotator.performTokenRotation(
+                                    new CurrentToken(
+                                            token,
+                                            bot.getBotRefreshToken(),
+                                            expiresAt));
+                    if (refreshed.isPresent()) {
+                        bot.setBotAccessToken(refreshed.get().getAccessToken());
+                        bot.setBotRefreshToken(refreshed.get().getRefreshToken());
+                        bot.setBotTokenExpiresAt(refreshed.get().getExpiresAt());
+                        this.installationService.saveBot(bot);
+                        token = bot.getBotAccessToken();
+                        expiresAt = bot.getBotTokenExpiresAt();
+                        LOG.info("Rotated the bot token for {}", key);
+                    }
+                }
+            } else {
+                LOG.warn("No installation found for {}", key);
+            }
+            this.cache.put(
+                    key,
+                    new Entry(
+                            token,
+                            expiresAt,
+                            System.currentTimeMillis(),
+                            0));
+        } catch (final Exception e) {
+            // The current token keeps being served, and the lookup is retried
+            // once the refresh-ahead window has passed
+            LOG.warn("Failed to refresh the bot token for {}", key, e);
+            final Entry entry = this.cache.get(key);
+            this.cache.put(
+                    key,
+                    new Entry(
+                            entry != null && !entry.expired ? entry.token : null,
+                            entry != null ? entry.expiresAt : null,
+                            entry != null ? entry.loadedAt : 0,
+                            System.currentTimeMillis() + this.refreshAheadMillis));
+        }
+    }
+
+    /**
+     * Fails if Slack already rejected the provided token.
+     *
+     * @param state The {@link State} for the session.
+     * @param token The token.
+     *
+     * @return The token.
+     *
+     * @throws IllegalStateException if Slack already rejected the token.
+     */
+    private String requireAccepted(
+            final State state,
+            final String token) {
+        if (token != null && this.rejected.contains(token)) {
+            throw new IllegalStateException(
+                    "No valid bot token for " + state.getChatId() +
+                            ", Slack rejected the current one");
+        }
+        return token;
+    }
+
+    /**
+     * Refreshes the provided workspace in the background, unless a refresh is
+     * already pending.
+     *
+     * @param key          The cache key.
+     * @param enterpriseId The enterprise, if any.
+     * @param teamId       The workspace.
+     * @param entry        The current entry, if there is one.
+     */
+    private void scheduleRefresh(
+            final String key,
+            final String enterpriseId,
+            final String teamId,
+            final Entry entry) {
+        final Entry current =
+                entry != null
+                        ? entry
+                        : this.cache.computeIfAbsent(
+                        key,
+                        ignored -> new Entry(null, null, 0, 0));
+        synchronized (current) {
+            if (current.refreshing) {
+                return;
+            }
+            current.refreshing = true;
+        }
+        try {
+            this.refreshExecutor.execute(() ->
+                    refresh(
+                            key,
+                            enterpriseId,
+                            teamId));
+        } catch (final RejectedExecutionException ree) {
+            // Shutting down
+            current.refreshing = false;
+        }
+    }
+
+    /** A cached token. */
+    private static class Entry {
+
+        /** When the token expires, in epoch milliseconds, if it does. */
+        private final Long expiresAt;
+
+        /** When the entry was loaded, in epoch milliseconds. */
+        private final long loadedAt;
+
+        /** The token, or {@code null} if the workspace isn't installed. */
+        private final String token;
+
+        /** When the entry can be refreshed again, in epoch milliseconds. */
+        private final long retryAt;
+
+        /** Whether or not Slack rejected the token. */
+        private volatile boolean expired;
+
+        /** Whether or not a refresh is pending. */
+        private volatile boolean refreshing;
+
+        /**
+         * Constructor.
+         *
+         * @param token     The token.
+         * @param expiresAt When the token expires, if it does.
+         * @param loadedAt  When the entry was loaded.
+         * @param retryAt   When the entry can be refreshed again.
+         */
+        Entry(
+                final String token,
+                final Long expiresAt,
+                final long loadedAt,
+                final long retryAt) {
+            this.token = token;
+            this.expiresAt = expiresAt;
+            this.loadedAt = loadedAt;
+            this.retryAt = retryAt;
+        }
+
+        /**
+         * Checks whether or not the entry should be refreshed.
+         *
+         * @param refreshAfterMillis How long after loading an entry is
+         *                           refreshed.
+         * @param rotateBeforeMillis How long before the token expires that
+         *                           it's rotated.
+         *
+         * @return Whether or not the entry should be refreshed.
+         */
+        boolean isDue(
+                final long refreshAfterMillis,
+                final long rotateBeforeMillis) {
+            final long now = System.currentTimeMillis();
+            if (now < this.retryAt) {
+                return false;
+            }
+            return this.expired ||
+                    now - this.loadedAt >= refreshAfterMillis ||
+                    (this.expiresAt != null && this.expiresAt - now <= rotateBeforeMillis);
+        }
+    }
+}
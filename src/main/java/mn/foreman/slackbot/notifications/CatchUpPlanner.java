@@ -0,0 +1,110 @@
+package mn.foreman.slackbot.notifications;
+
+import mn.foreman.slackbot.db.session.State;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Plans how each session catches up on the notifications that were created
+ * while the bot was down.
+ *
+ * <p>Sessions resume from their persisted last notification ID rather than
+ * from the bot start time. To keep a restart from stampeding Slack, each
+ * session is given a stable slot within the spread window after startup and
+ * isn't polled until its slot arrives.</p>
+ */
+@Component
+public class CatchUpPlanner {
+
+    /** The sessions that have caught up since startup. */
+    private final Set<String> caughtUp = ConcurrentHashMap.newKeySet();
+
+    /** The oldest notifications that will be caught up on. */
+    private final Duration maxAge;
+
+    /** The window after startup over which sessions catch up. */
+    private final Duration spread;
+
+    /** The bot start time. */
+    private final Instant startTime;
+
+    /**
+     * Constructor.
+     *
+     * @param startTime The bot start time.
+     * @param maxAge    The oldest notifications that will be caught up on.
+     * @param spread    The window after startup over which sessions catch up.
+     */
+    public CatchUpPlanner(
+            final Instant startTime,
+            @Value("${notifications.catchUp.maxAge}") final Duration maxAge,
+            @Value("${notifications.catchUp.spread}") final Duration spread) {
+        this.startTime = startTime;
+        this.maxAge = maxAge;
+        this.spread = spread;
+    }
+
+    /**
+     * Checks whether or not the provided session has caught up since
+     * startup.
+     *
+     * @param state The {@link State}.
+     *
+     * @return Whether or not the session has caught up.
+     */
+    public boolean isCaughtUp(final State state) {
+        return this.caughtUp.contains(state.getChatId());
+    }
+
+    /**
+     * Checks whether or not the provided session should be polled now.
+     * Sessions that haven't caught up yet are held until their slot in the
+     * spread window.
+     *
+     * @param state The {@link State}.
+     *
+     * @return Whether or not the session should be polled.
+     */
+    public boolean isDue(final State state) {
+        if (isCaughtUp(state)) {
+            return true;
+        }
+        final long slot =
+                Math.floorMod(
+                        state.getChatId().hashCode(),
+                        Math.max(this.spread.toMillis(), 1));
+        return !Instant.now().isBefore(this.startTime.plusMillis(slot));
+    }
+
+    /**
+     * Marks the provided session as caught up.
+     *
+     * @param state The {@link State}.
+     */
+    public void markCaughtUp(final State state) {
+        this.caughtUp.add(state.getChatId());
+    }
+
+    /**
+     * Returns the earliest notification time to ask Foreman for. The
+     * persisted last notification ID is the real cursor; this only bounds how
+     * far back a session that was down for a long time will go.
+     *
+     * @param state The {@link State}.
+     *
+     * @return The earliest notification time.
+     */
+    public Instant since(final State state) {
+        final Instant registered = state.getDateRegistered();
+        final Instant oldest = this.startTime.minus(this.maxAge);
+        return registered.isAfter(oldest)
+                ? registered
+                : oldest;
+    }
+}
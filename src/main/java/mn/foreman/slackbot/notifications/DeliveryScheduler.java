@@ -0,0 +1,440 @@
+package mn.foreman.slackbot.notifications;
+
+import mn.foreman.api.endpoints.notifications.Notifications;
+import mn.foreman.slackbot.config.RuntimeSettings;
+import mn.foreman.slackbot.db.session.State;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * Schedules Slack deliveries across all of the sessions.
+ *
+ * <p>Deliveries for a session are sent one at a time and in the order they
+ * were submitted so a channel never sees a recovery before the failure that
+ * preceded it. Across sessions, deliveries are chosen by weighted fair
+ * queueing, with new failures served ahead of recoveries, so a session with a
+ * large backlog can't hold up another session's failure alert. Deliveries are
+ * started no faster than the delivery rate, which can be changed at runtime,
+ * with up to a second's worth allowed in a burst, to stay within Slack's rate
+ * limits.</p>
+ *
+ * <p>Deliveries are started on a single dispatcher thread, so the supplier
+ * that starts a delivery must not block: anything slow belongs in the future
+ * it returns. A delivery that hasn't completed within the delivery timeout is
+ * failed with a {@link java.util.concurrent.TimeoutException} so it can't hold
+ * its session's slot, or one of the in-flight slots, forever.</p>
+ */
+@Component
+public class DeliveryScheduler {
+
+    /** The weight given to a session unless told otherwise. */
+    public static final double DEFAULT_WEIGHT = 1;
+
+    /** The logger for this class. */
+    private static final Logger LOG =
+            LoggerFactory.getLogger(DeliveryScheduler.class);
+
+    /** Signaled when a delivery is submitted or completes. */
+    private final Condition changed;
+
+    /** The number of deliveries that completed. */
+    private final Counter completed;
+
+    /** Guards the queues. */
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /** Posts the messages. */
+    private final SlackMessenger messenger;
+
+    /** Holds the max number of deliveries that can be in flight at once. */
+    private final RuntimeSettings runtimeSettings;
+
+    /** The number of pending deliveries. */
+    private final AtomicInteger queued = new AtomicInteger();
+
+    /** The pending deliveries, keyed by chat ID. */
+    private final Map<String, SessionQueue> queues = new HashMap<>();
+
+    /** How long a delivery can take before it's failed. */
+    private final Duration timeout;
+
+    /** The number of deliveries in flight. */
+    private volatile int inFlight;
+
+    /** When the next delivery can be started, by {@link System#nanoTime()}. */
+    private long nextStart = System.nanoTime();
+
+    /** Whether or not the scheduler is running. */
+    private volatile boolean running;
+
+    /** The virtual time, which is the finish tag of the last dispatch. */
+    private double virtualTime;
+
+    /**
+     * Constructor.
+     *
+     * @param messenger       Posts the messages.
+     * @param runtimeSettings Holds the max number of deliveries that can be
+     *                        in flight at once.
+     * @param meterRegistry   Where the delivery stage's metrics are
+     *                        reported.
+     * @param timeout         How long a delivery can take before it's
+     *                        failed.
+     */
+    public DeliveryScheduler(
+            final SlackMessenger messenger,
+            final RuntimeSettings runtimeSettings,
+            final MeterRegistry meterRegistry,
+            @Value("${notifications.delivery.timeout}") final Duration timeout) {
+        this.messenger = messenger;
+        this.runtimeSettings = runtimeSettings;
+        this.timeout = timeout;
+        this.changed = this.lock.newCondition();
+
+        // Reported alongside the other NotificationsPipeline stages
+        Gauge
+                .builder("notifications.pipeline.queued", this.queued, AtomicInteger::get)
+                .description("The tasks waiting for the stage")
+                .tag("stage", "deliver")
+                .register(meterRegistry);
+        Gauge
+                .builder("notifications.pipeline.running", this, scheduler -> scheduler.inFlight)
+                .description("The tasks the stage is running")
+                .tag("stage", "deliver")
+                .register(meterRegistry);
+        this.completed =
+                Counter
+                        .builder("notifications.pipeline.completed")
+                        .description("The tasks the stage completed")
+                        .tag("stage", "deliver")
+                        .register(meterRegistry);
+    }
+
+    /**
+     * Returns the priority for the provided notification.
+     *
+     * @param notification The notification.
+     *
+     * @return The priority.
+     */
+    public static Priority toPriority(
+            final Notifications.Notification notification) {
+        return !notification.failingMiners.isEmpty()
+                ? Priority.FAILURE
+                : Priority.RECOVERY;
+    }
+
+    /**
+     * Schedules the provided message to be posted for the provided
+     * notification. Failures are logged and never complete the returned
+     * future exceptionally.
+     *
+     * @param state        The {@link State} for the session.
+     * @param notification The notification being delivered.
+     * @param message      The rendered message.
+     *
+     * @return The future that completes once the message was posted or
+     *         failed.
+     */
+    public CompletableFuture<Void> deliver(
+            final State state,
+            final Notifications.Notification notification,
+            final String message) {
+        final String chatId = state.getChatId();
+        return submit(
+                chatId,
+                toPriority(notification),
+                DEFAULT_WEIGHT,
+                () -> this.messenger.post(state, message))
+                .handle((response, throwable) -> {
+                    if (throwable != null) {
+                        LOG.warn("Exception occurred while notifying {}",
+                                chatId,
+                                throwable);
+                    } else if (!response.isOk()) {
+                        LOG.warn("Slack rejected the message to {}: {}",
+                                chatId,
+                                response.getError());
+                    }
+                    return null;
+                });
+    }
+
+    /** Starts dispatching. */
+    @PostConstruct
+    public void start() {
+        this.running = true;
+        final Thread dispatcher =
+                new Thread(this::dispatch, "delivery-scheduler");
+        dispatcher.setDaemon(true);
+        dispatcher.start();
+    }
+
+    /** Stops dispatching. */
+    @PreDestroy
+    public void stop() {
+        this.lock.lock();
+        try {
+            this.running = false;
+            this.changed.signalAll();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Schedules the provided delivery.
+     *
+     * @param chatId   The chat the delivery is for.
+     * @param priority The delivery priority.
+     * @param weight   The session's share of the delivery capacity relative to
+     *                 other sessions.
+     * @param send     Starts the delivery. Called on the dispatcher thread,
+     *                 so it must not block.
+     * @param <T>      The delivery result type.
+     *
+     * @return The future that completes with the delivery result, or with a
+     *         {@link java.util.concurrent.TimeoutException} if it took longer
+     *         than the delivery timeout.
+     */
+    public <T> CompletableFuture<T> submit(
+            final String chatId,
+            final Priority priority,
+            final double weight,
+            final Supplier<CompletableFuture<T>> send) {
+        final CompletableFuture<T> result = new CompletableFuture<>();
+        this.lock.lock();
+        try {
+            final SessionQueue queue =
+                    this.queues.computeIfAbsent(
+                            chatId,
+                            key -> new SessionQueue());
+            final double start =
+                    Math.max(
+                            this.virtualTime,
+                            queue.lastFinish);
+            queue.lastFinish = start + 1 / weight;
+            queue.pending.add(
+                    new Delivery(
+                            priority,
+                            queue.lastFinish,
+                            () -> start(send, result)));
+            this.queued.incrementAndGet();
+            this.changed.signalAll();
+        } finally {
+            this.lock.unlock();
+        }
+        return result;
+    }
+
+    /**
+     * Starts the provided delivery, relaying its outcome to the provided
+     * result. The delivery is failed if it takes longer than the timeout.
+     *
+     * @param send   Starts the delivery.
+     * @param result The result to complete.
+     * @param <T>    The delivery result type.
+     *
+     * @return The future that completes with the delivery.
+     */
+    private <T> CompletableFuture<T> start(
+            final Supplier<CompletableFuture<T>> send,
+            final CompletableFuture<T> result) {
+        CompletableFuture<T> sent;
+        try {
+            sent = send.get();
+        } catch (final Exception e) {
+            sent = CompletableFuture.failedFuture(e);
+        }
+        return sent
+                .orTimeout(this.timeout.toMillis(), TimeUnit.MILLISECONDS)
+                .whenComplete((value, throwable) -> {
+                    if (throwable != null) {
+                        result.completeExceptionally(throwable);
+                    } else {
+                        result.complete(value);
+                    }
+                });
+    }
+
+    /** Dispatches deliveries until stopped. */
+    private void dispatch() {
+        while (this.running) {
+            final SessionQueue queue;
+            final Delivery delivery;
+            this.lock.lock();
+            try {
+                final long now = System.nanoTime();
+                if (this.nextStart > now) {
+                    this.changed.awaitNanos(this.nextStart - now);
+                    continue;
+                }
+                final SessionQueue next = next();
+                if (next == null) {
+                    this.changed.await();
+                    continue;
+                }
+                // Unused capacity carries over for up to a second
+                this.nextStart =
+                        Math.max(this.nextStart, now - TimeUnit.SECONDS.toNanos(1)) +
+                                TimeUnit.SECONDS.toNanos(1) /
+                                        this.runtimeSettings.getDeliveryRatePerSecond();
+                queue = next;
+                delivery = queue.pending.poll();
+                this.queued.decrementAndGet();
+                queue.inFlight = true;
+                this.inFlight++;
+                this.virtualTime =
+                        Math.max(
+                                this.virtualTime,
+                                delivery.finishTag);
+            } catch (final InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                this.lock.unlock();
+            }
+
+            delivery
+                    .send
+                    .get()
+                    .whenComplete((value, throwable) -> completed(queue));
+        }
+    }
+
+    /**
+     * Marks the in-flight delivery for the provided queue as completed.
+     *
+     * @param queue The queue.
+     */
+    private void completed(final SessionQueue queue) {
+        this.lock.lock();
+        try {
+            queue.inFlight = false;
+            this.inFlight--;
+            this.completed.increment();
+            this.changed.signalAll();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Selects the next session to dispatch for. Must be called while holding
+     * the lock.
+     *
+     * @return The next session, or {@code null} if nothing can be dispatched.
+     */
+    private SessionQueue next() {
+        if (this.inFlight >= this.runtimeSettings.getDeliveryMaxInFlight()) {
+            return null;
+        }
+
+        SessionQueue best = null;
+        final Iterator<SessionQueue> iterator =
+                this.queues.values().iterator();
+        while (iterator.hasNext()) {
+            final SessionQueue queue = iterator.next();
+            final Delivery head = queue.pending.peek();
+            if (head == null) {
+                if (!queue.inFlight) {
+                    // Idle sessions don't need to be scanned
+                    iterator.remove();
+                }
+            } else if (!queue.inFlight &&
+                    (best == null || head.isBefore(best.pending.peek()))) {
+                best = queue;
+            }
+        }
+        return best;
+    }
+
+    /** The delivery priorities, most urgent first. */
+    public enum Priority {
+
+        /** A new failure. */
+        FAILURE,
+
+        /** A recovery. */
+        RECOVERY
+    }
+
+    /** A pending delivery. */
+    private static class Delivery {
+
+        /** The virtual finish time. */
+        private final double finishTag;
+
+        /** The priority. */
+        private final Priority priority;
+
+        /** Starts the delivery. */
+        private final Supplier<CompletableFuture<?>> send;
+
+        /**
+         * Constructor.
+         *
+         * @param priority  The priority.
+         * @param finishTag The virtual finish time.
+         * @param send      Starts the delivery.
+         */
+        private Delivery(
+                final Priority priority,
+                final double finishTag,
+                final Supplier<CompletableFuture<?>> send) {
+            this.priority = priority;
+            this.finishTag = finishTag;
+            this.send = send;
+        }
+
+        /**
+         * Checks whether or not this delivery should go before the provided
+         * delivery.
+         *
+         * @param other The other delivery.
+         *
+         * @return Whether or not this delivery should go first.
+         */
+        private boolean isBefore(final Delivery other) {
+            final int byPriority = this.priority.compareTo(other.priority);
+            if (byPriority != 0) {
+                return byPriority < 0;
+            }
+            return this.finishTag < other.finishTag;
+        }
+    }
+
+    /** The pending deliveries for a session. */
+    private static class SessionQueue {
+
+        /** The deliveries, in submission order. */
+        private final Deque<Delivery> pending = new ArrayDeque<>();
+
+        /** Whether or not a delivery for the session is in flight. */
+        private boolean inFlight;
+
+        /** The finish tag of the last delivery submitted for the session. */
+        private double lastFinish;
+    }
+}
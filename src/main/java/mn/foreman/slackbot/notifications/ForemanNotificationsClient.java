@@ -0,0 +1,435 @@
+package mn.foreman.slackbot.notifications;
+
+import mn.foreman.api.endpoints.notifications.Notifications;
+import mn.foreman.slackbot.config.RuntimeSettings;
+import mn.foreman.slackbot.db.session.State;
+import mn.foreman.slackbot.jfr.ForemanFetchEvent;
+import mn.foreman.slackbot.replay.TrafficRecorder;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.google.common.collect.Iterables;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A non-blocking client for the Foreman Slack notifications endpoint. Requests
+ * are multiplexed over a single {@link HttpClient} backed by a small, fixed
+ * pool of threads, so many requests can be in flight at once without a thread
+ * waiting on each one.
+ *
+ * <p>Responses are parsed as they stream in. The parsing blocks on the body
+ * as it arrives, so it runs on its own threads rather than the
+ * {@link HttpClient} threads that feed it. The request timeout only covers
+ * waiting for the response headers, so reading the body has a deadline of
+ * its own: a window that stalls past the Foreman timeout closes the body,
+ * which frees the parse thread, and the fetch fails.</p>
+ *
+ * <p>Foreman's notifications endpoint has no page size, so a request always
+ * returns the whole backlog since the cursor. Rather than asking for it
+ * again for each window, a session's backlog is requested once per poll and
+ * read from that one response a window at a time through a
+ * {@link NotificationsStream}, with the parser kept open while each window is
+ * delivered. Only the window being read is ever held in memory, and the
+ * response is closed once the session stops reading.</p>
+ */
+@Component
+public class ForemanNotificationsClient {
+
+    /** The threads that complete the responses. */
+    private final ExecutorService executorService;
+
+    /** The threads that parse the responses as they stream in. */
+    private final ExecutorService parseExecutor;
+
+    /** The Foreman API URL. */
+    private final String foremanApiUrl;
+
+    /** The HTTP client. */
+    private final HttpClient httpClient;
+
+    /** Creates the response parsers. */
+    private final JsonFactory jsonFactory;
+
+    /** The path to the notifications, formatted with the client ID. */
+    private final String notificationsPath;
+
+    /** Reads the notifications from the responses. */
+    private final ObjectReader reader;
+
+    /** Records the responses, if enabled. */
+    private final TrafficRecorder recorder;
+
+    /** Holds the request and read timeouts. */
+    private final RuntimeSettings runtimeSettings;
+
+    /**
+     * Constructor.
+     *
+     * @param foremanApiUrl     The Foreman API URL.
+     * @param notificationsPath The path to the notifications, formatted with
+     *                          the client ID.
+     * @param threads           The number of threads that complete the
+     *                          responses.
+     * @param parseThreads      The number of threads that parse the
+     *                          responses.
+     * @param connectTimeout    The connection timeout.
+     * @param runtimeSettings   Holds the request and read timeouts.
+     * @param recorder          Records the responses, if enabled.
+     * @param objectMapper      The mapper.
+     */
+    public ForemanNotificationsClient(
+            @Value("${foreman.apiUrl}") final String foremanApiUrl,
+            @Value("${foreman.notificationsPath}") final String notificationsPath,
+            @Value("${notifications.async.threads}") final int threads,
+            @Value("${notifications.fetch.parseThreads}") final int parseThreads,
+            @Value("${foreman.timeout}") final Duration connectTimeout,
+            final RuntimeSettings runtimeSettings,
+            final TrafficRecorder recorder,
+            final ObjectMapper objectMapper) {
+        this.foremanApiUrl = foremanApiUrl;
+        this.notificationsPath = notificationsPath;
+        this.runtimeSettings = runtimeSettings;
+        this.recorder = recorder;
+        this.executorService = Executors.newFixedThreadPool(threads);
+        this.parseExecutor =
+                Executors.newFixedThreadPool(
+                        parseThreads,
+                        runnable -> {
+                            final Thread thread =
+                                    new Thread(
+                                            runnable,
+                                            "foreman-parse");
+                            thread.setDaemon(true);
+                            return thread;
+                        });
+        this.httpClient =
+                HttpClient
+                        .newBuilder()
+                        .executor(this.executorService)
+                        .connectTimeout(connectTimeout)
+                        .build();
+        this.jsonFactory = objectMapper.getFactory();
+        this.reader =
+                objectMapper
+                        .readerFor(Notifications.Notification.class)
+                        .without(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+    }
+
+    /** Stops the response and parse threads. */
+    @PreDestroy
+    public void close() {
+        this.parseExecutor.shutdownNow();
+        this.executorService.shutdownNow();
+    }
+
+    /**
+     * Closes the provided body, ignoring failures.
+     *
+     * @param body The body.
+     */
+    private static void closeQuietly(final InputStream body) {
+        try {
+            body.close();
+        } catch (final IOException ioe) {
+            // Already failed
+        }
+    }
+
+    /**
+     * Requests the pending Slack notifications for the provided {@link State}.
+     * The notifications are read from the returned stream a window at a time.
+     *
+     * @param state     The {@link State} whose credentials should be used.
+     * @param sinceId   The last notification that was seen.
+     * @param startDate The earliest notification time to consider.
+     *
+     * @return The future stream of pending notifications, oldest first, once
+     *         Foreman has answered.
+     */
+    public CompletableFuture<NotificationsStream> open(
+            final State state,
+            final int sinceId,
+            final Instant startDate) {
+        final HttpRequest request =
+                HttpRequest
+                        .newBuilder(
+                                URI.create(
+                                        String.format(
+                                                "%s%s?sinceId=%d&start=%s",
+                                                this.foremanApiUrl,
+                                                String.format(
+                                                        this.notificationsPath,
+                                                        state.getClientId()),
+                                                sinceId,
+                                                URLEncoder.encode(
+                                                        startDate.toString(),
+                                                        StandardCharsets.UTF_8))))
+                        .header("Authorization", "Token " + state.getApiKey())
+                        .timeout(this.runtimeSettings.getForemanTimeout())
+                        .GET()
+                        .build();
+        return this.httpClient
+                .sendAsync(
+                        request,
+                        HttpResponse.BodyHandlers.ofInputStream())
+                .thenApply(response -> {
+                    if (response.statusCode() != 200) {
+                        closeQuietly(response.body());
+                        throw new IllegalStateException(
+                                String.format(
+                                        "Foreman returned %d for %s",
+                                        response.statusCode(),
+                                        response.uri().getPath()));
+                    }
+                    return new NotificationsStream(
+                            state,
+                            sinceId,
+                            response.body(),
+                            response.uri().getPath());
+                });
+    }
+
+    /**
+     * Starts parsing the provided body, which must be a JSON array.
+     *
+     * @param body The body.
+     * @param path The path the body came from.
+     *
+     * @return The parser, positioned at the start of the array.
+     *
+     * @throws IOException on failure to parse the body.
+     */
+    private JsonParser openArray(
+            final InputStream body,
+            final String path) throws IOException {
+        final JsonParser parser = this.jsonFactory.createParser(body);
+        if (parser.nextToken() != JsonToken.START_ARRAY) {
+            parser.close();
+            throw new IllegalStateException(
+                    "Foreman returned an unexpected response for " + path);
+        }
+        return parser;
+    }
+
+    /**
+     * Parses up to the provided number of notifications from the provided
+     * body. The rest of the body is discarded.
+     *
+     * @param body  The body.
+     * @param limit The max number of notifications to parse.
+     * @param path  The path the body came from.
+     *
+     * @return The notifications.
+     *
+     * @throws IOException on failure to parse the body.
+     */
+    List<Notifications.Notification> parse(
+            final InputStream body,
+            final int limit,
+            final String path) throws IOException {
+        final List<Notifications.Notification> notifications =
+                new ArrayList<>(Math.min(limit, 64));
+        try (final JsonParser parser = openArray(body, path)) {
+            readWindow(
+                    parser,
+                    limit,
+                    notifications);
+        }
+        return notifications;
+    }
+
+    /**
+     * Reads up to the provided number of notifications from the provided
+     * parser, which is left after the last one read.
+     *
+     * @param parser        The parser, inside the notifications array.
+     * @param limit         The max number of notifications to read.
+     * @param notifications Where the notifications are added.
+     *
+     * @return Whether or not the end of the array was reached.
+     *
+     * @throws IOException on failure to parse the body.
+     */
+    private boolean readWindow(
+            final JsonParser parser,
+            final int limit,
+            final List<Notifications.Notification> notifications) throws IOException {
+        // Foreman returns the notifications oldest first, so the first ones
+        // are the next ones to deliver
+        while (notifications.size() < limit) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return true;
+            }
+            notifications.add(this.reader.readValue(parser));
+        }
+        return false;
+    }
+
+    /**
+     * The pending notifications for a session, read a window at a time from
+     * a single Foreman response. The response is held open between windows,
+     * so the next window carries on where the last one stopped. Each window
+     * is read on the parse threads under the Foreman timeout; a window that
+     * isn't read in time closes the stream, which unblocks the parse thread.
+     * The stream closes itself once the notifications run out, and must be
+     * closed by the caller if it stops reading before that.
+     */
+    public class NotificationsStream {
+
+        /** The response body. */
+        private final InputStream body;
+
+        /** Whether or not the stream was closed. */
+        private volatile boolean closed;
+
+        /** Whether or not every notification was read. */
+        private volatile boolean exhausted;
+
+        /** The last notification read. */
+        private int lastId;
+
+        /** Parses the body, once the first window is read. */
+        private JsonParser parser;
+
+        /** The path the body came from. */
+        private final String path;
+
+        /** The {@link State} whose notifications are being read. */
+        private final State state;
+
+        /**
+         * Constructor.
+         *
+         * @param state   The {@link State} whose notifications are being
+         *                read.
+         * @param sinceId The last notification that was seen.
+         * @param body    The response body.
+         * @param path    The path the body came from.
+         */
+        NotificationsStream(
+                final State state,
+                final int sinceId,
+                final InputStream body,
+                final String path) {
+            this.state = state;
+            this.lastId = sinceId;
+            this.body = body;
+            this.path = path;
+        }
+
+        /** Closes the response. The rest of it is discarded. */
+        public void close() {
+            this.closed = true;
+            closeQuietly(this.body);
+        }
+
+        /**
+         * Returns whether or not every notification was read.
+         *
+         * @return Whether or not every notification was read.
+         */
+        public boolean isExhausted() {
+            return this.exhausted;
+        }
+
+        /**
+         * Reads the next window of notifications. Only one window is read
+         * at a time.
+         *
+         * @param limit The max number of notifications to read.
+         *
+         * @return The future notifications, which are empty once every
+         *         notification was read.
+         */
+        public CompletableFuture<List<Notifications.Notification>> next(final int limit) {
+            if (this.exhausted) {
+                return CompletableFuture.completedFuture(List.of());
+            }
+            final ForemanFetchEvent event = new ForemanFetchEvent();
+            event.begin();
+            event.chatId = this.state.getChatId();
+            final int sinceId = this.lastId;
+            final long start = System.currentTimeMillis();
+            // Reading the body blocks until the HTTP client threads deliver
+            // it, so it can't be read on one of them
+            return CompletableFuture
+                    .supplyAsync(
+                            () -> read(limit),
+                            ForemanNotificationsClient.this.parseExecutor)
+                    .orTimeout(
+                            ForemanNotificationsClient.this.runtimeSettings.getForemanTimeout().toMillis(),
+                            TimeUnit.MILLISECONDS)
+                    .whenComplete((notifications, throwable) -> {
+                        if (throwable != null) {
+                            close();
+                        } else {
+                            event.notifications = notifications.size();
+                            event.succeeded = true;
+                        }
+                        event.commit();
+                        ForemanNotificationsClient.this.recorder.recordFetch(
+                                this.state,
+                                sinceId,
+                                start,
+                                System.currentTimeMillis() - start,
+                                notifications);
+                    });
+        }
+
+        /**
+         * Reads up to the provided number of notifications from the body.
+         *
+         * @param limit The max number of notifications to read.
+         *
+         * @return The notifications.
+         */
+        private List<Notifications.Notification> read(final int limit) {
+            if (this.closed) {
+                throw new IllegalStateException(
+                        "The response for " + this.path + " was closed");
+            }
+            final List<Notifications.Notification> notifications =
+                    new ArrayList<>(Math.min(limit, 64));
+            try {
+                if (this.parser == null) {
+                    this.parser = openArray(this.body, this.path);
+                }
+                if (readWindow(this.parser, limit, notifications)) {
+                    this.exhausted = true;
+                    this.parser.close();
+                    close();
+                }
+            } catch (final IOException ioe) {
+                throw new UncheckedIOException(ioe);
+            }
+            if (!notifications.isEmpty()) {
+                this.lastId = Iterables.getLast(notifications).id;
+            }
+            return notifications;
+        }
+    }
+}
@@ -0,0 +1,356 @@
+package mn.foreman.slackbot.notifications;
+
+import mn.foreman.api.endpoints.notifications.Notifications;
+import mn.foreman.slackbot.db.incident.Incident;
+import mn.foreman.slackbot.db.incident.IncidentRepository;
+import mn.foreman.slackbot.db.session.State;
+
+import com.slack.api.methods.SlackApiTextResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Delivers notifications as incidents rather than as separate messages.
+ *
+ * <p>The first failure for a trigger in a chat is posted to the channel, and
+ * its message timestamp is remembered. Later notifications for the same
+ * trigger edit that message in place, so it always shows the current state:
+ * a failure replaces its text, and a recovery is appended below the failure
+ * it recovers from. An edit doesn't notify anyone, so a follow-up that
+ * changes the incident is also posted as a reply in the incident's thread,
+ * which keeps its history and alerts the channel members following it. A
+ * trigger that fails again shortly after recovering reopens the same
+ * incident, and that reply is broadcast to the channel. Follow-ups that
+ * don't change anything, like a notification delivered again, only edit the
+ * message.</p>
+ *
+ * <p>The incidents are also the record of which failures a chat was told
+ * about. A session with miner rules in its filter only gets a recovery when
+ * there's an incident for it, since a recovery without one recovers from
+ * failures that were filtered out.</p>
+ *
+ * <p>The incidents are kept in memory once they're known, so most deliveries
+ * don't touch Mongo. Lookups for triggers that aren't cached yet and the
+ * saves run on a small pool, never on the delivery dispatcher.</p>
+ */
+@Component
+public class IncidentTracker {
+
+    /** The logger for this class. */
+    private static final Logger LOG =
+            LoggerFactory.getLogger(IncidentTracker.class);
+
+    /** The errors Slack returns when the incident's message is gone. */
+    private static final Set<String> MESSAGE_GONE_ERRORS =
+            Set.of(
+                    "cant_update_message",
+                    "message_not_found");
+
+    /** Schedules the Slack deliveries. */
+    private final DeliveryScheduler deliveryScheduler;
+
+    /** Where the {@link Incident incidents} are stored. */
+    private final IncidentRepository incidentRepository;
+
+    /** The known {@link Incident incidents}, keyed by ID. */
+    private final Map<String, Incident> incidents = new ConcurrentHashMap<>();
+
+    /** The threads that look up and save the incidents. */
+    private final ExecutorService lookupExecutor;
+
+    /** Posts the messages. */
+    private final SlackMessenger messenger;
+
+    /** How long after recovering an incident can be reopened. */
+    private final Duration reopenWindow;
+
+    /**
+     * Constructor.
+     *
+     * @param deliveryScheduler  Schedules the Slack deliveries.
+     * @param messenger          Posts the messages.
+     * @param incidentRepository Where the {@link Incident incidents} are
+     *                           stored.
+     * @param reopenWindow       How long after recovering an incident can be
+     *                           reopened.
+     * @param lookupThreads      The number of threads that look up and save
+     *                           the incidents.
+     */
+    public IncidentTracker(
+            final DeliveryScheduler deliveryScheduler,
+            final SlackMessenger messenger,
+            final IncidentRepository incidentRepository,
+            @Value("${notifications.incidents.reopenWindow}") final Duration reopenWindow,
+            @Value("${notifications.incidents.lookupThreads}") final int lookupThreads) {
+        this.deliveryScheduler = deliveryScheduler;
+        this.messenger = messenger;
+        this.incidentRepository = incidentRepository;
+        this.reopenWindow = reopenWindow;
+        this.lookupExecutor =
+                Executors.newFixedThreadPool(
+                        lookupThreads,
+                        runnable -> {
+                            final Thread thread =
+                                    new Thread(
+                                            runnable,
+                                            "incident-lookup");
+                            thread.setDaemon(true);
+                            return thread;
+                        });
+    }
+
+    /** Stops the lookup threads. */
+    @PreDestroy
+    public void close() {
+        this.lookupExecutor.shutdownNow();
+    }
+
+    /**
+     * Schedules the provided notification for delivery, updating the open
+     * incident for its trigger if there is one. Failures are logged and never
+     * complete the returned future exceptionally.
+     *
+     * @param state        The {@link State} for the session.
+     * @param notification The notification being delivered.
+     * @param message      The rendered message.
+     *
+     * @return The future that completes once the notification was delivered
+     *         or failed.
+     */
+    public CompletableFuture<Void> deliver(
+            final State state,
+            final Notifications.Notification notification,
+            final String message) {
+        final String chatId = state.getChatId();
+        final String id = Incident.toId(chatId, notification.subject);
+        final boolean failing = !notification.failingMiners.isEmpty();
+
+        // The lookup happens once the delivery is dispatched so that earlier
+        // deliveries for the same trigger have already been recorded
+        return this.deliveryScheduler
+                .submit(
+                        chatId,
+                        DeliveryScheduler.toPriority(notification),
+                        DeliveryScheduler.DEFAULT_WEIGHT,
+                        () -> lookup(id)
+                                .thenCompose(incident ->
+                                        deliver(
+                                                state,
+                                                notification,
+                                                message,
+                                                failing,
+                                                incident)))
+                .handle((ignored, throwable) -> {
+                    if (throwable != null) {
+                        LOG.warn("Exception occurred while notifying {}",
+                                chatId,
+                                throwable);
+                    }
+                    return null;
+                });
+    }
+
+    /** Forgets the incidents that can no longer be reopened. */
+    @Scheduled(
+            initialDelayString = "${notifications.incidents.reopenWindow}",
+            fixedDelayString = "${notifications.incidents.reopenWindow}")
+    public void prune() {
+        this.incidents.values().removeIf(incident -> !isOpen(incident));
+    }
+
+    /**
+     * Fails if Slack rejected the provided call.
+     *
+     * @param response The response.
+     * @param <T>      The response type.
+     *
+     * @return The response.
+     */
+    private static <T extends SlackApiTextResponse> T requireOk(final T response) {
+        if (!response.isOk()) {
+            throw new IllegalStateException("Slack rejected the call: " + response.getError());
+        }
+        return response;
+    }
+
+    /**
+     * Delivers the provided notification against the provided incident.
+     *
+     * @param state        The {@link State} for the session.
+     * @param notification The notification being delivered.
+     * @param message      The rendered message.
+     * @param failing      Whether or not the trigger is failing.
+     * @param incident     The open incident, if there is one.
+     *
+     * @return The future that completes once the notification was delivered.
+     */
+    private CompletableFuture<Void> deliver(
+            final State state,
+            final Notifications.Notification notification,
+            final String message,
+            final boolean failing,
+            final Optional<Incident> incident) {
+        if (incident.isEmpty()) {
+            if (!failing && NotificationFilters.hasMinerRules(state.getFilter())) {
+                LOG.debug("Dropping a recovery for {} in {}, its failure " +
+                                "was filtered out",
+                        notification.subject,
+                        state.getChatId());
+                return CompletableFuture.completedFuture(null);
+            }
+            final CompletableFuture<String> posted =
+                    this.messenger
+                            .post(state, message)
+                            .thenApply(response -> requireOk(response).getTs());
+            if (!failing) {
+                // Recoveries without an incident are just posted
+                return posted.thenAccept(ts -> {
+                });
+            }
+            return posted.thenAccept(ts -> {
+                final Instant now = Instant.now();
+                save(Incident
+                        .builder()
+                        .id(Incident.toId(state.getChatId(), notification.subject))
+                        .chatId(state.getChatId())
+                        .subject(notification.subject)
+                        .ts(ts)
+                        .text(message)
+                        .opened(now)
+                        .updated(now)
+                        .build());
+            });
+        }
+
+        // A recovery keeps the failure it recovers from above it
+        final Incident open = incident.get();
+        final String text =
+                failing || open.getText() == null
+                        ? message
+                        : open.getText() + "\n\n" + message;
+        final boolean reopened = failing && open.getResolved() != null;
+        final boolean changed =
+                failing
+                        ? reopened || !message.equals(open.getText())
+                        : open.getResolved() == null;
+        return this.messenger
+                .update(state, open.getTs(), text)
+                .thenCompose(updated -> {
+                    if (!updated.isOk()) {
+                        if (!MESSAGE_GONE_ERRORS.contains(updated.getError())) {
+                            LOG.warn("Failed to update incident {}: {}",
+                                    open.getId(),
+                                    updated.getError());
+                            throw new IllegalStateException(
+                                    "Slack rejected the call: " + updated.getError());
+                        }
+                        // The original message is gone; start over in the
+                        // channel
+                        LOG.warn("Incident {} is gone, posting it again",
+                                open.getId());
+                        return this.messenger
+                                .post(state, text)
+                                .thenApply(response -> requireOk(response).getTs());
+                    }
+                    if (!changed) {
+                        return CompletableFuture.completedFuture(open.getTs());
+                    }
+                    return this.messenger
+                            .reply(
+                                    state,
+                                    open.getTs(),
+                                    message,
+                                    reopened)
+                            .thenApply(response -> {
+                                requireOk(response);
+                                return open.getTs();
+                            });
+                })
+                .thenAccept(ts -> {
+                    final Instant now = Instant.now();
+                    save(open
+                            .toBuilder()
+                            .ts(ts)
+                            .text(failing ? message : open.getText())
+                            .updated(now)
+                            .resolved(failing ? null : now)
+                            .build());
+                });
+    }
+
+    /**
+     * Checks whether or not the provided incident is still open. Resolved
+     * incidents stay open for the reopen window.
+     *
+     * @param incident The incident.
+     *
+     * @return Whether or not the incident is open.
+     */
+    private boolean isOpen(final Incident incident) {
+        final Instant resolved = incident.getResolved();
+        return resolved == null ||
+                resolved.plus(this.reopenWindow).isAfter(Instant.now());
+    }
+
+    /**
+     * Finds the open incident with the provided ID. Only incidents that
+     * aren't known yet are read from Mongo, on the lookup threads.
+     *
+     * @param id The incident ID.
+     *
+     * @return The future open incident, if there is one.
+     */
+    private CompletableFuture<Optional<Incident>> lookup(final String id) {
+        final Incident known = this.incidents.get(id);
+        if (known != null) {
+            if (isOpen(known)) {
+                return CompletableFuture.completedFuture(Optional.of(known));
+            }
+            this.incidents.remove(id, known);
+            return CompletableFuture.completedFuture(Optional.empty());
+        }
+        return CompletableFuture
+                .supplyAsync(
+                        () -> this.incidentRepository.findById(id),
+                        this.lookupExecutor)
+                .thenApply(found -> {
+                    found
+                            .filter(this::isOpen)
+                            .ifPresent(incident -> this.incidents.putIfAbsent(id, incident));
+                    return found.filter(this::isOpen);
+                });
+    }
+
+    /**
+     * Remembers the provided incident and saves it on the lookup threads.
+     *
+     * @param incident The incident.
+     */
+    private void save(final Incident incident) {
+        this.incidents.put(incident.getId(), incident);
+        CompletableFuture
+                .runAsync(
+                        () -> this.incidentRepository.save(incident),
+                        this.lookupExecutor)
+                .exceptionally(throwable -> {
+                    LOG.warn("Failed to save incident {}",
+                            incident.getId(),
+                            throwable);
+                    return null;
+                });
+    }
+}
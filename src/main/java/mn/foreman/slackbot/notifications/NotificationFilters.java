@@ -0,0 +1,163 @@
+package mn.foreman.slackbot.notifications;
+
+import mn.foreman.api.endpoints.notifications.Notifications;
+import mn.foreman.slackbot.db.session.NotificationFilter;
+import mn.foreman.slackbot.db.session.State;
+
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+
+/**
+ * Compiles each session's {@link NotificationFilter} into a {@link Predicate}
+ * once and caches it, so filtering a notification is only a predicate call.
+ *
+ * <p>The miner pattern and diagnosis rules are applied to failures, which
+ * pass if any failing miner matches both. Recoveries don't name miners, so
+ * they're only filtered by type here; under miner rules, a recovery is only
+ * delivered if the failure it recovers from was, which is decided at
+ * delivery time from the incidents the {@link IncidentTracker} recorded.
+ * The predicates hold no state, so they can be evaluated any number of
+ * times.</p>
+ */
+@Component
+public class NotificationFilters {
+
+    /** The number of compiled filters above which the cache is cleared. */
+    private static final int MAX_CACHED = 1024;
+
+    /** The predicate used when a session has no filter. */
+    private static final Predicate<Notifications.Notification> ALL =
+            notification -> true;
+
+    /** The compiled filters. */
+    private final Map<NotificationFilter, Predicate<Notifications.Notification>> compiled =
+            new ConcurrentHashMap<>();
+
+    /**
+     * Compiles the provided filter.
+     *
+     * @param filter The filter.
+     *
+     * @return The predicate.
+     *
+     * @throws java.util.regex.PatternSyntaxException if the miner pattern
+     *                                                isn't valid.
+     */
+    public static Predicate<Notifications.Notification> compile(
+            final NotificationFilter filter) {
+        Predicate<Notifications.Notification> predicate = ALL;
+
+        final NotificationFilter.Type type = filter.getType();
+        if (type == NotificationFilter.Type.FAILURES) {
+            predicate = notification -> !notification.failingMiners.isEmpty();
+        } else if (type == NotificationFilter.Type.RECOVERIES) {
+            predicate = notification -> notification.failingMiners.isEmpty();
+        }
+
+        Predicate<Notifications.Notification.FailingMiner> minerPredicate = null;
+        if (filter.getMinerPattern() != null) {
+            final Pattern pattern = toPattern(filter.getMinerPattern());
+            minerPredicate =
+                    miner -> miner.miner != null &&
+                            pattern.matcher(miner.miner).matches();
+        }
+        if (filter.getDiagnosis() != null) {
+            final String diagnosis =
+                    filter.getDiagnosis().toLowerCase(Locale.ROOT);
+            final Predicate<Notifications.Notification.FailingMiner> diagnosisPredicate =
+                    miner -> miner.diagnosis != null &&
+                            miner.diagnosis
+                                    .stream()
+                                    .anyMatch(line ->
+                                            line.toLowerCase(Locale.ROOT).contains(diagnosis));
+            minerPredicate =
+                    minerPredicate != null
+                            ? minerPredicate.and(diagnosisPredicate)
+                            : diagnosisPredicate;
+        }
+
+        if (minerPredicate != null) {
+            final Predicate<Notifications.Notification.FailingMiner> matches =
+                    minerPredicate;
+            predicate =
+                    predicate.and(notification -> {
+                        final List<Notifications.Notification.FailingMiner> failingMiners =
+                                notification.failingMiners;
+                        return failingMiners.isEmpty() ||
+                                failingMiners.stream().anyMatch(matches);
+                    });
+        }
+
+        return predicate;
+    }
+
+    /**
+     * Checks whether or not the provided filter has miner rules, which
+     * recoveries can't be matched against.
+     *
+     * @param filter The filter, if any.
+     *
+     * @return Whether or not the filter has a miner pattern or diagnosis
+     *         rule.
+     */
+    public static boolean hasMinerRules(final NotificationFilter filter) {
+        return filter != null &&
+                (filter.getMinerPattern() != null || filter.getDiagnosis() != null);
+    }
+
+    /**
+     * Converts the provided glob, where {@code *} matches anything and
+     * {@code ?} matches a single character, to a case-insensitive pattern.
+     *
+     * @param glob The glob.
+     *
+     * @return The pattern.
+     */
+    private static Pattern toPattern(final String glob) {
+        final StringBuilder regex = new StringBuilder();
+        final StringBuilder literal = new StringBuilder();
+        for (final char c : glob.toCharArray()) {
+            if (c == '*' || c == '?') {
+                if (literal.length() > 0) {
+                    regex.append(Pattern.quote(literal.toString()));
+                    literal.setLength(0);
+                }
+                regex.append(c == '*' ? ".*" : ".");
+            } else {
+                literal.append(c);
+            }
+        }
+        if (literal.length() > 0) {
+            regex.append(Pattern.quote(literal.toString()));
+        }
+        return Pattern.compile(
+                regex.toString(),
+                Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE);
+    }
+
+    /**
+     * Returns the predicate for the provided session's filter.
+     *
+     * @param state The {@link State}.
+     *
+     * @return The predicate.
+     */
+    public Predicate<Notifications.Notification> forState(final State state) {
+        final NotificationFilter filter = state.getFilter();
+        if (filter == null) {
+            return ALL;
+        }
+        if (this.compiled.size() >= MAX_CACHED) {
+            this.compiled.clear();
+        }
+        return this.compiled.computeIfAbsent(
+                filter,
+                NotificationFilters::compile);
+    }
+}
@@ -0,0 +1,213 @@
+package mn.foreman.slackbot.notifications;
+
+import mn.foreman.api.endpoints.notifications.Notifications;
+import mn.foreman.slackbot.config.RuntimeSettings;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/** Renders Foreman notifications as markdown-formatted Slack messages. */
+@Component
+public class NotificationMessageFormatter {
+
+    /** Base URl for Foreman */
+    private final String foremanDashboardUrl;
+
+    /** Holds the max notifications to send at once. */
+    private final RuntimeSettings runtimeSettings;
+
+    /**
+     * Constructor.
+     *
+     * @param foremanDashboardUrl the actual dashboard for the user
+     * @param runtimeSettings     holds the max number of failing miners to
+     *                            render in a single message
+     */
+    public NotificationMessageFormatter(
+            @Value("${foreman.baseUrl}") final String foremanDashboardUrl,
+            final RuntimeSettings runtimeSettings) {
+        this.foremanDashboardUrl = foremanDashboardUrl;
+        this.runtimeSettings = runtimeSettings;
+    }
+
+    /**
+     * Collapses the provided backlog of notifications into a single summary
+     * message, showing the most recent status of each trigger.
+     *
+     * @param notifications The backlog.
+     *
+     * @return The Slack, markdown-formatted summary.
+     */
+    public String toCatchUpSummary(
+            final List<Notifications.Notification> notifications) {
+        final long failures =
+                notifications
+                        .stream()
+                        .filter(notification -> !notification.failingMiners.isEmpty())
+                        .count();
+
+        // The latest notification for each trigger, in the order they were
+        // first seen
+        final Map<String, Notifications.Notification> latest =
+                new LinkedHashMap<>();
+        notifications.forEach(
+                notification ->
+                        latest.put(
+                                notification.subject,
+                                notification));
+
+        return toCatchUpSummary(
+                notifications.size(),
+                failures,
+                latest.values());
+    }
+
+    /**
+     * Renders a summary message for a backlog that was tallied as it came
+     * in, showing the most recent status of each trigger.
+     *
+     * @param count    The number of notifications in the backlog.
+     * @param failures The number of failures in the backlog.
+     * @param latest   The latest notification for each trigger, in the order
+     *                 they were first seen.
+     *
+     * @return The Slack, markdown-formatted summary.
+     */
+    public String toCatchUpSummary(
+            final int count,
+            final long failures,
+            final Collection<Notifications.Notification> latest) {
+        final int maxNotifications =
+                this.runtimeSettings.getMaxFailingMiners();
+
+        final StringBuilder messageBuilder =
+                new StringBuilder()
+                        .append(
+                                String.format(
+                                        "While I was away, %d notifications came in (%d failures, %d recoveries). Here's where things stand:\n\n",
+                                        count,
+                                        failures,
+                                        count - failures));
+        latest
+                .stream()
+                .limit(maxNotifications)
+                .forEach(
+                        notification ->
+                                messageBuilder
+                                        .append(
+                                                String.format(
+                                                        "%s *%s*",
+                                                        !notification.failingMiners.isEmpty()
+                                                                ? ":x:"
+                                                                : ":white_check_mark:",
+                                                        notification.subject))
+                                        .append("\n"));
+        if (latest.size() > maxNotifications) {
+            messageBuilder
+                    .append(
+                            String.format(
+                                    "*...and %d more*\n",
+                                    latest.size() - maxNotifications));
+        }
+
+        return messageBuilder
+                .append(
+                        String.format(
+                                "\nHead to <%s/dashboard/|your dashboard> for the details",
+                                this.foremanDashboardUrl))
+                .toString();
+    }
+
+    /**
+     * Converts the provided notification to a Slack message to be sent.
+     *
+     * @param notification The notification to process.
+     *
+     * @return The Slack, markdown-formatted message.
+     */
+    public String toNotificationMessage(
+            final Notifications.Notification notification) {
+        final int maxNotifications =
+                this.runtimeSettings.getMaxFailingMiners();
+        final StringBuilder messageBuilder =
+                new StringBuilder();
+
+        //write the subject
+        messageBuilder.append(
+                String.format(
+                        "%s *%s*",
+                        !notification.failingMiners.isEmpty()
+                                ? ":x:"
+                                : ":white_check_mark:",
+                        notification.subject));
+
+        final List<Notifications.Notification.FailingMiner> failingMiners =
+                notification.failingMiners;
+
+        if (!failingMiners.isEmpty()) {
+            // Write the failing miners out as lists
+            messageBuilder.append("\n\n");
+            failingMiners
+                    .stream()
+                    .limit(maxNotifications)
+                    .forEach(
+                            miner ->
+                                    appendMiner(
+                                            miner,
+                                            messageBuilder));
+
+            if (failingMiners.size() > maxNotifications) {
+                // Too many miners were failing if we get here
+                messageBuilder
+                        .append("\n\n")
+                        .append(
+                                String.format(
+                                        "*...and %d more",
+                                        failingMiners.size() - maxNotifications))
+
+                        .append(
+                                String.format(
+                                        "Head to [your dashboard](%s/dashboard/) to see the rest",
+                                        this.foremanDashboardUrl));
+            }
+        }
+
+        return messageBuilder.toString();
+    }
+
+    /**
+     * Adds the miners information and link to the notification sent
+     *
+     * @param failingMiner  this is the individual miner that failed for the
+     *                      user on foreman
+     * @param stringBuilder java string builder
+     */
+    private void appendMiner(
+            final Notifications.Notification.FailingMiner failingMiner,
+            final StringBuilder stringBuilder) {
+        stringBuilder
+                .append(
+                        String.format(
+                                // If there is an issue with the output,
+                                // this is where it would most likely be
+                                "<%s/dashboard/miners/%d/details/|%s>",
+                                this.foremanDashboardUrl,
+                                failingMiner.minerId,
+                                failingMiner.miner))
+                .append("\n");
+        failingMiner
+                .diagnosis
+                .forEach(
+                        diag ->
+                                stringBuilder
+                                        .append(diag)
+                                        .append("\n"));
+        stringBuilder
+                .append("\n");
+    }
+}
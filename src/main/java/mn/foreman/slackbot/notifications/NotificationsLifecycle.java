@@ -0,0 +1,206 @@
+package mn.foreman.slackbot.notifications;
+
+import mn.foreman.slackbot.db.session.StateRepository;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Drains the notification poller when the application shuts down.
+ *
+ * <p>Sessions are claimed through {@link #tryAcquire(String)} before they're
+ * processed, and a session can only be claimed once at a time, so the poll
+ * cycle and the priority lane never process the same session together. A
+ * session that the {@link PollWatchdog} abandoned stays retained until its
+ * work actually finishes, so it isn't claimed again from a cursor its
+ * deliveries are still moving. Once
+ * shutdown starts, no new sessions are claimed and no further
+ * windows are fetched, and the sessions already in flight are given until the
+ * drain timeout to finish. Whatever was delivered by then is checkpointed
+ * before the application exits, so a restart doesn't send it again.</p>
+ */
+@Component
+public class NotificationsLifecycle
+        implements SmartLifecycle {
+
+    /** The logger for this class. */
+    private static final Logger LOG =
+            LoggerFactory.getLogger(NotificationsLifecycle.class);
+
+    /** Signaled when a session finishes. */
+    private final Condition changed;
+
+    /** The sessions in flight. */
+    private final Set<String> claimed = new HashSet<>();
+
+    /** How long to wait for the in-flight sessions to finish. */
+    private final Duration drainTimeout;
+
+    /** Guards the claimed sessions. */
+    private final Lock lock = new ReentrantLock();
+
+    /** Delivers the notifications and holds the pending checkpoints. */
+    private final NotificationsSender notificationsSender;
+
+    /** Where the checkpoints are saved. */
+    private final StateRepository stateRepository;
+
+    /** The abandoned sessions whose work is still running. */
+    private final Set<String> retained = new HashSet<>();
+
+    /** Whether or not new sessions can be claimed. */
+    private volatile boolean accepting;
+
+    /**
+     * Constructor.
+     *
+     * @param notificationsSender Delivers the notifications and holds the
+     *                            pending checkpoints.
+     * @param stateRepository     Where the checkpoints are saved.
+     * @param drainTimeout        How long to wait for the in-flight sessions
+     *                            to finish.
+     */
+    public NotificationsLifecycle(
+            final NotificationsSender notificationsSender,
+            final StateRepository stateRepository,
+            @Value("${bot.shutdown.drainTimeout}") final Duration drainTimeout) {
+        this.notificationsSender = notificationsSender;
+        this.stateRepository = stateRepository;
+        this.drainTimeout = drainTimeout;
+        this.changed = this.lock.newCondition();
+    }
+
+    /**
+     * Checks whether or not new work can be started.
+     *
+     * @return Whether or not new work can be started.
+     */
+    public boolean isAccepting() {
+        return this.accepting;
+    }
+
+    @Override
+    public boolean isRunning() {
+        return this.accepting;
+    }
+
+    /**
+     * Marks a claimed session as finished.
+     *
+     * @param chatId The session's chat ID.
+     */
+    public void release(final String chatId) {
+        this.lock.lock();
+        try {
+            this.claimed.remove(chatId);
+            this.changed.signalAll();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Keeps an abandoned session from being claimed again until its work
+     * finishes.
+     *
+     * @param chatId The session's chat ID.
+     * @param work   The work that's still running for the session.
+     */
+    public void retain(
+            final String chatId,
+            final CompletableFuture<?> work) {
+        this.lock.lock();
+        try {
+            this.retained.add(chatId);
+        } finally {
+            this.lock.unlock();
+        }
+        work.whenComplete((value, throwable) -> {
+            this.lock.lock();
+            try {
+                this.retained.remove(chatId);
+                this.changed.signalAll();
+            } finally {
+                this.lock.unlock();
+            }
+        });
+    }
+
+    @Override
+    public void start() {
+        this.accepting = true;
+    }
+
+    @Override
+    public void stop() {
+        this.accepting = false;
+        final long start = System.currentTimeMillis();
+
+        boolean drained = true;
+        int remainingSessions;
+        this.lock.lock();
+        try {
+            long remaining = this.drainTimeout.toNanos();
+            while ((!this.claimed.isEmpty() || !this.retained.isEmpty()) &&
+                    drained) {
+                if (remaining <= 0) {
+                    drained = false;
+                } else {
+                    remaining = this.changed.awaitNanos(remaining);
+                }
+            }
+        } catch (final InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            drained = false;
+        } finally {
+            remainingSessions = this.claimed.size() + this.retained.size();
+            this.lock.unlock();
+        }
+
+        final int flushed =
+                this.notificationsSender.flushCheckpoints(this.stateRepository);
+        if (drained) {
+            LOG.info("Drained notifications in {} ms, flushed {} checkpoints",
+                    System.currentTimeMillis() - start,
+                    flushed);
+        } else {
+            LOG.warn("Gave up draining notifications after {} ms with {} " +
+                            "sessions in flight, flushed {} checkpoints",
+                    System.currentTimeMillis() - start,
+                    remainingSessions,
+                    flushed);
+        }
+    }
+
+    /**
+     * Claims a session for processing. Every successful claim must be
+     * followed by a {@link #release(String)}.
+     *
+     * @param chatId The session's chat ID.
+     *
+     * @return Whether or not the session was claimed. Sessions can't be
+     *         claimed while they're already in flight, while abandoned work
+     *         for them is still running, or once shutdown has started.
+     */
+    public boolean tryAcquire(final String chatId) {
+        this.lock.lock();
+        try {
+            return this.accepting &&
+                    !this.retained.contains(chatId) &&
+                    this.claimed.add(chatId);
+        } finally {
+            this.lock.unlock();
+        }
+    }
+}
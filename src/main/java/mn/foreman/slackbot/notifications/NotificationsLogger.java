@@ -0,0 +1,113 @@
+package mn.foreman.slackbot.notifications;
+
+import mn.foreman.api.endpoints.notifications.Notifications;
+
+import com.google.common.collect.Iterables;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * Logs pending notifications for a session as a summary, only logging the full
+ * detail for a session once every configured interval to keep large payloads
+ * out of the logs.
+ */
+@Component
+public class NotificationsLogger {
+
+    /** The logger for this class. */
+    private static final Logger LOG =
+            LoggerFactory.getLogger(NotificationsLogger.class);
+
+    /** How often the full notification detail can be logged per session. */
+    private final Duration detailLogInterval;
+
+    /** When the notification detail was last logged, keyed by chat ID. */
+    private final Map<String, Instant> lastDetailLogged =
+            new ConcurrentHashMap<>();
+
+    /**
+     * Constructor.
+     *
+     * @param detailLogInterval How often the notification detail may be
+     *                          logged for a single session.
+     */
+    public NotificationsLogger(
+            @Value("${notifications.detailLogInterval}") final Duration detailLogInterval) {
+        this.detailLogInterval = detailLogInterval;
+    }
+
+    /**
+     * Logs the pending notifications for the provided chat.
+     *
+     * @param chatId        The chat ID.
+     * @param notifications The pending notifications.
+     */
+    public void logPending(
+            final String chatId,
+            final List<Notifications.Notification> notifications) {
+        if (notifications.isEmpty()) {
+            LOG.debug("Session {} has no pending notifications", chatId);
+            return;
+        }
+
+        LOG.info("Session {} has {} pending notifications (ids {}-{})",
+                chatId,
+                notifications.size(),
+                notifications.get(0).id,
+                Iterables.getLast(notifications).id);
+        if (LOG.isDebugEnabled() && shouldLogDetail(chatId)) {
+            LOG.debug("Session {} notification detail: {}",
+                    chatId,
+                    toSummary(notifications));
+        }
+    }
+
+    /**
+     * Summarizes the provided notifications without their failing miner
+     * payloads.
+     *
+     * @param notifications The notifications.
+     *
+     * @return The summary.
+     */
+    private static String toSummary(
+            final List<Notifications.Notification> notifications) {
+        return notifications
+                .stream()
+                .map(notification ->
+                        String.format(
+                                "%d[%s, %d miners]",
+                                notification.id,
+                                notification.subject,
+                                notification.failingMiners.size()))
+                .collect(Collectors.joining(", "));
+    }
+
+    /**
+     * Determines whether or not the notification detail should be logged for
+     * the provided chat.
+     *
+     * @param chatId The chat ID.
+     *
+     * @return Whether or not the detail should be logged.
+     */
+    private boolean shouldLogDetail(final String chatId) {
+        final Instant now = Instant.now();
+        final Instant previous =
+                this.lastDetailLogged.get(chatId);
+        if (previous == null) {
+            return this.lastDetailLogged.putIfAbsent(chatId, now) == null;
+        }
+        return previous.plus(this.detailLogInterval).isBefore(now) &&
+                this.lastDetailLogged.replace(chatId, previous, now);
+    }
+}
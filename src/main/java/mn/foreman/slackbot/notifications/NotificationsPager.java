@@ -0,0 +1,200 @@
+package mn.foreman.slackbot.notifications;
+
+import mn.foreman.slackbot.db.session.State;
+import mn.foreman.slackbot.db.session.StateRegistry;
+import mn.foreman.slackbot.db.session.StateRepository;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Works through a session's pending notifications a window at a time.
+ *
+ * <p>The backlog is requested from Foreman once per poll, from the session's
+ * saved cursor, and read from that response a window at a time. Each window
+ * is delivered and checkpointed before the next one is read, so neither the
+ * memory held for a session nor the number of notifications that would be
+ * sent again after a crash depends on how large the backlog is. A full window
+ * means there may be more, so the next one is read right away, up to the
+ * per-cycle limit; the response is then closed, and anything left over is
+ * requested again on the next poll.</p>
+ *
+ * <p>The registered {@link State States} don't carry their credentials, so
+ * they're read for each session before its first window and only held for
+ * as long as the session is being processed. The cursor the session reached
+ * is handed back to the {@link StateRegistry} once it's done.</p>
+ */
+@Component
+public class NotificationsPager {
+
+    /** Plans the catch-up after startup. */
+    private final CatchUpPlanner catchUpPlanner;
+
+    /** Stops further windows from being fetched on shutdown. */
+    private final NotificationsLifecycle lifecycle;
+
+    /** The Foreman notifications client. */
+    private final ForemanNotificationsClient foremanClient;
+
+    /** The max number of windows read for a session per poll. */
+    private final int maxWindows;
+
+    /** Abandons the sessions that get stuck. */
+    private final PollWatchdog watchdog;
+
+    /** Delivers the notifications. */
+    private final NotificationsSender notificationsSender;
+
+    /** Runs the fetches in their own stage. */
+    private final NotificationsPipeline pipeline;
+
+    /** Tracks the cursors of the registered sessions. */
+    private final StateRegistry stateRegistry;
+
+    /** The max number of notifications read at once. */
+    private final int windowSize;
+
+    /**
+     * Constructor.
+     *
+     * @param foremanClient       The Foreman notifications client.
+     * @param catchUpPlanner      Plans the catch-up after startup.
+     * @param notificationsSender Delivers the notifications.
+     * @param lifecycle           Stops further windows from being fetched on
+     *                            shutdown.
+     * @param watchdog            Abandons the sessions that get stuck.
+     * @param pipeline            Runs the fetches in their own stage.
+     * @param stateRegistry       Tracks the cursors of the registered
+     *                            sessions.
+     * @param windowSize          The max number of notifications read at
+     *                            once.
+     * @param maxWindows          The max number of windows read for a
+     *                            session per poll.
+     */
+    public NotificationsPager(
+            final ForemanNotificationsClient foremanClient,
+            final CatchUpPlanner catchUpPlanner,
+            final NotificationsSender notificationsSender,
+            final NotificationsLifecycle lifecycle,
+            final PollWatchdog watchdog,
+            final NotificationsPipeline pipeline,
+            final StateRegistry stateRegistry,
+            @Value("${notifications.fetch.windowSize}") final int windowSize,
+            @Value("${notifications.fetch.maxWindows}") final int maxWindows) {
+        this.foremanClient = foremanClient;
+        this.catchUpPlanner = catchUpPlanner;
+        this.notificationsSender = notificationsSender;
+        this.lifecycle = lifecycle;
+        this.watchdog = watchdog;
+        this.pipeline = pipeline;
+        this.stateRegistry = stateRegistry;
+        this.windowSize = windowSize;
+        this.maxWindows = maxWindows;
+    }
+
+    /**
+     * Delivers the pending notifications for the provided session. A session
+     * that gets stuck is abandoned by the {@link PollWatchdog}.
+     *
+     * @param state           The {@link State} for the session.
+     * @param stateRepository The repository where the progress is saved.
+     *
+     * @return The future that completes with the number of notifications that
+     *         were processed.
+     */
+    public CompletableFuture<Integer> process(
+            final State state,
+            final StateRepository stateRepository) {
+        return this.watchdog.watch(
+                state.getChatId(),
+                watched ->
+                        this.pipeline
+                                .read(() -> stateRepository.findCredentials(state.getChatId()))
+                                .thenCompose(credentials -> {
+                                    if (credentials.isEmpty()) {
+                                        // Forgotten since the cycle started
+                                        return CompletableFuture.completedFuture(0);
+                                    }
+                                    final State session =
+                                            state
+                                                    .toBuilder()
+                                                    .apiKey(credentials.get().getApiKey())
+                                                    .botToken(credentials.get().getBotToken())
+                                                    .build();
+                                    return this.pipeline
+                                            .fetch(() ->
+                                                    this.foremanClient.open(
+                                                            session,
+                                                            session.getLastNotificationId(),
+                                                            this.catchUpPlanner.since(session)))
+                                            .thenCompose(stream -> {
+                                                // An abandoned session stops
+                                                // reading too
+                                                watched.whenComplete((count, throwable) -> stream.close());
+                                                return process(
+                                                        session,
+                                                        stream,
+                                                        stateRepository,
+                                                        1,
+                                                        0,
+                                                        watched)
+                                                        .whenComplete((count, throwable) -> stream.close());
+                                            })
+                                            .whenComplete((count, throwable) ->
+                                                    this.stateRegistry.advance(
+                                                            session.getChatId(),
+                                                            session.getLastNotificationId()));
+                                }));
+    }
+
+    /**
+     * Delivers the next window of notifications for the provided session.
+     *
+     * @param state           The {@link State} for the session.
+     * @param stream          The session's pending notifications.
+     * @param stateRepository The repository where the progress is saved.
+     * @param window          The window number, starting at 1.
+     * @param processed       The number of notifications processed so far.
+     * @param watched         The future the caller waits on, which is done
+     *                        early if the session was abandoned.
+     *
+     * @return The future that completes with the number of notifications that
+     *         were processed.
+     */
+    private CompletableFuture<Integer> process(
+            final State state,
+            final ForemanNotificationsClient.NotificationsStream stream,
+            final StateRepository stateRepository,
+            final int window,
+            final int processed,
+            final CompletableFuture<Integer> watched) {
+        return this.pipeline
+                .fetch(() -> stream.next(this.windowSize))
+                .thenCompose(notifications -> {
+                    final boolean full = notifications.size() >= this.windowSize;
+                    return this.notificationsSender
+                            .send(
+                                    state,
+                                    notifications,
+                                    !full,
+                                    stateRepository)
+                            .thenCompose(count -> {
+                                if (full &&
+                                        window < this.maxWindows &&
+                                        this.lifecycle.isAccepting() &&
+                                        !watched.isDone()) {
+                                    return process(
+                                            state,
+                                            stream,
+                                            stateRepository,
+                                            window + 1,
+                                            processed + count,
+                                            watched);
+                                }
+                                return CompletableFuture.completedFuture(processed + count);
+                            });
+                });
+    }
+}
@@ -0,0 +1,140 @@
+package mn.foreman.slackbot.notifications;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+/**
+ * Splits the processing of a session into stages that are sized on their
+ * own: fetching from Foreman, rendering the messages, delivering them to
+ * Slack, and saving the session's progress.
+ *
+ * <p>Each stage runs a bounded number of tasks at once and holds the rest in
+ * a bounded queue, so a slow stage only holds up the work waiting on it. The
+ * delivery stage is the {@link DeliveryScheduler}, sized by the delivery
+ * in-flight limit. A session only ever has one window in the pipeline, so the
+ * number of sessions let in, which the poll cycle bounds, bounds the queues
+ * too and backs up into the cycle rather than into another stage. Every
+ * stage reports its queue depth, running tasks and completions under {@code
+ * notifications.pipeline}.</p>
+ */
+@Component
+public class NotificationsPipeline {
+
+    /** Fetches the notifications from Foreman. */
+    private final PipelineStage fetch;
+
+    /** Renders the messages. */
+    private final PipelineStage render;
+
+    /** Saves the sessions' progress. */
+    private final PipelineStage save;
+
+    /**
+     * Constructor.
+     *
+     * @param fetchThreads      The number of threads that start the fetches.
+     * @param fetchConcurrency  The max number of Foreman fetches in flight.
+     * @param fetchQueue        The max number of fetches waiting.
+     * @param renderThreads     The number of threads that render messages.
+     * @param renderQueue       The max number of renders waiting.
+     * @param saveThreads       The number of threads that save progress.
+     * @param saveQueue         The max number of saves waiting.
+     * @param meterRegistry     Where the stage metrics are reported.
+     */
+    public NotificationsPipeline(
+            @Value("${notifications.pipeline.fetch.threads}") final int fetchThreads,
+            @Value("${notifications.pipeline.fetch.concurrency}") final int fetchConcurrency,
+            @Value("${notifications.pipeline.fetch.queueSize}") final int fetchQueue,
+            @Value("${notifications.pipeline.render.threads}") final int renderThreads,
+            @Value("${notifications.pipeline.render.queueSize}") final int renderQueue,
+            @Value("${notifications.pipeline.save.threads}") final int saveThreads,
+            @Value("${notifications.pipeline.save.queueSize}") final int saveQueue,
+            final MeterRegistry meterRegistry) {
+        this.fetch =
+                new PipelineStage(
+                        "fetch",
+                        fetchThreads,
+                        fetchConcurrency,
+                        fetchQueue,
+                        meterRegistry);
+        this.render =
+                new PipelineStage(
+                        "render",
+                        renderThreads,
+                        renderThreads,
+                        renderQueue,
+                        meterRegistry);
+        this.save =
+                new PipelineStage(
+                        "save",
+                        saveThreads,
+                        saveThreads,
+                        saveQueue,
+                        meterRegistry);
+    }
+
+    /** Stops the stages. */
+    @PreDestroy
+    public void close() {
+        this.fetch.shutdown();
+        this.render.shutdown();
+        this.save.shutdown();
+    }
+
+    /**
+     * Runs the provided fetch in the fetch stage. The fetch holds its slot
+     * until the returned future completes.
+     *
+     * @param fetch Starts the fetch.
+     * @param <T>   The fetch result type.
+     *
+     * @return The future fetch result.
+     */
+    public <T> CompletableFuture<T> fetch(final Supplier<CompletableFuture<T>> fetch) {
+        return this.fetch.submit(fetch);
+    }
+
+    /**
+     * Runs the provided rendering in the render stage.
+     *
+     * @param render Renders the messages.
+     * @param <T>    The rendered result type.
+     *
+     * @return The future rendered result.
+     */
+    public <T> CompletableFuture<T> render(final Supplier<T> render) {
+        return this.render.submit(() -> CompletableFuture.completedFuture(render.get()));
+    }
+
+    /**
+     * Runs the provided read in the save stage, which is where the blocking
+     * Mongo round trips are made.
+     *
+     * @param read Reads the value.
+     * @param <T>  The read result type.
+     *
+     * @return The future read result.
+     */
+    public <T> CompletableFuture<T> read(final Supplier<T> read) {
+        return this.save.submit(() -> CompletableFuture.completedFuture(read.get()));
+    }
+
+    /**
+     * Runs the provided save in the save stage.
+     *
+     * @param save Saves the progress.
+     *
+     * @return The future that completes once the progress was saved.
+     */
+    public CompletableFuture<Void> save(final Runnable save) {
+        return this.save.submit(() -> {
+            save.run();
+            return CompletableFuture.completedFuture(null);
+        });
+    }
+}
@@ -15,9 +15,12 @@ public interface NotificationsProcessor {
      * Obtains notifications for the provided session and notifies the chat, as
      * necessary.
      *
-     * @param state Provides the users credentials.
+     * @param state           Provides the users credentials.
+     * @param stateRepository The repository where the progress is saved.
+     *
+     * @return The number of notifications that were processed.
      */
-    void process(
+    int process(
             State state,
             StateRepository stateRepository);
 }
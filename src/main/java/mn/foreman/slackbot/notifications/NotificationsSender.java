@@ -0,0 +1,523 @@
+package mn.foreman.slackbot.notifications;
+
+import mn.foreman.api.endpoints.notifications.Notifications;
+import mn.foreman.slackbot.db.session.State;
+import mn.foreman.slackbot.db.session.StateRepository;
+
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+/**
+ * Delivers the pending notifications for a session and advances the session's
+ * cursor.
+ *
+ * <p>The first delivery for a session after startup is its catch-up. A
+ * catch-up backlog larger than the summary threshold is collapsed into a
+ * single summary message, even when it spans several windows or poll cycles:
+ * the windows are tallied as they arrive and the summary is sent once the
+ * backlog is drained. While a catch-up is being tallied, the session's cursor
+ * only moves in memory, so a restart part way through starts the catch-up
+ * over rather than losing it. Everything else is delivered in pages, with the
+ * cursor saved after each page. Rendering and saving run in their own
+ * {@link NotificationsPipeline} stages.</p>
+ */
+@Component
+public class NotificationsSender {
+
+    /** The logger for this class. */
+    private static final Logger LOG =
+            LoggerFactory.getLogger(NotificationsSender.class);
+
+    /** Plans the catch-up after startup. */
+    private final CatchUpPlanner catchUpPlanner;
+
+    /** The catch-ups that span more than one window, keyed by chat ID. */
+    private final Map<String, CatchUp> catchUps = new ConcurrentHashMap<>();
+
+    /** Schedules the Slack deliveries. */
+    private final DeliveryScheduler deliveryScheduler;
+
+    /** Renders the notifications. */
+    private final NotificationMessageFormatter formatter;
+
+    /** Decides which notifications each session gets. */
+    private final NotificationFilters filters;
+
+    /** Delivers the notifications as incidents. */
+    private final IncidentTracker incidentTracker;
+
+    /** Logs the pending notifications. */
+    private final NotificationsLogger notificationsLogger;
+
+    /** The number of notifications delivered between checkpoints. */
+    private final int pageSize;
+
+    /** Runs the rendering and saving in their own stages. */
+    private final NotificationsPipeline pipeline;
+
+    /**
+     * The last notification delivered for each session since its last
+     * checkpoint.
+     */
+    private final Map<String, Integer> pendingCheckpoints =
+            new ConcurrentHashMap<>();
+
+    /** The catch-up backlog size above which a summary is sent instead. */
+    private final int summaryThreshold;
+
+    /**
+     * Constructor.
+     *
+     * @param catchUpPlanner      Plans the catch-up after startup.
+     * @param deliveryScheduler   Schedules the Slack deliveries.
+     * @param formatter           Renders the notifications.
+     * @param filters             Decides which notifications each session
+     *                            gets.
+     * @param incidentTracker     Delivers the notifications as incidents.
+     * @param notificationsLogger Logs the pending notifications.
+     * @param pipeline            Runs the rendering and saving in their own
+     *                            stages.
+     * @param pageSize            The number of notifications delivered
+     *                            between checkpoints.
+     * @param summaryThreshold    The catch-up backlog size above which a
+     *                            summary is sent instead.
+     */
+    public NotificationsSender(
+            final CatchUpPlanner catchUpPlanner,
+            final DeliveryScheduler deliveryScheduler,
+            final NotificationMessageFormatter formatter,
+            final NotificationFilters filters,
+            final IncidentTracker incidentTracker,
+            final NotificationsLogger notificationsLogger,
+            final NotificationsPipeline pipeline,
+            @Value("${notifications.delivery.pageSize}") final int pageSize,
+            @Value("${notifications.catchUp.summaryThreshold}") final int summaryThreshold) {
+        this.catchUpPlanner = catchUpPlanner;
+        this.deliveryScheduler = deliveryScheduler;
+        this.formatter = formatter;
+        this.filters = filters;
+        this.incidentTracker = incidentTracker;
+        this.notificationsLogger = notificationsLogger;
+        this.pipeline = pipeline;
+        this.pageSize = pageSize;
+        this.summaryThreshold = summaryThreshold;
+    }
+
+    /**
+     * Saves the notifications that were delivered since each session's last
+     * checkpoint. Used when shutting down part way through a page.
+     *
+     * @param stateRepository The repository where the progress is saved.
+     *
+     * @return The number of sessions whose progress was saved.
+     */
+    public int flushCheckpoints(final StateRepository stateRepository) {
+        int flushed = 0;
+        for (final String chatId : this.pendingCheckpoints.keySet()) {
+            final Integer lastId = this.pendingCheckpoints.remove(chatId);
+            if (lastId != null) {
+                stateRepository.checkpoint(
+                        chatId,
+                        lastId);
+                flushed++;
+            }
+        }
+        return flushed;
+    }
+
+    /**
+     * Delivers the provided notifications and saves the session's progress.
+     *
+     * @param state           The {@link State} for the session.
+     * @param notifications   The pending notifications.
+     * @param complete        Whether or not these are all of the pending
+     *                        notifications.
+     * @param stateRepository The repository where the progress is saved.
+     *
+     * @return The future that completes with the number of notifications that
+     *         were processed.
+     */
+    public CompletableFuture<Integer> send(
+            final State state,
+            final List<Notifications.Notification> notifications,
+            final boolean complete,
+            final StateRepository stateRepository) {
+        this.notificationsLogger.logPending(
+                state.getChatId(),
+                notifications);
+
+        // A catch-up that doesn't fit in one window, or is too large to send
+        // as is, is tallied until its backlog is drained
+        if (!this.catchUpPlanner.isCaughtUp(state) &&
+                (this.catchUps.containsKey(state.getChatId()) ||
+                        !complete ||
+                        notifications.size() > this.summaryThreshold)) {
+            return catchUp(
+                    state,
+                    notifications,
+                    complete,
+                    stateRepository);
+        }
+
+        final CompletableFuture<Void> sent;
+        if (notifications.isEmpty()) {
+            sent = CompletableFuture.completedFuture(null);
+        } else {
+            sent = sendPages(
+                    state,
+                    notifications,
+                    stateRepository);
+        }
+
+        return sent.thenApply(ignored -> {
+            // A session is only caught up once its backlog is drained
+            if (complete) {
+                this.catchUpPlanner.markCaughtUp(state);
+            }
+            return notifications.size();
+        });
+    }
+
+    /**
+     * Tallies the provided window of a session's catch-up. Once the backlog
+     * is drained, it's either summarized or, if it turned out to be no larger
+     * than the summary threshold, delivered as is.
+     *
+     * @param state           The {@link State} for the session.
+     * @param notifications   The window.
+     * @param complete        Whether or not this is the end of the backlog.
+     * @param stateRepository The repository where the progress is saved.
+     *
+     * @return The future that completes with the number of notifications that
+     *         were processed.
+     */
+    private CompletableFuture<Integer> catchUp(
+            final State state,
+            final List<Notifications.Notification> notifications,
+            final boolean complete,
+            final StateRepository stateRepository) {
+        final CatchUp catchUp =
+                this.catchUps.computeIfAbsent(
+                        state.getChatId(),
+                        ignored -> new CatchUp(NotificationFilters.hasMinerRules(state.getFilter())));
+        return this.pipeline
+                .render(() -> {
+                    catchUp.add(
+                            notifications,
+                            this.filters.forState(state),
+                            this.summaryThreshold);
+                    return catchUp;
+                })
+                .thenCompose(ignored -> {
+                    if (!notifications.isEmpty()) {
+                        // The next window starts after this one, but nothing
+                        // is saved until the catch-up is delivered
+                        state.setLastNotificationId(
+                                Math.max(
+                                        state.getLastNotificationId(),
+                                        Iterables.getLast(notifications).id));
+                    }
+                    if (!complete) {
+                        return CompletableFuture.completedFuture(notifications.size());
+                    }
+
+                    this.catchUps.remove(state.getChatId());
+                    final CompletableFuture<Void> sent;
+                    if (catchUp.last == null) {
+                        sent = CompletableFuture.completedFuture(null);
+                    } else if (catchUp.pending != null) {
+                        sent = sendPages(
+                                state,
+                                catchUp.pending,
+                                stateRepository);
+                    } else {
+                        sent = sendSummary(
+                                state,
+                                catchUp,
+                                stateRepository);
+                    }
+                    return sent.thenApply(done -> {
+                        this.catchUpPlanner.markCaughtUp(state);
+                        return notifications.size();
+                    });
+                });
+    }
+
+    /**
+     * Saves the provided notification as the last one seen for the session.
+     *
+     * @param state           The {@link State} for the session.
+     * @param notification    The last notification that was delivered.
+     * @param stateRepository The repository where the progress is saved.
+     */
+    private void checkpoint(
+            final State state,
+            final Notifications.Notification notification,
+            final StateRepository stateRepository) {
+        this.pendingCheckpoints.remove(state.getChatId());
+        state.setLastNotificationId(
+                Math.max(
+                        state.getLastNotificationId(),
+                        notification.id));
+        if (!stateRepository.checkpoint(
+                state.getChatId(),
+                notification.id)) {
+            LOG.debug("Session {} was removed while being notified",
+                    state.getChatId());
+        }
+    }
+
+    /**
+     * Renders the provided page of notifications. Filtered notifications are
+     * dropped before they're rendered.
+     *
+     * @param state The {@link State} for the session.
+     * @param page  The notifications to render.
+     *
+     * @return The messages for the notifications, in page order.
+     */
+    private Map<Notifications.Notification, String> render(
+            final State state,
+            final List<Notifications.Notification> page) {
+        final Map<Notifications.Notification, String> messages =
+                new LinkedHashMap<>();
+        page
+                .stream()
+                .filter(this.filters.forState(state))
+                .forEach(notification ->
+                        messages.put(
+                                notification,
+                                this.formatter.toNotificationMessage(notification)));
+        return messages;
+    }
+
+    /**
+     * Renders and delivers the provided page of notifications.
+     *
+     * @param state The {@link State} for the session.
+     * @param page  The notifications to deliver.
+     *
+     * @return The future that completes once the page was attempted.
+     */
+    private CompletableFuture<Void> sendPage(
+            final State state,
+            final List<Notifications.Notification> page) {
+        // The scheduler keeps the deliveries for a session in order
+        return this.pipeline
+                .render(() -> render(state, page))
+                .thenCompose(messages -> {
+                    final List<CompletableFuture<Void>> sent =
+                            messages
+                                    .entrySet()
+                                    .stream()
+                                    .map(message ->
+                                            this.incidentTracker
+                                                    .deliver(
+                                                            state,
+                                                            message.getKey(),
+                                                            message.getValue())
+                                                    .thenRun(() ->
+                                                            this.pendingCheckpoints.merge(
+                                                                    state.getChatId(),
+                                                                    message.getKey().id,
+                                                                    Math::max)))
+                                    .collect(Collectors.toList());
+                    return CompletableFuture.allOf(sent.toArray(new CompletableFuture[0]));
+                });
+    }
+
+    /**
+     * Delivers the provided notifications a page at a time, saving the cursor
+     * after each page.
+     *
+     * @param state           The {@link State} for the session.
+     * @param notifications   The notifications to deliver.
+     * @param stateRepository The repository where the progress is saved.
+     *
+     * @return The future that completes once every page was attempted.
+     */
+    private CompletableFuture<Void> sendPages(
+            final State state,
+            final List<Notifications.Notification> notifications,
+            final StateRepository stateRepository) {
+        CompletableFuture<Void> sent = CompletableFuture.completedFuture(null);
+        for (final List<Notifications.Notification> page :
+                Lists.partition(notifications, this.pageSize)) {
+            sent =
+                    sent
+                            .thenCompose(ignored -> sendPage(state, page))
+                            .thenCompose(ignored ->
+                                    this.pipeline.save(() ->
+                                            checkpoint(
+                                                    state,
+                                                    Iterables.getLast(page),
+                                                    stateRepository)));
+        }
+        return sent;
+    }
+
+    /**
+     * Delivers the summary for the provided catch-up and saves the session's
+     * progress.
+     *
+     * @param state           The {@link State} for the session.
+     * @param catchUp         The tallied catch-up.
+     * @param stateRepository The repository where the progress is saved.
+     *
+     * @return The future that completes once the summary was attempted.
+     */
+    private CompletableFuture<Void> sendSummary(
+            final State state,
+            final CatchUp catchUp,
+            final StateRepository stateRepository) {
+        LOG.info("Session {} caught up on {} notifications, summarizing",
+                state.getChatId(),
+                catchUp.total);
+        return this.pipeline
+                .render(() ->
+                        catchUp.wanted > 0
+                                ? this.formatter.toCatchUpSummary(
+                                catchUp.wanted,
+                                catchUp.failures,
+                                catchUp.latest.values())
+                                : null)
+                .thenCompose(summary ->
+                        summary != null
+                                ? this.deliveryScheduler.deliver(
+                                state,
+                                catchUp.last,
+                                summary)
+                                : CompletableFuture.completedFuture(null))
+                .thenCompose(ignored ->
+                        this.pipeline.save(() ->
+                                checkpoint(
+                                        state,
+                                        catchUp.last,
+                                        stateRepository)));
+    }
+
+    /**
+     * A session's catch-up, tallied a window at a time. The notifications are
+     * kept as they are until there are more than the summary threshold, after
+     * which only what the summary needs is kept.
+     *
+     * <p>Under miner rules, a summarized recovery is only wanted if a wanted
+     * failure for its trigger was tallied before it, the same way a delivered
+     * recovery needs an incident.</p>
+     */
+    private static class CatchUp {
+
+        /** The triggers with a wanted failure that was tallied. */
+        private final Set<String> failed = new HashSet<>();
+
+        /** The number of wanted failures that were tallied. */
+        private long failures;
+
+        /** The last notification in the backlog. */
+        private Notifications.Notification last;
+
+        /**
+         * The latest wanted notification for each trigger, in the order they
+         * were first seen.
+         */
+        private final Map<String, Notifications.Notification> latest =
+                new LinkedHashMap<>();
+
+        /** Whether or not the session's filter has miner rules. */
+        private final boolean minerRules;
+
+        /**
+         * The backlog, until it's larger than the summary threshold, or
+         * {@code null} after.
+         */
+        private List<Notifications.Notification> pending = new ArrayList<>();
+
+        /** The number of notifications in the backlog. */
+        private int total;
+
+        /** The number of wanted notifications that were tallied. */
+        private int wanted;
+
+        /**
+         * Constructor.
+         *
+         * @param minerRules Whether or not the session's filter has miner
+         *                   rules.
+         */
+        CatchUp(final boolean minerRules) {
+            this.minerRules = minerRules;
+        }
+
+        /**
+         * Adds the provided window to the catch-up. Notifications that were
+         * already added are skipped.
+         *
+         * @param notifications The window.
+         * @param filter        Decides which notifications the session gets.
+         *                      Only applied once the backlog is summarized,
+         *                      so each notification is filtered once.
+         * @param threshold     The backlog size above which it's summarized.
+         */
+        void add(
+                final List<Notifications.Notification> notifications,
+                final Predicate<Notifications.Notification> filter,
+                final int threshold) {
+            for (final Notifications.Notification notification : notifications) {
+                if (this.last != null && notification.id <= this.last.id) {
+                    continue;
+                }
+                this.total++;
+                this.last = notification;
+                if (this.pending != null) {
+                    this.pending.add(notification);
+                } else {
+                    tally(notification, filter);
+                }
+            }
+            if (this.pending != null && this.total > threshold) {
+                this.pending.forEach(notification -> tally(notification, filter));
+                this.pending = null;
+            }
+        }
+
+        /**
+         * Adds the provided notification to the summary, if it's wanted.
+         *
+         * @param notification The notification.
+         * @param filter       Decides which notifications the session gets.
+         */
+        private void tally(
+                final Notifications.Notification notification,
+                final Predicate<Notifications.Notification> filter) {
+            if (!filter.test(notification)) {
+                return;
+            }
+            if (!notification.failingMiners.isEmpty()) {
+                this.failed.add(notification.subject);
+                this.failures++;
+            } else if (this.minerRules && !this.failed.remove(notification.subject)) {
+                // Recovers from failures that were filtered out
+                return;
+            }
+            this.wanted++;
+            this.latest.put(
+                    notification.subject,
+                    notification);
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package mn.foreman.slackbot.notifications;
+
+import mn.foreman.api.endpoints.notifications.Notifications;
+import mn.foreman.slackbot.config.StartupTimings;
+import mn.foreman.slackbot.db.session.NotificationFilter;
+import mn.foreman.slackbot.db.session.StateRepository;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.gson.Gson;
+import com.slack.api.methods.response.chat.ChatPostMessageResponse;
+import com.slack.api.util.json.GsonFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayInputStream;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * Runs synthetic notifications through the parsing, filtering and rendering
+ * paths, and opens the database connections, before the bot reports ready so
+ * the first real cycle doesn't pay for a cold JIT. Nothing is sent to Foreman
+ * or Slack.
+ */
+@Component
+public class NotificationsWarmUp
+        implements ApplicationRunner {
+
+    /** The logger for this class. */
+    private static final Logger LOG =
+            LoggerFactory.getLogger(NotificationsWarmUp.class);
+
+    /** A Slack response, as returned for a posted message. */
+    private static final String SLACK_RESPONSE =
+            "{\"ok\":true,\"channel\":\"C0WARMUP\",\"ts\":\"1600000000.000100\"," +
+                    "\"message\":{\"type\":\"message\",\"text\":\"warm-up\"}}";
+
+    /** Whether or not to warm up. */
+    private final boolean enabled;
+
+    /** Parses the Foreman responses. */
+    private final ForemanNotificationsClient foremanNotificationsClient;
+
+    /** The number of times to run each path. */
+    private final int iterations;
+
+    /** Renders the messages. */
+    private final NotificationMessageFormatter messageFormatter;
+
+    /** The mapper. */
+    private final ObjectMapper objectMapper;
+
+    /** The repository where the sessions are stored. */
+    private final StateRepository stateRepository;
+
+    /** Records how long the warm-up took. */
+    private final StartupTimings startupTimings;
+
+    /**
+     * Constructor.
+     *
+     * @param enabled                    Whether or not to warm up.
+     * @param iterations                 The number of times to run each path.
+     * @param foremanNotificationsClient Parses the Foreman responses.
+     * @param messageFormatter           Renders the messages.
+     * @param objectMapper               The mapper.
+     * @param stateRepository            The repository where the sessions are
+     *                                   stored.
+     * @param startupTimings             Records how long the warm-up took.
+     */
+    public NotificationsWarmUp(
+            @Value("${bot.warmUp.enabled}") final boolean enabled,
+            @Value("${bot.warmUp.iterations}") final int iterations,
+            final ForemanNotificationsClient foremanNotificationsClient,
+            final NotificationMessageFormatter messageFormatter,
+            final ObjectMapper objectMapper,
+            final StateRepository stateRepository,
+            final StartupTimings startupTimings) {
+        this.enabled = enabled;
+        this.iterations = iterations;
+        this.foremanNotificationsClient = foremanNotificationsClient;
+        this.messageFormatter = messageFormatter;
+        this.objectMapper = objectMapper;
+        this.stateRepository = stateRepository;
+        this.startupTimings = startupTimings;
+    }
+
+    /**
+     * Creates the synthetic notifications: alternating failures and
+     * recoveries across a handful of triggers.
+     *
+     * @return The notifications.
+     */
+    private static List<Notifications.Notification> toNotifications() {
+        final List<Notifications.Notification> notifications = new ArrayList<>();
+        for (int i = 1; i <= 20; i++) {
+            final Notifications.Notification notification =
+                    new Notifications.Notification();
+            notification.id = i;
+            notification.subject = "Warm-up trigger " + (i % 5);
+            notification.timestamp = Instant.now();
+            notification.failingMiners = new ArrayList<>();
+            if (i % 2 == 0) {
+                for (int j = 0; j < 3; j++) {
+                    final Notifications.Notification.FailingMiner miner =
+                            new Notifications.Notification.FailingMiner();
+                    miner.miner = "warm-up-miner-" + j;
+                    miner.minerId = j;
+                    miner.diagnosis = List.of("Hash rate is 0 H/s", "Board 1 is down");
+                    notification.failingMiners.add(miner);
+                }
+            }
+            notifications.add(notification);
+        }
+        return notifications;
+    }
+
+    @Override
+    public void run(final ApplicationArguments args) throws Exception {
+        if (!this.enabled) {
+            return;
+        }
+
+        final long start = System.currentTimeMillis();
+
+        // Opens the connection pool
+        final long sessions = this.stateRepository.count();
+
+        final List<Notifications.Notification> notifications = toNotifications();
+        final byte[] body = this.objectMapper.writeValueAsBytes(notifications);
+        final Predicate<Notifications.Notification> filter =
+                NotificationFilters.compile(
+                        NotificationFilter
+                                .builder()
+                                .type(NotificationFilter.Type.ALL)
+                                .minerPattern("warm-up-*")
+                                .diagnosis("hash")
+                                .build());
+        final Gson gson = GsonFactory.createSnakeCase();
+
+        long rendered = 0;
+        for (int i = 0; i < this.iterations; i++) {
+            final List<Notifications.Notification> parsed =
+                    this.foremanNotificationsClient.parse(
+                            new ByteArrayInputStream(body),
+                            notifications.size(),
+                            "warm-up");
+            for (final Notifications.Notification notification : parsed) {
+                if (filter.test(notification)) {
+                    rendered += this.messageFormatter.toNotificationMessage(notification).length();
+                }
+            }
+            rendered += this.messageFormatter.toCatchUpSummary(parsed).length();
+            gson.fromJson(SLACK_RESPONSE, ChatPostMessageResponse.class);
+        }
+
+        final long millis = System.currentTimeMillis() - start;
+        this.startupTimings.warmedUp(millis);
+        LOG.info("Warmed up in {} ms ({} iterations, {} sessions, {} chars rendered)",
+                millis,
+                this.iterations,
+                sessions,
+                rendered);
+    }
+}
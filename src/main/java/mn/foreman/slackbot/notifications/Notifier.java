@@ -1,18 +1,28 @@
 package mn.foreman.slackbot.notifications;
 
+import mn.foreman.slackbot.config.RuntimeSettings;
+import mn.foreman.slackbot.config.StartupTimings;
 import mn.foreman.slackbot.db.session.State;
+import mn.foreman.slackbot.db.session.StateRegistry;
 import mn.foreman.slackbot.db.session.StateRepository;
+import mn.foreman.slackbot.jfr.PollCycleEvent;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.slack.api.bolt.App;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 
-import java.time.Instant;
+import javax.annotation.PreDestroy;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
 
 
 /** This class works to send notifications to the user. */
@@ -23,84 +33,308 @@ public class Notifier {
     private static final Logger LOG =
             LoggerFactory.getLogger(Notifier.class);
 
-    /** The app. */
-    private final App app;
+    /** Whether or not sessions should be processed asynchronously. */
+    private final boolean async;
 
-    /**
-     * This is the Api url for the user. Its important to note that this is
-     * distinct from the foreman dashboard URL
-     */
-    private final String foremanApiUrl;
+    /** The non-blocking processor that notifies each session. */
+    private final AsyncNotificationsProcessor asyncNotificationsProcessor;
 
-    /** The max number of notifications the user will receive at once */
-    @Value("${notifications.max}")
-    private final int maxNotifications;
+    /** Claims the sessions and drains them on shutdown. */
+    private final NotificationsLifecycle lifecycle;
 
-    /** the mapper */
-    private final ObjectMapper objectMapper;
+    /** The processor that notifies each session. */
+    private final NotificationsProcessor notificationsProcessor;
 
     /**
-     * The time that the first notification is set off. Distinct from the time
-     * that the user registers.
+     * The sessions turned away by a full pipeline stage since the last cycle
+     * was logged.
      */
-    private final Instant startTime;
+    private final AtomicInteger rejected = new AtomicInteger();
+
+    /** The threads that process the sessions for the blocking processor. */
+    private final ThreadPoolExecutor pollExecutor;
+
+    /** The settings that can be tuned at runtime. */
+    private final RuntimeSettings runtimeSettings;
+
+    /** Interrupts the cycles that get stuck. */
+    private final PollWatchdog watchdog;
+
+    /** Records how long the first cycle took. */
+    private final StartupTimings startupTimings;
+
+    /** The registered {@link State States} to poll. */
+    private final StateRegistry stateRegistry;
 
     /** This is the state repository used to help maintain state/session */
     private final StateRepository stateRepository;
 
     /**
-     * This is the constructor for the notifier. It calls
-     * {@link NotificationsProcessorImpl}
+     * This is the constructor for the notifier.
      *
-     * @param startTime        the time that notification occurs
-     * @param stateRepository  the backing {@link State} repository
-     * @param objectMapper     the mapper
-     * @param foremanApiUrl    the url for the Api
-     * @param maxNotifications max number of notifications to send at once can
-     *                         be increased or decreased as desired. Setting to
-     *                         0 is not advised
-     * @param app              The app.
+     * @param stateRepository             the backing {@link State}
+     *                                    repository
+     * @param stateRegistry               the registered {@link State States}
+     * @param notificationsProcessor      the processor that notifies each
+     *                                    session
+     * @param asyncNotificationsProcessor the non-blocking processor that
+     *                                    notifies each session
+     * @param lifecycle                   claims the sessions and drains them
+     *                                    on shutdown
+     * @param runtimeSettings             the settings that can be tuned at
+     *                                    runtime
+     * @param startupTimings              records how long the first cycle
+     *                                    took
+     * @param watchdog                    interrupts the cycles that get
+     *                                    stuck
+     * @param async                       whether or not sessions should be
+     *                                    processed asynchronously
      */
     public Notifier(
-            final Instant startTime,
             final StateRepository stateRepository,
-            final ObjectMapper objectMapper,
-            @Value("${foreman.apiUrl}") final String foremanApiUrl,
-            @Value("${notifications.max}") final int maxNotifications,
-            final App app) {
-        this.startTime = startTime;
+            final StateRegistry stateRegistry,
+            final NotificationsProcessor notificationsProcessor,
+            final AsyncNotificationsProcessor asyncNotificationsProcessor,
+            final NotificationsLifecycle lifecycle,
+            final RuntimeSettings runtimeSettings,
+            final StartupTimings startupTimings,
+            final PollWatchdog watchdog,
+            @Value("${notifications.async.enabled}") final boolean async) {
         this.stateRepository = stateRepository;
-        this.objectMapper = objectMapper;
-        this.foremanApiUrl = foremanApiUrl;
-        this.maxNotifications = maxNotifications;
-        this.app = app;
+        this.stateRegistry = stateRegistry;
+        this.notificationsProcessor = notificationsProcessor;
+        this.asyncNotificationsProcessor = asyncNotificationsProcessor;
+        this.lifecycle = lifecycle;
+        this.runtimeSettings = runtimeSettings;
+        this.startupTimings = startupTimings;
+        this.watchdog = watchdog;
+        this.async = async;
+
+        final int parallelism = runtimeSettings.getPollParallelism();
+        this.pollExecutor =
+                new ThreadPoolExecutor(
+                        parallelism,
+                        parallelism,
+                        0,
+                        TimeUnit.MILLISECONDS,
+                        new LinkedBlockingQueue<>());
     }
 
-    /** Periodically sends notifications to the users. */
-    @Scheduled(
-            initialDelayString = "${bot.check.initialDelay}",
-            fixedDelayString = "${bot.check.fixedDelay}")
+    /** Stops the poll threads. */
+    @PreDestroy
+    public void close() {
+        this.pollExecutor.shutdownNow();
+    }
+
+    /**
+     * Periodically sends notifications to the users. Scheduled by {@link
+     * mn.foreman.slackbot.config.PollSchedulingConfig} so the delay can be
+     * tuned at runtime.
+     */
     public void sendNotifications() {
-        final List<State> states =
-                this.stateRepository.findAll();
-        final NotificationsProcessor notificationProcessor =
-                new NotificationsProcessorImpl(
-                        this.foremanApiUrl,
-                        this.maxNotifications,
-                        this.objectMapper,
-                        this.startTime,
-                        this.app);
-        LOG.info("Looking for notifications for {} sessions", states.size());
-        // makes sure the list of states is non-empty
-        if (!states.isEmpty()) {
-            states
-                    .parallelStream()
-                    .forEach(
-                            state ->
-                                    notificationProcessor.process(
-                                            state,
-                                            this.stateRepository));
+        // Nothing new is started once shutdown begins
+        if (!this.lifecycle.isAccepting()) {
+            return;
+        }
+
+        final long start = System.currentTimeMillis();
+        final PollCycleEvent event = new PollCycleEvent();
+        event.begin();
+        this.watchdog.cycleStarted();
+
+        try {
+            final List<State> states =
+                    this.stateRegistry.getStates();
+            LOG.debug("Looking for notifications for {} sessions", states.size());
+            // makes sure the list of states is non-empty
+            if (!states.isEmpty()) {
+                final int processed;
+                if (this.async) {
+                    processed = processAsync(states);
+                } else {
+                    processed = processBlocking(states);
+                }
+                LOG.info("Cycle complete: {} sessions, {} notifications, {} ms",
+                        states.size(),
+                        processed,
+                        System.currentTimeMillis() - start);
+                event.notifications = processed;
+            }
+
+            event.sessions = states.size();
+
+            // Logged once per cycle rather than for each session, since a
+            // full stage turns away many sessions at once
+            final int rejectedSessions = this.rejected.getAndSet(0);
+            if (rejectedSessions > 0) {
+                LOG.warn("Deferred {} sessions to the next cycle because the " +
+                                "notifications pipeline was full",
+                        rejectedSessions);
+            }
+        } finally {
+            // A cycle that was cut short still lets the next one run
+            this.watchdog.cycleCompleted();
+            event.commit();
+        }
+
+        this.startupTimings.cycleCompleted(System.currentTimeMillis() - start);
+    }
+
+    /**
+     * Waits for the provided sessions to finish. If the cycle is interrupted
+     * by the {@link PollWatchdog}, it stops waiting and the sessions that are
+     * still running finish on their own.
+     *
+     * @param futures The future number of notifications processed for each
+     *                session.
+     *
+     * @return The number of notifications that were processed.
+     */
+    private static int await(final List<CompletableFuture<Integer>> futures) {
+        int processed = 0;
+        for (final CompletableFuture<Integer> future : futures) {
+            try {
+                processed += future.get();
+            } catch (final InterruptedException ie) {
+                LOG.warn("Cycle interrupted with {} sessions still running",
+                        futures.stream().filter(f -> !f.isDone()).count());
+                break;
+            } catch (final ExecutionException ee) {
+                // Failures are handled for each session
+            }
+        }
+        return processed;
+    }
+
+    /**
+     * Logs the failure to process the provided {@link State}. Sessions that
+     * were turned away by a full pipeline stage are only counted, and
+     * reported once at the end of the cycle.
+     *
+     * @param state     The {@link State}.
+     * @param throwable The failure.
+     */
+    private void logFailure(
+            final State state,
+            final Throwable throwable) {
+        Throwable cause = throwable;
+        while (cause instanceof CompletionException && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        if (cause instanceof RejectedExecutionException) {
+            this.rejected.incrementAndGet();
+        } else {
+            LOG.warn("Failed to process session {}",
+                    state.getChatId(),
+                    throwable);
         }
     }
-}
 
+    /**
+     * Processes the provided {@link State States} through the non-blocking
+     * processor, waiting for all of them to finish before the cycle ends.
+     *
+     * @param states The {@link State States} to process.
+     *
+     * @return The number of notifications that were processed.
+     */
+    private int processAsync(final List<State> states) {
+        final List<CompletableFuture<Integer>> futures =
+                states
+                        .stream()
+                        .map(this::processAsync)
+                        .collect(Collectors.toList());
+        return await(futures);
+    }
+
+    /**
+     * Processes the provided {@link State States} through the blocking
+     * processor on the poll threads, waiting for all of them to finish before
+     * the cycle ends.
+     *
+     * @param states The {@link State States} to process.
+     *
+     * @return The number of notifications that were processed.
+     */
+    private int processBlocking(final List<State> states) {
+        resizePollExecutor(this.runtimeSettings.getPollParallelism());
+        final List<CompletableFuture<Integer>> futures =
+                states
+                        .stream()
+                        .map(state ->
+                                CompletableFuture.supplyAsync(
+                                        () -> process(state),
+                                        this.pollExecutor))
+                        .collect(Collectors.toList());
+        return await(futures);
+    }
+
+    /**
+     * Resizes the poll threads to the provided parallelism.
+     *
+     * @param parallelism The number of sessions to process at once.
+     */
+    private void resizePollExecutor(final int parallelism) {
+        // The core size can never exceed the max size, so the order matters
+        if (parallelism > this.pollExecutor.getMaximumPoolSize()) {
+            this.pollExecutor.setMaximumPoolSize(parallelism);
+            this.pollExecutor.setCorePoolSize(parallelism);
+        } else if (parallelism < this.pollExecutor.getMaximumPoolSize()) {
+            this.pollExecutor.setCorePoolSize(parallelism);
+            this.pollExecutor.setMaximumPoolSize(parallelism);
+        }
+    }
+
+    /**
+     * Processes the provided {@link State}, isolating failures so that one
+     * session can't end the cycle for the others. Sessions that haven't
+     * started when shutdown begins, or that are already being processed by
+     * the priority lane, are skipped.
+     *
+     * @param state The {@link State} to process.
+     *
+     * @return The number of notifications that were processed.
+     */
+    private int process(final State state) {
+        if (!this.lifecycle.tryAcquire(state.getChatId())) {
+            return 0;
+        }
+        try {
+            return this.notificationsProcessor.process(
+                    state,
+                    this.stateRepository);
+        } catch (final Exception e) {
+            logFailure(state, e);
+        } finally {
+            this.lifecycle.release(state.getChatId());
+        }
+        return 0;
+    }
+
+    /**
+     * Processes the provided {@link State} through the non-blocking
+     * processor. Sessions that haven't started when shutdown begins, or that
+     * are already being processed by the priority lane, are skipped.
+     *
+     * @param state The {@link State} to process.
+     *
+     * @return The future number of notifications that were processed.
+     */
+    private CompletableFuture<Integer> processAsync(final State state) {
+        if (!this.lifecycle.tryAcquire(state.getChatId())) {
+            return CompletableFuture.completedFuture(0);
+        }
+        return CompletableFuture
+                .completedFuture(state)
+                .thenCompose(ignored ->
+                        this.asyncNotificationsProcessor.process(
+                                state,
+                                this.stateRepository))
+                .exceptionally(throwable -> {
+                    logFailure(state, throwable);
+                    return 0;
+                })
+                .whenComplete((count, throwable) ->
+                        this.lifecycle.release(state.getChatId()));
+    }
+}
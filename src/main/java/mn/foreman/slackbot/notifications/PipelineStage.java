@@ -0,0 +1,219 @@
+package mn.foreman.slackbot.notifications;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import java.util.function.Supplier;
+
+/**
+ * A stage of the {@link NotificationsPipeline}: runs up to a fixed number of
+ * tasks at once on its own threads, holding the rest in a bounded queue.
+ *
+ * <p>A task can finish asynchronously, in which case it keeps its slot until
+ * its future completes, so the concurrency bounds the work in flight rather
+ * than the threads busy, and is sized separately from the threads. A stage
+ * whose tasks only start asynchronous work needs a single thread however
+ * many tasks it keeps in flight. Tasks submitted while the queue is full are
+ * rejected.</p>
+ */
+class PipelineStage {
+
+    /** The number of tasks that completed. */
+    private final Counter completed;
+
+    /** The max number of tasks that can run at once. */
+    private final int concurrency;
+
+    /** The threads the tasks are started on. */
+    private final ExecutorService executorService;
+
+    /** The number of tasks that failed. */
+    private final Counter failed;
+
+    /** The stage name. */
+    private final String name;
+
+    /** Starts the tasks waiting to run. */
+    private final Deque<BooleanSupplier> queue = new ArrayDeque<>();
+
+    /** The max number of tasks that can wait. */
+    private final int queueSize;
+
+    /** The number of tasks that were rejected. */
+    private final Counter rejected;
+
+    /** The number of tasks running. */
+    private final AtomicInteger running = new AtomicInteger();
+
+    /**
+     * Constructor.
+     *
+     * @param name          The stage name.
+     * @param threads       The number of threads the tasks are started on.
+     * @param concurrency   The max number of tasks that can run at once.
+     * @param queueSize     The max number of tasks that can wait.
+     * @param meterRegistry Where the stage's metrics are reported.
+     */
+    PipelineStage(
+            final String name,
+            final int threads,
+            final int concurrency,
+            final int queueSize,
+            final MeterRegistry meterRegistry) {
+        this.name = name;
+        this.concurrency = concurrency;
+        this.queueSize = queueSize;
+        final AtomicInteger created = new AtomicInteger();
+        this.executorService =
+                Executors.newFixedThreadPool(
+                        threads,
+                        runnable -> {
+                            final Thread thread =
+                                    new Thread(
+                                            runnable,
+                                            "pipeline-" + name + "-" + created.incrementAndGet());
+                            thread.setDaemon(true);
+                            return thread;
+                        });
+
+        Gauge
+                .builder("notifications.pipeline.queued", this, PipelineStage::getQueued)
+                .description("The tasks waiting for the stage")
+                .tag("stage", name)
+                .register(meterRegistry);
+        Gauge
+                .builder("notifications.pipeline.running", this.running, AtomicInteger::get)
+                .description("The tasks the stage is running")
+                .tag("stage", name)
+                .register(meterRegistry);
+        this.completed =
+                Counter
+                        .builder("notifications.pipeline.completed")
+                        .description("The tasks the stage completed")
+                        .tag("stage", name)
+                        .register(meterRegistry);
+        this.failed =
+                Counter
+                        .builder("notifications.pipeline.failed")
+                        .description("The tasks that failed in the stage")
+                        .tag("stage", name)
+                        .register(meterRegistry);
+        this.rejected =
+                Counter
+                        .builder("notifications.pipeline.rejected")
+                        .description("The tasks the stage rejected because its queue was full")
+                        .tag("stage", name)
+                        .register(meterRegistry);
+    }
+
+    /**
+     * Returns the number of tasks waiting to run.
+     *
+     * @return The number of tasks waiting.
+     */
+    synchronized int getQueued() {
+        return this.queue.size();
+    }
+
+    /** Stops the stage's threads. */
+    void shutdown() {
+        this.executorService.shutdownNow();
+    }
+
+    /**
+     * Runs the provided task once the stage has room for it.
+     *
+     * @param task The task, which returns the future that completes once
+     *             the task is done.
+     * @param <T>  The task result type.
+     *
+     * @return The future that completes with the task result, or
+     *         exceptionally with a {@link RejectedExecutionException} if the
+     *         queue was full.
+     */
+    <T> CompletableFuture<T> submit(final Supplier<CompletableFuture<T>> task) {
+        final CompletableFuture<T> result = new CompletableFuture<>();
+        final BooleanSupplier start = () -> start(task, result);
+        synchronized (this) {
+            if (this.running.get() < this.concurrency) {
+                this.running.incrementAndGet();
+            } else if (this.queue.size() < this.queueSize) {
+                this.queue.add(start);
+                return result;
+            } else {
+                this.rejected.increment();
+                return CompletableFuture.failedFuture(
+                        new RejectedExecutionException(
+                                "The " + this.name + " stage is full"));
+            }
+        }
+        if (!start.getAsBoolean()) {
+            next();
+        }
+        return result;
+    }
+
+    /**
+     * Starts the next waiting task in the slot that was just freed, or frees
+     * the slot if nothing is waiting.
+     */
+    private void next() {
+        while (true) {
+            final BooleanSupplier next;
+            synchronized (this) {
+                next = this.queue.poll();
+                if (next == null) {
+                    this.running.decrementAndGet();
+                    return;
+                }
+            }
+            if (next.getAsBoolean()) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Starts the provided task on the stage's threads, relaying its outcome
+     * to the provided result.
+     *
+     * @param task   The task.
+     * @param result The result to complete.
+     * @param <T>    The task result type.
+     *
+     * @return Whether or not the task was started.
+     */
+    private <T> boolean start(
+            final Supplier<CompletableFuture<T>> task,
+            final CompletableFuture<T> result) {
+        try {
+            CompletableFuture
+                    .supplyAsync(task, this.executorService)
+                    .thenCompose(future -> future)
+                    .whenComplete((value, throwable) -> {
+                        if (throwable != null) {
+                            this.failed.increment();
+                            result.completeExceptionally(throwable);
+                        } else {
+                            this.completed.increment();
+                            result.complete(value);
+                        }
+                        next();
+                    });
+            return true;
+        } catch (final RejectedExecutionException ree) {
+            // Shutting down
+            result.completeExceptionally(ree);
+            return false;
+        }
+    }
+}
@@ -0,0 +1,334 @@
+package mn.foreman.slackbot.notifications;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Watches the poll cycles and the sessions in flight so a hung Foreman or
+ * Slack call can't stop polling for everyone.
+ *
+ * <p>A session that's been in flight for longer than the session timeout is
+ * abandoned: its future is completed with a {@link TimeoutException}, which
+ * releases the cycle waiting on it, and no further windows are fetched for
+ * it. The work that's already running keeps the session retained in the
+ * {@link NotificationsLifecycle} until it finishes, so the session isn't
+ * claimed again from its old cursor while its deliveries are still going
+ * out. A cycle that runs for longer than the cycle timeout has its thread
+ * interrupted. The time since the last completed cycle is reported through
+ * the poller health indicators.</p>
+ */
+@Component
+public class PollWatchdog {
+
+    /** The logger for this class. */
+    private static final Logger LOG =
+            LoggerFactory.getLogger(PollWatchdog.class);
+
+    /** The number of sessions that were abandoned. */
+    private final AtomicLong abandoned = new AtomicLong();
+
+    /** How often the sessions and cycles are checked. */
+    private final Duration checkInterval;
+
+    /** The thread that checks the sessions and cycles. */
+    private final ScheduledExecutorService checker =
+            Executors.newSingleThreadScheduledExecutor(runnable -> {
+                final Thread thread = new Thread(runnable, "poll-watchdog");
+                thread.setDaemon(true);
+                return thread;
+            });
+
+    /** How long a cycle can run before its thread is interrupted. */
+    private final Duration cycleTimeout;
+
+    /** The sessions in flight. */
+    private final Set<InFlight> inFlight = ConcurrentHashMap.newKeySet();
+
+    /** Retains the abandoned sessions until their work finishes. */
+    private final NotificationsLifecycle lifecycle;
+
+    /** How long a session can be in flight before it's abandoned. */
+    private final Duration sessionTimeout;
+
+    /** When the current cycle started, or {@code null} if none is running. */
+    private volatile Instant cycleStarted;
+
+    /** The thread running the current cycle. */
+    private volatile Thread cycleThread;
+
+    /** Whether or not the current cycle's thread was interrupted. */
+    private boolean interrupted;
+
+    /**
+     * When the last cycle completed, or when the watchdog started if none
+     * has.
+     */
+    private volatile Instant lastCompleted = Instant.now();
+
+    /** Whether or not a cycle has completed. */
+    private volatile boolean cycled;
+
+    /**
+     * Constructor.
+     *
+     * @param lifecycle      Retains the abandoned sessions until their work
+     *                       finishes.
+     * @param checkInterval  How often the sessions and cycles are checked.
+     * @param sessionTimeout How long a session can be in flight before it's
+     *                       abandoned.
+     * @param cycleTimeout   How long a cycle can run before its thread is
+     *                       interrupted.
+     */
+    public PollWatchdog(
+            final NotificationsLifecycle lifecycle,
+            @Value("${bot.watchdog.checkInterval}") final Duration checkInterval,
+            @Value("${bot.watchdog.sessionTimeout}") final Duration sessionTimeout,
+            @Value("${bot.watchdog.cycleTimeout}") final Duration cycleTimeout) {
+        this.lifecycle = lifecycle;
+        this.checkInterval = checkInterval;
+        this.sessionTimeout = sessionTimeout;
+        this.cycleTimeout = cycleTimeout;
+    }
+
+    /** Starts checking. */
+    @PostConstruct
+    public void start() {
+        this.checker.scheduleWithFixedDelay(
+                this::check,
+                this.checkInterval.toMillis(),
+                this.checkInterval.toMillis(),
+                TimeUnit.MILLISECONDS);
+    }
+
+    /** Stops checking. */
+    @PreDestroy
+    public void stop() {
+        this.checker.shutdownNow();
+    }
+
+    /**
+     * Records that the calling thread finished a cycle.
+     */
+    public synchronized void cycleCompleted() {
+        this.cycleStarted = null;
+        this.cycleThread = null;
+        this.lastCompleted = Instant.now();
+        this.cycled = true;
+        // Clears an interrupt that the cycle didn't consume, so it doesn't
+        // carry over to whatever the thread runs next
+        if (this.interrupted) {
+            this.interrupted = false;
+            Thread.interrupted();
+        }
+    }
+
+    /**
+     * Records that the calling thread started a cycle.
+     */
+    public synchronized void cycleStarted() {
+        this.interrupted = false;
+        this.cycleThread = Thread.currentThread();
+        this.cycleStarted = Instant.now();
+    }
+
+    /**
+     * Returns the number of sessions that were abandoned.
+     *
+     * @return The number of abandoned sessions.
+     */
+    public long getAbandoned() {
+        return this.abandoned.get();
+    }
+
+    /**
+     * Returns how long the current cycle has been running.
+     *
+     * @return How long the current cycle has been running, or {@link
+     *         Duration#ZERO} if none is.
+     */
+    public Duration getCycleRunning() {
+        final Instant started = this.cycleStarted;
+        return started != null
+                ? Duration.between(started, Instant.now())
+                : Duration.ZERO;
+    }
+
+    /**
+     * Returns the number of sessions in flight.
+     *
+     * @return The number of sessions in flight.
+     */
+    public int getInFlight() {
+        return this.inFlight.size();
+    }
+
+    /**
+     * Returns how long the oldest session in flight has been running.
+     *
+     * @return The age of the oldest session, or {@link Duration#ZERO} if none
+     *         are in flight.
+     */
+    public Duration getOldestInFlight() {
+        final long now = System.nanoTime();
+        return Duration.ofNanos(
+                this.inFlight
+                        .stream()
+                        .mapToLong(session -> now - session.startedNanos)
+                        .max()
+                        .orElse(0));
+    }
+
+    /**
+     * Returns when the last cycle completed.
+     *
+     * @return When the last cycle completed, or when the watchdog started if
+     *         none has.
+     */
+    public Instant getLastCompleted() {
+        return this.lastCompleted;
+    }
+
+    /**
+     * Returns how long it's been since the last cycle completed.
+     *
+     * @return The time since the last completed cycle.
+     */
+    public Duration getSinceLastCompleted() {
+        return Duration.between(this.lastCompleted, Instant.now());
+    }
+
+    /**
+     * Returns whether or not a cycle has completed.
+     *
+     * @return Whether or not a cycle has completed.
+     */
+    public boolean hasCycled() {
+        return this.cycled;
+    }
+
+    /**
+     * Starts watching the work for the provided session. The work is handed
+     * the future the caller waits on, which completes early if the session is
+     * abandoned, so it can stop once nobody is waiting.
+     *
+     * @param chatId The chat the work is for.
+     * @param work   Starts the work.
+     * @param <T>    The work result type.
+     *
+     * @return The future that completes with the work, or exceptionally if
+     *         the session was abandoned.
+     */
+    public <T> CompletableFuture<T> watch(
+            final String chatId,
+            final Function<CompletableFuture<T>, CompletableFuture<T>> work) {
+        final CompletableFuture<T> watched = new CompletableFuture<>();
+        final long startedNanos = System.nanoTime();
+
+        CompletableFuture<T> started;
+        try {
+            started = work.apply(watched);
+        } catch (final Exception e) {
+            started = CompletableFuture.failedFuture(e);
+        }
+
+        final InFlight session =
+                new InFlight(
+                        chatId,
+                        startedNanos,
+                        watched,
+                        started);
+        this.inFlight.add(session);
+        started.whenComplete((value, throwable) -> {
+            this.inFlight.remove(session);
+            if (throwable != null) {
+                watched.completeExceptionally(throwable);
+            } else {
+                watched.complete(value);
+            }
+        });
+        return watched;
+    }
+
+    /** Abandons the stuck sessions and interrupts a stuck cycle. */
+    private synchronized void check() {
+        final long now = System.nanoTime();
+        for (final InFlight session : this.inFlight) {
+            final long age = now - session.startedNanos;
+            if (age >= this.sessionTimeout.toNanos() &&
+                    this.inFlight.remove(session)) {
+                this.abandoned.incrementAndGet();
+                LOG.warn("Abandoning session {} after {} ms in flight",
+                        session.chatId,
+                        TimeUnit.NANOSECONDS.toMillis(age));
+                // Retained before the caller is released, so the session
+                // can't be claimed again while its work is still running
+                this.lifecycle.retain(session.chatId, session.work);
+                session.future.completeExceptionally(
+                        new TimeoutException(
+                                "Session " + session.chatId + " was stuck"));
+            }
+        }
+
+        final Thread thread = this.cycleThread;
+        final Duration running = getCycleRunning();
+        if (thread != null &&
+                !this.interrupted &&
+                running.compareTo(this.cycleTimeout) >= 0) {
+            this.interrupted = true;
+            LOG.warn("Interrupting the poll cycle after {} ms",
+                    running.toMillis());
+            thread.interrupt();
+        }
+    }
+
+    /** A session in flight. */
+    private static class InFlight {
+
+        /** The chat the work is for. */
+        private final String chatId;
+
+        /** The future the caller waits on. */
+        private final CompletableFuture<?> future;
+
+        /** When the work started. */
+        private final long startedNanos;
+
+        /** The work itself, which keeps running if it's abandoned. */
+        private final CompletableFuture<?> work;
+
+        /**
+         * Constructor.
+         *
+         * @param chatId       The chat the work is for.
+         * @param startedNanos When the work started.
+         * @param future       The future the caller waits on.
+         * @param work         The work itself.
+         */
+        InFlight(
+                final String chatId,
+                final long startedNanos,
+                final CompletableFuture<?> future,
+                final CompletableFuture<?> work) {
+            this.chatId = chatId;
+            this.startedNanos = startedNanos;
+            this.future = future;
+            this.work = work;
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package mn.foreman.slackbot.notifications;
+
+import mn.foreman.slackbot.db.session.State;
+import mn.foreman.slackbot.db.session.StateRegistry;
+import mn.foreman.slackbot.db.session.StateRepository;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * A priority lane that polls a single session right away, ahead of the
+ * scheduled poll cycle, on its own threads so the cycle's timing isn't
+ * affected.
+ *
+ * <p>Used when a channel registers or tests its credentials, so the first
+ * notifications show up within seconds rather than on the next cycle. A
+ * session is only queued once at a time, and a session that the cycle is
+ * already processing is left to the cycle.</p>
+ */
+@Component
+public class PriorityPoller {
+
+    /** The logger for this class. */
+    private static final Logger LOG =
+            LoggerFactory.getLogger(PriorityPoller.class);
+
+    /** The threads that poll the queued sessions. */
+    private final ExecutorService executorService;
+
+    /** Claims the sessions and drains them on shutdown. */
+    private final NotificationsLifecycle lifecycle;
+
+    /** Fetches and delivers the notifications a window at a time. */
+    private final NotificationsPager notificationsPager;
+
+    /** The sessions that are queued. */
+    private final Set<String> queued = ConcurrentHashMap.newKeySet();
+
+    /** The registered {@link State States}. */
+    private final StateRegistry stateRegistry;
+
+    /** Where the progress is saved. */
+    private final StateRepository stateRepository;
+
+    /**
+     * Constructor.
+     *
+     * @param notificationsPager Fetches and delivers the notifications a
+     *                           window at a time.
+     * @param lifecycle          Claims the sessions and drains them on
+     *                           shutdown.
+     * @param stateRegistry      The registered {@link State States}.
+     * @param stateRepository    Where the progress is saved.
+     * @param threads            The number of threads that poll the queued
+     *                           sessions.
+     */
+    public PriorityPoller(
+            final NotificationsPager notificationsPager,
+            final NotificationsLifecycle lifecycle,
+            final StateRegistry stateRegistry,
+            final StateRepository stateRepository,
+            @Value("${notifications.priority.threads}") final int threads) {
+        this.notificationsPager = notificationsPager;
+        this.lifecycle = lifecycle;
+        this.stateRegistry = stateRegistry;
+        this.stateRepository = stateRepository;
+        this.executorService = Executors.newFixedThreadPool(threads);
+    }
+
+    /** Stops the priority threads. */
+    @PreDestroy
+    public void close() {
+        this.executorService.shutdownNow();
+    }
+
+    /**
+     * Queues the provided session to be polled right away.
+     *
+     * @param chatId The session's chat ID.
+     *
+     * @return Whether or not the session is registered. Sessions that are
+     *         already queued aren't queued again.
+     */
+    public boolean enqueue(final String chatId) {
+        if (this.stateRegistry.get(chatId).isEmpty()) {
+            return false;
+        }
+        if (this.queued.add(chatId)) {
+            this.executorService.execute(() -> poll(chatId));
+        }
+        return true;
+    }
+
+    /**
+     * Polls the provided session.
+     *
+     * @param chatId The session's chat ID.
+     */
+    private void poll(final String chatId) {
+        this.queued.remove(chatId);
+
+        // Look the session up again in case it changed while queued
+        final Optional<State> state = this.stateRegistry.get(chatId);
+        if (state.isEmpty() || !this.lifecycle.tryAcquire(chatId)) {
+            return;
+        }
+        try {
+            final int processed =
+                    this.notificationsPager
+                            .process(
+                                    state.get(),
+                                    this.stateRepository)
+                            .join();
+            LOG.info("Priority poll for {} processed {} notifications",
+                    chatId,
+                    processed);
+        } catch (final Exception e) {
+            LOG.warn("Priority poll failed for {}", chatId, e);
+        } finally {
+            this.lifecycle.release(chatId);
+        }
+    }
+}
@@ -0,0 +1,215 @@
+package mn.foreman.slackbot.notifications;
+
+import mn.foreman.slackbot.db.session.State;
+import mn.foreman.slackbot.jfr.SlackPostEvent;
+import mn.foreman.slackbot.replay.TrafficRecorder;
+
+import com.slack.api.Slack;
+import com.slack.api.SlackConfig;
+import com.slack.api.methods.SlackApiTextResponse;
+import com.slack.api.methods.request.chat.ChatPostMessageRequest;
+import com.slack.api.methods.request.chat.ChatUpdateRequest;
+import com.slack.api.methods.response.chat.ChatPostMessageResponse;
+import com.slack.api.methods.response.chat.ChatUpdateResponse;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Posts messages to Slack through the asynchronous methods client, sharing a
+ * single {@link Slack} instance across all sessions.
+ */
+@Component
+public class SlackMessenger {
+
+    /** The errors Slack returns when a token is no longer valid. */
+    private static final Set<String> TOKEN_ERRORS =
+            Set.of(
+                    "account_inactive",
+                    "invalid_auth",
+                    "not_authed",
+                    "token_expired",
+                    "token_revoked");
+
+    /** Records the call timings, if enabled. */
+    private final TrafficRecorder recorder;
+
+    /** The Slack client. */
+    private final Slack slack;
+
+    /** Resolves the current bot token for each session. */
+    private final BotTokenResolver tokenResolver;
+
+    /**
+     * Constructor.
+     *
+     * @param recorder      Records the call timings, if enabled.
+     * @param tokenResolver Resolves the current bot token for each session.
+     * @param methodsUrl    The Slack API methods URL prefix, or blank for the
+     *                      default.
+     */
+    public SlackMessenger(
+            final TrafficRecorder recorder,
+            final BotTokenResolver tokenResolver,
+            @Value("${slack.methodsUrl:}") final String methodsUrl) {
+        this.recorder = recorder;
+        this.tokenResolver = tokenResolver;
+        final SlackConfig config = new SlackConfig();
+        if (!methodsUrl.isBlank()) {
+            config.setMethodsEndpointUrlPrefix(methodsUrl);
+        }
+        this.slack = Slack.getInstance(config);
+    }
+
+    /**
+     * Closes the Slack client.
+     *
+     * @throws Exception on failure.
+     */
+    @PreDestroy
+    public void close() throws Exception {
+        this.slack.close();
+    }
+
+    /**
+     * Posts the provided message to the chat for the provided {@link State}.
+     *
+     * @param state   The {@link State} for the session.
+     * @param message The message to post.
+     *
+     * @return The future Slack response, which fails if there's no valid
+     *         token for the session.
+     */
+    public CompletableFuture<ChatPostMessageResponse> post(
+            final State state,
+            final String message) {
+        return reply(
+                state,
+                null,
+                message,
+                false);
+    }
+
+    /**
+     * Posts the provided message as a reply in the provided thread.
+     *
+     * @param state     The {@link State} for the session.
+     * @param threadTs  The timestamp of the thread's parent message, or
+     *                  {@code null} to post to the channel.
+     * @param message   The message to post.
+     * @param broadcast Whether or not the reply is also shown in the
+     *                  channel.
+     *
+     * @return The future Slack response, which fails if there's no valid
+     *         token for the session.
+     */
+    public CompletableFuture<ChatPostMessageResponse> reply(
+            final State state,
+            final String threadTs,
+            final String message,
+            final boolean broadcast) {
+        final String token;
+        try {
+            token = this.tokenResolver.resolve(state);
+        } catch (final IllegalStateException ise) {
+            return CompletableFuture.failedFuture(ise);
+        }
+        return record(
+                state,
+                token,
+                "chat.postMessage",
+                this.slack
+                        .methodsAsync(token)
+                        .chatPostMessage(
+                                ChatPostMessageRequest
+                                        .builder()
+                                        .channel(state.getChatId())
+                                        .threadTs(threadTs)
+                                        .replyBroadcast(threadTs != null && broadcast)
+                                        .text(message)
+                                        .build()));
+    }
+
+    /**
+     * Replaces the text of a message that was already posted.
+     *
+     * @param state   The {@link State} for the session.
+     * @param ts      The timestamp of the message to update.
+     * @param message The new message text.
+     *
+     * @return The future Slack response, which fails if there's no valid
+     *         token for the session.
+     */
+    public CompletableFuture<ChatUpdateResponse> update(
+            final State state,
+            final String ts,
+            final String message) {
+        final String token;
+        try {
+            token = this.tokenResolver.resolve(state);
+        } catch (final IllegalStateException ise) {
+            return CompletableFuture.failedFuture(ise);
+        }
+        return record(
+                state,
+                token,
+                "chat.update",
+                this.slack
+                        .methodsAsync(token)
+                        .chatUpdate(
+                                ChatUpdateRequest
+                                        .builder()
+                                        .channel(state.getChatId())
+                                        .ts(ts)
+                                        .text(message)
+                                        .build()));
+    }
+
+    /**
+     * Records a {@link SlackPostEvent} and the traffic for the provided call.
+     * A rejected token is looked up again for the next call.
+     *
+     * @param state    The {@link State} for the session.
+     * @param token    The token the call was made with.
+     * @param method   The Slack method.
+     * @param response The future Slack response.
+     * @param <T>      The response type.
+     *
+     * @return The future Slack response.
+     */
+    private <T extends SlackApiTextResponse> CompletableFuture<T> record(
+            final State state,
+            final String token,
+            final String method,
+            final CompletableFuture<T> response) {
+        final SlackPostEvent event = new SlackPostEvent();
+        event.begin();
+        event.chatId = state.getChatId();
+        final long start = System.currentTimeMillis();
+        return response.whenComplete((result, throwable) -> {
+            if (result != null) {
+                event.succeeded = result.isOk();
+                event.error = result.getError();
+                if (result.getError() != null &&
+                        TOKEN_ERRORS.contains(result.getError())) {
+                    this.tokenResolver.invalidate(
+                            state,
+                            token);
+                }
+            } else {
+                event.error = throwable.getClass().getSimpleName();
+            }
+            event.commit();
+            this.recorder.recordSlack(
+                    state,
+                    method,
+                    start,
+                    System.currentTimeMillis() - start,
+                    event.succeeded,
+                    event.error);
+        });
+    }
+}
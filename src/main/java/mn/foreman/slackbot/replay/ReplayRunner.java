@@ -0,0 +1,239 @@
+package mn.foreman.slackbot.replay;
+
+import mn.foreman.slackbot.db.session.State;
+import mn.foreman.slackbot.db.session.StateRegistry;
+import mn.foreman.slackbot.db.session.StateRepository;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Replays a recording made by the {@link TrafficRecorder} against stub
+ * Foreman and Slack servers, then reports the delivery throughput and lag and
+ * exits.
+ *
+ * <p>Only active with the {@code replay} profile, which points the bot at the
+ * stubs and at its own database.</p>
+ */
+@Component
+@Profile("replay")
+public class ReplayRunner
+        implements ApplicationRunner {
+
+    /** The logger for this class. */
+    private static final Logger LOG =
+            LoggerFactory.getLogger(ReplayRunner.class);
+
+    /** The application context. */
+    private final ApplicationContext applicationContext;
+
+    /** The recording to replay. */
+    private final String file;
+
+    /** The Foreman notifications path. */
+    private final String notificationsPath;
+
+    /** The mapper. */
+    private final ObjectMapper objectMapper;
+
+    /** The port the stubs listen on. */
+    private final int port;
+
+    /** The replay speed. */
+    private final double speed;
+
+    /** The registered {@link State States}. */
+    private final StateRegistry stateRegistry;
+
+    /** The repository where {@link State States} are stored. */
+    private final StateRepository stateRepository;
+
+    /** How long to wait for the deliveries once the timeline ends. */
+    private final Duration timeout;
+
+    /**
+     * Constructor.
+     *
+     * @param file               The recording to replay.
+     * @param speed              The replay speed.
+     * @param port               The port the stubs listen on.
+     * @param timeout            How long to wait for the deliveries once the
+     *                           timeline ends.
+     * @param notificationsPath  The Foreman notifications path.
+     * @param stateRepository    The repository where {@link State States} are
+     *                           stored.
+     * @param stateRegistry      The registered {@link State States}.
+     * @param objectMapper       The mapper.
+     * @param applicationContext The application context.
+     */
+    public ReplayRunner(
+            @Value("${replay.file}") final String file,
+            @Value("${replay.speed}") final double speed,
+            @Value("${replay.port}") final int port,
+            @Value("${replay.timeout}") final Duration timeout,
+            @Value("${foreman.notificationsPath}") final String notificationsPath,
+            final StateRepository stateRepository,
+            final StateRegistry stateRegistry,
+            final ObjectMapper objectMapper,
+            final ApplicationContext applicationContext) {
+        this.file = file;
+        this.speed = speed;
+        this.port = port;
+        this.timeout = timeout;
+        this.notificationsPath = notificationsPath;
+        this.stateRepository = stateRepository;
+        this.stateRegistry = stateRegistry;
+        this.objectMapper = objectMapper;
+        this.applicationContext = applicationContext;
+    }
+
+    /**
+     * Returns the provided percentile of the sorted values.
+     *
+     * @param sorted     The sorted values.
+     * @param percentile The percentile.
+     *
+     * @return The percentile.
+     */
+    private static long percentile(
+            final List<Long> sorted,
+            final double percentile) {
+        if (sorted.isEmpty()) {
+            return 0;
+        }
+        final int index =
+                (int) Math.ceil(percentile / 100 * sorted.size()) - 1;
+        return sorted.get(Math.max(0, index));
+    }
+
+    @Override
+    public void run(final ApplicationArguments args) throws Exception {
+        final List<TrafficRecord> records = load();
+
+        // Each recorded chat becomes a session with its own client ID
+        final Map<String, Integer> sinceIds = new TreeMap<>();
+        records
+                .stream()
+                .filter(record -> TrafficRecord.FETCH.equals(record.getType()))
+                .forEach(record ->
+                        sinceIds.putIfAbsent(
+                                record.getChat(),
+                                record.getSinceId() != null
+                                        ? record.getSinceId()
+                                        : 0));
+        final Map<Integer, String> chats = new HashMap<>();
+        final List<State> states = new ArrayList<>();
+        for (final Map.Entry<String, Integer> entry : sinceIds.entrySet()) {
+            final int clientId = chats.size() + 1;
+            chats.put(clientId, entry.getKey());
+            states.add(
+                    State
+                            .builder()
+                            .chatId(entry.getKey())
+                            .clientId(clientId)
+                            .apiKey("replay")
+                            .botToken("xoxb-replay")
+                            .dateRegistered(Instant.now())
+                            .lastNotificationId(entry.getValue())
+                            .build());
+        }
+
+        final ReplayStubServer server =
+                new ReplayStubServer(
+                        records,
+                        chats,
+                        this.notificationsPath,
+                        this.speed,
+                        this.port,
+                        this.objectMapper);
+        LOG.info("Replaying {} notifications for {} sessions at {}x",
+                server.getTotal(),
+                states.size(),
+                this.speed);
+
+        this.stateRepository.deleteAll();
+        server.start();
+        this.stateRepository
+                .saveAll(states)
+                .forEach(this.stateRegistry::put);
+
+        final long deadline =
+                System.nanoTime() +
+                        TimeUnit.MILLISECONDS.toNanos(server.getDuration()) +
+                        this.timeout.toNanos();
+        final long start = System.nanoTime();
+        while (server.getDelivered() < server.getTotal() &&
+                System.nanoTime() < deadline) {
+            Thread.sleep(100);
+        }
+        final long elapsed =
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        final List<Long> latencies = server.getLatencies();
+        Collections.sort(latencies);
+        LOG.info("Replay finished in {} ms: {}/{} delivered ({} served), " +
+                        "{} deliveries/s, lag p50={} ms p99={} ms max={} ms",
+                elapsed,
+                server.getDelivered(),
+                server.getTotal(),
+                server.getServed(),
+                String.format("%.1f", server.getDelivered() * 1000.0 / Math.max(1, elapsed)),
+                percentile(latencies, 50),
+                percentile(latencies, 99),
+                percentile(latencies, 100));
+
+        server.stop();
+        System.exit(
+                SpringApplication.exit(
+                        this.applicationContext,
+                        () -> server.getDelivered() < server.getTotal() ? 1 : 0));
+    }
+
+    /**
+     * Loads the recording.
+     *
+     * @return The records.
+     *
+     * @throws Exception on failure to read the recording.
+     */
+    private List<TrafficRecord> load() throws Exception {
+        final List<TrafficRecord> records = new ArrayList<>();
+        try (final BufferedReader reader =
+                     Files.newBufferedReader(
+                             Paths.get(this.file),
+                             StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.isBlank()) {
+                    records.add(
+                            this.objectMapper.readValue(
+                                    line,
+                                    TrafficRecord.class));
+                }
+            }
+        }
+        return records;
+    }
+}
@@ -0,0 +1,449 @@
+package mn.foreman.slackbot.replay;
+
+import mn.foreman.api.endpoints.notifications.Notifications;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Stands in for both Foreman and Slack while a recording is replayed.
+ *
+ * <p>Each recorded notification becomes available to its chat at its
+ * recorded time, divided by the replay speed, and Foreman requests return the
+ * available notifications after the cursor. Responses are delayed by the
+ * recorded call durations, unscaled, so the stubs behave like the real
+ * services did. Every notification served is timed until the Slack call that
+ * delivers it arrives.</p>
+ */
+public class ReplayStubServer {
+
+    /** Matches the channel in a form-encoded Slack request. */
+    private static final Pattern CHANNEL = Pattern.compile("(?:^|&)channel=([^&]*)");
+
+    /** Matches a thread timestamp in a form-encoded Slack request. */
+    private static final Pattern THREAD_TS = Pattern.compile("(?:^|&)thread_ts=");
+
+    /** The chat for each client ID. */
+    private final Map<Integer, String> chats;
+
+    /** The number of notifications that were delivered. */
+    private final AtomicInteger delivered = new AtomicInteger();
+
+    /** The delivery latencies, in milliseconds. */
+    private final List<Long> latencies = Collections.synchronizedList(new ArrayList<>());
+
+    /** The recorded fetch durations for each chat. */
+    private final Map<String, Durations> fetchDurations = new HashMap<>();
+
+    /** Matches the Foreman notifications path. */
+    private final Pattern notificationsPath;
+
+    /** The mapper. */
+    private final ObjectMapper objectMapper;
+
+    /** When each served notification became available, by chat. */
+    private final Map<String, Deque<Long>> pending = new ConcurrentHashMap<>();
+
+    /** The HTTP server. */
+    private final HttpServer server;
+
+    /** The number of notifications that were served. */
+    private final AtomicInteger served = new AtomicInteger();
+
+    /** The recorded Slack call durations for each chat. */
+    private final Map<String, Durations> slackDurations = new HashMap<>();
+
+    /** The replay speed. */
+    private final double speed;
+
+    /** The threads that answer the requests. */
+    private final ExecutorService executorService =
+            Executors.newCachedThreadPool();
+
+    /** The notifications for each chat, in ID order. */
+    private final Map<String, List<Timed>> timelines = new HashMap<>();
+
+    /** When the replay started, in nanoseconds. */
+    private long startNanos;
+
+    /**
+     * Constructor.
+     *
+     * @param records           The recorded traffic.
+     * @param chats             The chat for each client ID.
+     * @param notificationsPath The Foreman notifications path, formatted
+     *                          with the client ID.
+     * @param speed             The replay speed.
+     * @param port              The port to listen on.
+     * @param objectMapper      The mapper.
+     *
+     * @throws IOException on failure to listen.
+     */
+    public ReplayStubServer(
+            final List<TrafficRecord> records,
+            final Map<Integer, String> chats,
+            final String notificationsPath,
+            final double speed,
+            final int port,
+            final ObjectMapper objectMapper) throws IOException {
+        this.chats = chats;
+        this.speed = speed;
+        this.objectMapper = objectMapper;
+        final int clientIdAt = notificationsPath.indexOf("%d");
+        this.notificationsPath =
+                Pattern.compile(
+                        Pattern.quote(notificationsPath.substring(0, clientIdAt)) +
+                                "(\\d+)" +
+                                Pattern.quote(notificationsPath.substring(clientIdAt + 2)));
+
+        final long first =
+                records
+                        .stream()
+                        .mapToLong(TrafficRecord::getAt)
+                        .min()
+                        .orElse(0);
+        for (final TrafficRecord record : records) {
+            if (TrafficRecord.FETCH.equals(record.getType())) {
+                this.fetchDurations
+                        .computeIfAbsent(record.getChat(), chat -> new Durations())
+                        .add(record.getMillis());
+                if (record.getNotifications() != null) {
+                    final List<Timed> timeline =
+                            this.timelines.computeIfAbsent(
+                                    record.getChat(),
+                                    chat -> new ArrayList<>());
+                    record
+                            .getNotifications()
+                            .forEach(notification ->
+                                    timeline.add(
+                                            new Timed(
+                                                    (long) ((record.getAt() - first) / speed),
+                                                    notification)));
+                }
+            } else if (TrafficRecord.SLACK.equals(record.getType())) {
+                this.slackDurations
+                        .computeIfAbsent(record.getChat(), chat -> new Durations())
+                        .add(record.getMillis());
+            }
+        }
+        // A notification is available from the first fetch that returned it
+        this.timelines.values().forEach(timeline -> {
+            timeline.sort(
+                    Comparator
+                            .comparingInt((Timed timed) -> timed.notification.id)
+                            .thenComparingLong(timed -> timed.availableAt));
+            final Map<Integer, Timed> firstSeen = new HashMap<>();
+            timeline.forEach(timed -> firstSeen.putIfAbsent(timed.notification.id, timed));
+            timeline.retainAll(firstSeen.values());
+        });
+
+        this.server = HttpServer.create(new InetSocketAddress("localhost", port), 0);
+        this.server.setExecutor(this.executorService);
+        this.server.createContext("/", this::handle);
+    }
+
+    /**
+     * Returns the number of notifications that were delivered.
+     *
+     * @return The number of notifications delivered.
+     */
+    public int getDelivered() {
+        return this.delivered.get();
+    }
+
+    /**
+     * Returns the delivery latencies, in milliseconds.
+     *
+     * @return The latencies.
+     */
+    public List<Long> getLatencies() {
+        synchronized (this.latencies) {
+            return new ArrayList<>(this.latencies);
+        }
+    }
+
+    /**
+     * Returns the number of notifications that were served.
+     *
+     * @return The number of notifications served.
+     */
+    public int getServed() {
+        return this.served.get();
+    }
+
+    /**
+     * Returns the total number of recorded notifications.
+     *
+     * @return The number of recorded notifications.
+     */
+    public int getTotal() {
+        return this.timelines
+                .values()
+                .stream()
+                .mapToInt(List::size)
+                .sum();
+    }
+
+    /**
+     * Returns how long the replayed timeline lasts, in milliseconds.
+     *
+     * @return The timeline duration.
+     */
+    public long getDuration() {
+        return this.timelines
+                .values()
+                .stream()
+                .flatMap(List::stream)
+                .mapToLong(timed -> timed.availableAt)
+                .max()
+                .orElse(0);
+    }
+
+    /** Starts the replay. */
+    public void start() {
+        this.startNanos = System.nanoTime();
+        this.server.start();
+    }
+
+    /** Stops the stubs. */
+    public void stop() {
+        this.server.stop(0);
+        this.executorService.shutdownNow();
+    }
+
+    /**
+     * Returns the time since the replay started, in milliseconds.
+     *
+     * @return The elapsed time.
+     */
+    private long elapsed() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - this.startNanos);
+    }
+
+    /**
+     * Answers a request.
+     *
+     * @param exchange The exchange.
+     *
+     * @throws IOException on failure.
+     */
+    private void handle(final HttpExchange exchange) throws IOException {
+        try {
+            final String path = exchange.getRequestURI().getPath();
+            final Matcher foreman = this.notificationsPath.matcher(path);
+            if (foreman.matches()) {
+                handleForeman(
+                        exchange,
+                        Integer.parseInt(foreman.group(1)));
+            } else {
+                handleSlack(
+                        exchange,
+                        path.substring(path.lastIndexOf('/') + 1));
+            }
+        } catch (final InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Answers a Foreman notifications request.
+     *
+     * @param exchange The exchange.
+     * @param clientId The client ID.
+     *
+     * @throws IOException          on failure.
+     * @throws InterruptedException if interrupted.
+     */
+    private void handleForeman(
+            final HttpExchange exchange,
+            final int clientId) throws IOException, InterruptedException {
+        final String chat = this.chats.get(clientId);
+        final String query = exchange.getRequestURI().getQuery();
+        final Matcher sinceMatcher =
+                Pattern.compile("sinceId=(\\d+)").matcher(query != null ? query : "");
+        final int sinceId =
+                sinceMatcher.find()
+                        ? Integer.parseInt(sinceMatcher.group(1))
+                        : 0;
+
+        final Durations durations = this.fetchDurations.get(chat);
+        if (durations != null) {
+            Thread.sleep(durations.next());
+        }
+
+        final long now = elapsed();
+        final List<Notifications.Notification> available = new ArrayList<>();
+        final Deque<Long> chatPending =
+                this.pending.computeIfAbsent(chat, key -> new ArrayDeque<>());
+        synchronized (chatPending) {
+            for (final Timed timed : this.timelines.getOrDefault(chat, List.of())) {
+                if (timed.notification.id > sinceId && timed.availableAt <= now) {
+                    available.add(timed.notification);
+                    if (!timed.served) {
+                        timed.served = true;
+                        chatPending.add(timed.availableAt);
+                        this.served.incrementAndGet();
+                    }
+                }
+            }
+        }
+
+        respond(
+                exchange,
+                this.objectMapper.writeValueAsBytes(available));
+    }
+
+    /**
+     * Answers a Slack API request. A channel message or an edit counts as a
+     * delivery; thread replies don't.
+     *
+     * @param exchange The exchange.
+     * @param method   The Slack method.
+     *
+     * @throws IOException          on failure.
+     * @throws InterruptedException if interrupted.
+     */
+    private void handleSlack(
+            final HttpExchange exchange,
+            final String method) throws IOException, InterruptedException {
+        final String body =
+                new String(
+                        exchange.getRequestBody().readAllBytes(),
+                        StandardCharsets.UTF_8);
+        final Matcher channelMatcher = CHANNEL.matcher(body);
+        final String chat =
+                channelMatcher.find()
+                        ? URLDecoder.decode(channelMatcher.group(1), StandardCharsets.UTF_8)
+                        : null;
+
+        final Durations durations = this.slackDurations.get(chat);
+        if (durations != null) {
+            Thread.sleep(durations.next());
+        }
+
+        final boolean delivery =
+                ("chat.postMessage".equals(method) && !THREAD_TS.matcher(body).find()) ||
+                        "chat.update".equals(method);
+        if (delivery && chat != null) {
+            final Deque<Long> chatPending = this.pending.get(chat);
+            if (chatPending != null) {
+                synchronized (chatPending) {
+                    final Long availableAt = chatPending.poll();
+                    if (availableAt != null) {
+                        this.latencies.add(elapsed() - availableAt);
+                        this.delivered.incrementAndGet();
+                    }
+                }
+            }
+        }
+
+        final Map<String, Object> response = new HashMap<>();
+        response.put("ok", true);
+        response.put("channel", chat);
+        response.put("ts", String.format("%d.%06d", System.currentTimeMillis() / 1000, System.nanoTime() % 1_000_000));
+        // The async client looks up the team for its rate limiting
+        response.put("team_id", "T0REPLAY");
+        response.put("user_id", "U0REPLAY");
+        respond(
+                exchange,
+                this.objectMapper.writeValueAsBytes(response));
+    }
+
+    /**
+     * Writes a JSON response.
+     *
+     * @param exchange The exchange.
+     * @param body     The body.
+     *
+     * @throws IOException on failure.
+     */
+    private static void respond(
+            final HttpExchange exchange,
+            final byte[] body) throws IOException {
+        exchange.getResponseHeaders().add("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(200, body.length);
+        try (final OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    /** The recorded durations for a chat, replayed in a loop. */
+    private static class Durations {
+
+        /** The durations. */
+        private final List<Long> millis = new ArrayList<>();
+
+        /** The next duration. */
+        private int next;
+
+        /**
+         * Adds a duration.
+         *
+         * @param millis The duration.
+         */
+        void add(final long millis) {
+            this.millis.add(millis);
+        }
+
+        /**
+         * Returns the next duration.
+         *
+         * @return The next duration.
+         */
+        synchronized long next() {
+            final long millis = this.millis.get(this.next);
+            this.next = (this.next + 1) % this.millis.size();
+            return millis;
+        }
+    }
+
+    /** A notification and when it becomes available. */
+    private static class Timed {
+
+        /** When the notification becomes available, in milliseconds. */
+        private final long availableAt;
+
+        /** The notification. */
+        private final Notifications.Notification notification;
+
+        /** Whether or not the notification was served. */
+        private boolean served;
+
+        /**
+         * Constructor.
+         *
+         * @param availableAt When the notification becomes available.
+         * @param notification The notification.
+         */
+        Timed(
+                final long availableAt,
+                final Notifications.Notification notification) {
+            this.availableAt = availableAt;
+            this.notification = notification;
+        }
+    }
+}
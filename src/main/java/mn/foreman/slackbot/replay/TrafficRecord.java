@@ -0,0 +1,56 @@
+package mn.foreman.slackbot.replay;
+
+import mn.foreman.api.endpoints.notifications.Notifications;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * A {@link TrafficRecord} is a single recorded call to Foreman or Slack. Chat
+ * IDs, triggers and miners are anonymized before they're recorded.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class TrafficRecord {
+
+    /** A Foreman notifications fetch. */
+    public static final String FETCH = "fetch";
+
+    /** A Slack API call. */
+    public static final String SLACK = "slack";
+
+    /** When the call started, in epoch milliseconds. */
+    private long at;
+
+    /** The anonymized chat ID. */
+    private String chat;
+
+    /** The Slack error, if there was one. */
+    private String error;
+
+    /** The Slack method that was called. */
+    private String method;
+
+    /** How long the call took, in milliseconds. */
+    private long millis;
+
+    /** The anonymized notifications that were fetched. */
+    private List<Notifications.Notification> notifications;
+
+    /** Whether or not the call succeeded. */
+    private boolean ok;
+
+    /** The cursor the notifications were fetched from. */
+    private Integer sinceId;
+
+    /** The record type, {@link #FETCH} or {@link #SLACK}. */
+    private String type;
+}
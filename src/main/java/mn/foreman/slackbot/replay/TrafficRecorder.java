@@ -0,0 +1,328 @@
+package mn.foreman.slackbot.replay;
+
+import mn.foreman.api.endpoints.notifications.Notifications;
+import mn.foreman.slackbot.db.session.State;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * An opt-in recorder that appends the Foreman notification responses and the
+ * Slack call timings to a local newline-delimited JSON file, so real traffic
+ * can later be replayed by the {@link ReplayRunner}.
+ *
+ * <p>Chat IDs, trigger subjects and miner names are replaced with salted
+ * hashes, and IP addresses are masked in diagnoses. Records are handed to a
+ * single writer thread through a bounded queue, and are dropped rather than
+ * slowing down the poller if the writer falls behind.</p>
+ */
+@Component
+public class TrafficRecorder {
+
+    /** Matches IPv4 addresses. */
+    private static final Pattern IP_ADDRESS =
+            Pattern.compile("\\b\\d{1,3}(\\.\\d{1,3}){3}\\b");
+
+    /** The logger for this class. */
+    private static final Logger LOG =
+            LoggerFactory.getLogger(TrafficRecorder.class);
+
+    /** The number of records that were dropped. */
+    private final AtomicLong dropped = new AtomicLong();
+
+    /** Whether or not recording is enabled. */
+    private final boolean enabled;
+
+    /** The file that's appended to. */
+    private final Path path;
+
+    /** The records waiting to be written. */
+    private final BlockingQueue<TrafficRecord> queue;
+
+    /** The salt for the anonymized values. */
+    private final String salt;
+
+    /** Writes the records. */
+    private final ObjectWriter writer;
+
+    /** Whether or not the writer should keep running. */
+    private volatile boolean running;
+
+    /** The writer thread. */
+    private Thread writerThread;
+
+    /**
+     * Constructor.
+     *
+     * @param enabled      Whether or not recording is enabled.
+     * @param path         The file that's appended to.
+     * @param salt         The salt for the anonymized values. A random salt is
+     *                     used if blank, so values can't be correlated
+     *                     across restarts.
+     * @param queueSize    The max number of records waiting to be written.
+     * @param objectMapper The mapper.
+     */
+    public TrafficRecorder(
+            @Value("${bot.recording.enabled}") final boolean enabled,
+            @Value("${bot.recording.path}") final String path,
+            @Value("${bot.recording.salt}") final String salt,
+            @Value("${bot.recording.queueSize}") final int queueSize,
+            final ObjectMapper objectMapper) {
+        this.enabled = enabled;
+        this.path = Paths.get(path);
+        this.salt =
+                !salt.isBlank()
+                        ? salt
+                        : randomSalt();
+        this.queue = new ArrayBlockingQueue<>(queueSize);
+        this.writer = objectMapper.writer();
+    }
+
+    /**
+     * Creates a random salt.
+     *
+     * @return The salt.
+     */
+    private static String randomSalt() {
+        final byte[] salt = new byte[16];
+        new SecureRandom().nextBytes(salt);
+        return Base64.getEncoder().encodeToString(salt);
+    }
+
+    /**
+     * Returns whether or not recording is enabled.
+     *
+     * @return Whether or not recording is enabled.
+     */
+    public boolean isEnabled() {
+        return this.enabled;
+    }
+
+    /**
+     * Records a Foreman notifications fetch.
+     *
+     * @param state         The {@link State} for the session.
+     * @param sinceId       The cursor the notifications were fetched from.
+     * @param at            When the fetch started, in epoch milliseconds.
+     * @param millis        How long the fetch took.
+     * @param notifications The notifications, or {@code null} if the fetch
+     *                      failed.
+     */
+    public void recordFetch(
+            final State state,
+            final int sinceId,
+            final long at,
+            final long millis,
+            final List<Notifications.Notification> notifications) {
+        if (!this.enabled) {
+            return;
+        }
+        offer(
+                TrafficRecord
+                        .builder()
+                        .type(TrafficRecord.FETCH)
+                        .at(at)
+                        .chat(anonymize("c", state.getChatId()))
+                        .sinceId(sinceId)
+                        .millis(millis)
+                        .ok(notifications != null)
+                        .notifications(
+                                notifications != null
+                                        ? notifications
+                                        .stream()
+                                        .map(this::anonymize)
+                                        .collect(Collectors.toList())
+                                        : null)
+                        .build());
+    }
+
+    /**
+     * Records a Slack API call.
+     *
+     * @param state  The {@link State} for the session.
+     * @param method The Slack method.
+     * @param at     When the call started, in epoch milliseconds.
+     * @param millis How long the call took.
+     * @param ok     Whether or not the call succeeded.
+     * @param error  The error, if there was one.
+     */
+    public void recordSlack(
+            final State state,
+            final String method,
+            final long at,
+            final long millis,
+            final boolean ok,
+            final String error) {
+        if (!this.enabled) {
+            return;
+        }
+        offer(
+                TrafficRecord
+                        .builder()
+                        .type(TrafficRecord.SLACK)
+                        .at(at)
+                        .chat(anonymize("c", state.getChatId()))
+                        .method(method)
+                        .millis(millis)
+                        .ok(ok)
+                        .error(error)
+                        .build());
+    }
+
+    /** Starts the writer, if recording is enabled. */
+    @PostConstruct
+    public void start() {
+        if (!this.enabled) {
+            return;
+        }
+        this.running = true;
+        this.writerThread = new Thread(this::write, "traffic-recorder");
+        this.writerThread.setDaemon(true);
+        this.writerThread.start();
+        LOG.info("Recording traffic to {}", this.path.toAbsolutePath());
+    }
+
+    /**
+     * Stops the writer once the queued records are written.
+     *
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        if (this.writerThread != null) {
+            this.running = false;
+            this.writerThread.join(TimeUnit.SECONDS.toMillis(5));
+        }
+    }
+
+    /**
+     * Anonymizes the provided value.
+     *
+     * @param prefix The prefix that identifies the kind of value.
+     * @param value  The value.
+     *
+     * @return The anonymized value.
+     */
+    private String anonymize(
+            final String prefix,
+            final String value) {
+        if (value == null) {
+            return null;
+        }
+        try {
+            final byte[] hash =
+                    MessageDigest
+                            .getInstance("SHA-256")
+                            .digest((this.salt + value).getBytes(StandardCharsets.UTF_8));
+            final StringBuilder builder = new StringBuilder(prefix).append('-');
+            for (int i = 0; i < 6; i++) {
+                builder.append(String.format("%02x", hash[i]));
+            }
+            return builder.toString();
+        } catch (final NoSuchAlgorithmException nsae) {
+            throw new IllegalStateException(nsae);
+        }
+    }
+
+    /**
+     * Anonymizes the provided notification.
+     *
+     * @param notification The notification.
+     *
+     * @return An anonymized copy.
+     */
+    private Notifications.Notification anonymize(
+            final Notifications.Notification notification) {
+        final Notifications.Notification copy =
+                new Notifications.Notification();
+        copy.id = notification.id;
+        copy.timestamp = notification.timestamp;
+        copy.subject = anonymize("t", notification.subject);
+        copy.failingMiners =
+                notification.failingMiners
+                        .stream()
+                        .map(miner -> {
+                            final Notifications.Notification.FailingMiner minerCopy =
+                                    new Notifications.Notification.FailingMiner();
+                            minerCopy.miner = anonymize("m", miner.miner);
+                            minerCopy.minerId = miner.minerId;
+                            minerCopy.diagnosis =
+                                    miner.diagnosis != null
+                                            ? miner.diagnosis
+                                            .stream()
+                                            .map(line -> IP_ADDRESS.matcher(line).replaceAll("x.x.x.x"))
+                                            .collect(Collectors.toList())
+                                            : null;
+                            return minerCopy;
+                        })
+                        .collect(Collectors.toList());
+        return copy;
+    }
+
+    /**
+     * Queues the provided record, dropping it if the writer is behind.
+     *
+     * @param record The record.
+     */
+    private void offer(final TrafficRecord record) {
+        if (!this.queue.offer(record)) {
+            this.dropped.incrementAndGet();
+        }
+    }
+
+    /** Writes the queued records until stopped. */
+    private void write() {
+        try (final BufferedWriter out =
+                     Files.newBufferedWriter(
+                             this.path,
+                             StandardCharsets.UTF_8,
+                             StandardOpenOption.CREATE,
+                             StandardOpenOption.APPEND)) {
+            while (this.running || !this.queue.isEmpty()) {
+                final TrafficRecord record =
+                        this.queue.poll(
+                                1,
+                                TimeUnit.SECONDS);
+                if (record != null) {
+                    out.write(this.writer.writeValueAsString(record));
+                    out.newLine();
+                }
+                if (this.queue.isEmpty()) {
+                    out.flush();
+                }
+            }
+        } catch (final IOException ioe) {
+            LOG.warn("Stopped recording traffic", ioe);
+        } catch (final InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+        if (this.dropped.get() > 0) {
+            LOG.warn("Dropped {} traffic records", this.dropped.get());
+        }
+    }
+}
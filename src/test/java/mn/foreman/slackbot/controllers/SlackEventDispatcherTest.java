@@ -0,0 +1,317 @@
+package mn.foreman.slackbot.controllers;
+
+import com.slack.api.Slack;
+import com.slack.api.app_backend.SlackSignature;
+import com.slack.api.bolt.App;
+import com.slack.api.bolt.AppConfig;
+import com.slack.api.bolt.request.Request;
+import com.slack.api.bolt.response.Response;
+import com.slack.api.webhook.WebhookResponse;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/** Tests the verification and deduplication of the {@link SlackEventDispatcher}. */
+class SlackEventDispatcherTest {
+
+    /** The body of the test request. */
+    private static final String BODY = "command=%2Fforeman&text=status";
+
+    /** The secret the requests are signed with. */
+    private static final String SIGNING_SECRET = "signing-secret";
+
+    /** The app that handles the requests. */
+    private App app;
+
+    /** The dispatcher being tested. */
+    private SlackEventDispatcher dispatcher;
+
+    /** Creates the dispatcher, with verification enabled. */
+    @BeforeEach
+    void setUp() {
+        this.app = mock(App.class);
+        when(this.app.config()).thenReturn(
+                AppConfig
+                        .builder()
+                        .signingSecret(SIGNING_SECRET)
+                        .requestVerificationEnabled(true)
+                        .build());
+        this.dispatcher =
+                new SlackEventDispatcher(
+                        this.app,
+                        1,
+                        1,
+                        Duration.ofMinutes(5));
+    }
+
+    /** Stops the dispatcher. */
+    @AfterEach
+    void tearDown() {
+        this.dispatcher.close();
+    }
+
+    /**
+     * Tests that a retry of a request that was already handled is answered
+     * with the original response, without being run again.
+     *
+     * @throws Exception on failure.
+     */
+    @Test
+    void answersARetryFromTheOriginalResponse() throws Exception {
+        final Request<?> request = toRequest();
+        final Response original = Response.json(200, "{\"text\":\"status\"}");
+        when(this.app.run(any())).thenReturn(original);
+
+        final String timestamp = toTimestamp();
+        final String signature = sign(timestamp);
+        assertThat(
+                this.dispatcher
+                        .dispatch(request, null, timestamp, signature)
+                        .get(5, TimeUnit.SECONDS))
+                .isSameAs(original);
+        assertThat(
+                this.dispatcher
+                        .dispatch(request, "1", timestamp, signature)
+                        .get(5, TimeUnit.SECONDS))
+                .isSameAs(original);
+
+        verify(this.app, times(1)).run(any());
+    }
+
+    /**
+     * Tests that a retry that arrives while the original is still running is
+     * acknowledged, without being run again.
+     *
+     * @throws Exception on failure.
+     */
+    @Test
+    void acknowledgesARetryWhileTheOriginalRuns() throws Exception {
+        final Request<?> request = toRequest();
+        final CountDownLatch release = new CountDownLatch(1);
+        when(this.app.run(any())).thenAnswer(invocation -> {
+            release.await(5, TimeUnit.SECONDS);
+            return Response.ok();
+        });
+
+        final String timestamp = toTimestamp();
+        final String signature = sign(timestamp);
+        final CompletableFuture<Response> running =
+                this.dispatcher.dispatch(request, null, timestamp, signature);
+        final Response retry =
+                this.dispatcher
+                        .dispatch(request, "1", timestamp, signature)
+                        .get(5, TimeUnit.SECONDS);
+
+        assertThat(retry.getStatusCode()).isEqualTo(200);
+        assertThat(running).isNotDone();
+        release.countDown();
+        running.get(5, TimeUnit.SECONDS);
+        verify(this.app, times(1)).run(any());
+    }
+
+    /**
+     * Tests that a request that can't be queued is rejected so that Slack
+     * backs off, and that its retry runs once there's room.
+     *
+     * @throws Exception on failure.
+     */
+    @Test
+    void rejectsARequestThatCantBeQueuedAndRunsItsRetry() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        when(this.app.run(any())).thenAnswer(invocation -> {
+            release.await(5, TimeUnit.SECONDS);
+            return Response.ok();
+        });
+
+        // One request holds the only thread and another fills the queue
+        final String timestamp = toTimestamp();
+        final CompletableFuture<Response> running =
+                dispatch(toRequest("running"), null, timestamp);
+        final CompletableFuture<Response> queued =
+                dispatch(toRequest("queued"), null, timestamp);
+
+        final Request<?> request = toRequest(BODY);
+        assertThat(
+                dispatch(request, null, timestamp)
+                        .get(5, TimeUnit.SECONDS)
+                        .getStatusCode())
+                .isEqualTo(503);
+
+        release.countDown();
+        running.get(5, TimeUnit.SECONDS);
+        queued.get(5, TimeUnit.SECONDS);
+        assertThat(
+                dispatch(request, "1", timestamp)
+                        .get(5, TimeUnit.SECONDS)
+                        .getStatusCode())
+                .isEqualTo(200);
+        verify(this.app, times(3)).run(any());
+    }
+
+    /**
+     * Tests that a request with an invalid signature is rejected and not
+     * remembered, so it can't suppress the genuine request.
+     *
+     * @throws Exception on failure.
+     */
+    @Test
+    void rejectsAForgedRequestWithoutRememberingIt() throws Exception {
+        final Request<?> request = toRequest();
+        when(this.app.run(any())).thenReturn(Response.ok());
+
+        final String timestamp = toTimestamp();
+        assertThat(
+                this.dispatcher
+                        .dispatch(request, null, timestamp, "v0=forged")
+                        .get(5, TimeUnit.SECONDS)
+                        .getStatusCode())
+                .isEqualTo(401);
+        assertThat(
+                this.dispatcher
+                        .dispatch(request, null, null, null)
+                        .get(5, TimeUnit.SECONDS)
+                        .getStatusCode())
+                .isEqualTo(401);
+        verify(this.app, never()).run(any());
+
+        this.dispatcher
+                .dispatch(request, "1", timestamp, sign(timestamp))
+                .get(5, TimeUnit.SECONDS);
+        verify(this.app, times(1)).run(any());
+    }
+
+    /**
+     * Tests that a late response is sent to the request's
+     * {@code response_url}.
+     *
+     * @throws Exception on failure.
+     */
+    @Test
+    void sendsALateResponseToTheResponseUrl() throws Exception {
+        final Request<?> request = toRequest();
+        when(request.getResponseUrl()).thenReturn("https://hooks.slack.com/commands/1");
+        final Slack slack = mock(Slack.class);
+        when(slack.send(any(String.class), any(String.class)))
+                .thenReturn(WebhookResponse.builder().code(200).build());
+        when(this.app.slack()).thenReturn(slack);
+
+        final CompletableFuture<Response> response = new CompletableFuture<>();
+        this.dispatcher.respondLater(request, response);
+        response.complete(Response.json(200, "{\"text\":\"late\"}"));
+
+        verify(slack, timeout(5000)).send(
+                "https://hooks.slack.com/commands/1",
+                "{\"text\":\"late\"}");
+    }
+
+    /**
+     * Tests that an empty late response isn't sent anywhere.
+     *
+     * @throws Exception on failure.
+     */
+    @Test
+    void dropsAnEmptyLateResponse() throws Exception {
+        final Request<?> request = toRequest();
+        when(request.getResponseUrl()).thenReturn("https://hooks.slack.com/commands/1");
+        final Slack slack = mock(Slack.class);
+        when(this.app.slack()).thenReturn(slack);
+
+        this.dispatcher.respondLater(
+                request,
+                CompletableFuture.completedFuture(Response.ok()));
+
+        verify(slack, never()).send(any(String.class), any(String.class));
+    }
+
+    /**
+     * Signs the test request body.
+     *
+     * @param timestamp The request timestamp.
+     *
+     * @return The {@code X-Slack-Signature} header.
+     */
+    private static String sign(final String timestamp) {
+        return sign(timestamp, BODY);
+    }
+
+    /**
+     * Signs the provided request body.
+     *
+     * @param timestamp The request timestamp.
+     * @param body      The request body.
+     *
+     * @return The {@code X-Slack-Signature} header.
+     */
+    private static String sign(
+            final String timestamp,
+            final String body) {
+        return new SlackSignature.Generator(SIGNING_SECRET)
+                .generate(timestamp, body);
+    }
+
+    /**
+     * Creates a request with the test body.
+     *
+     * @return The request.
+     */
+    private static Request<?> toRequest() {
+        return toRequest(BODY);
+    }
+
+    /**
+     * Creates a request with the provided body.
+     *
+     * @param body The request body.
+     *
+     * @return The request.
+     */
+    private static Request<?> toRequest(final String body) {
+        final Request<?> request = mock(Request.class);
+        when(request.getRequestBodyAsString()).thenReturn(body);
+        return request;
+    }
+
+    /**
+     * Dispatches the provided request, signed with its body.
+     *
+     * @param request   The request.
+     * @param retryNum  The {@code X-Slack-Retry-Num} header, if present.
+     * @param timestamp The request timestamp.
+     *
+     * @return The future response.
+     */
+    private CompletableFuture<Response> dispatch(
+            final Request<?> request,
+            final String retryNum,
+            final String timestamp) {
+        return this.dispatcher.dispatch(
+                request,
+                retryNum,
+                timestamp,
+                sign(timestamp, request.getRequestBodyAsString()));
+    }
+
+    /**
+     * Creates a {@code X-Slack-Request-Timestamp} header for now.
+     *
+     * @return The header.
+     */
+    private static String toTimestamp() {
+        return Long.toString(Instant.now().getEpochSecond());
+    }
+}
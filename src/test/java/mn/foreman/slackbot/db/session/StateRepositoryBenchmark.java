@@ -0,0 +1,221 @@
+package mn.foreman.slackbot.db.session;
+
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.MethodSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.data.mongo.DataMongoTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+
+import static com.mongodb.client.model.Filters.eq;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Measures the {@link StateRepository} queries the poller depends on against
+ * an embedded Mongo, and checks that each one is served by an index from
+ * {@link StateIndexes} rather than a collection scan.
+ *
+ * <p>Downloads a Mongo binary on first use and takes minutes at the larger
+ * sizes, so it only runs when asked for:</p>
+ *
+ * <pre>
+ * mvn test -Dbenchmark=true -Dbenchmark.sizes=10000,100000,1000000
+ * </pre>
+ */
+@DataMongoTest(properties = "spring.mongodb.embedded.version=5.0.5")
+@Import(StateIndexes.class)
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+class StateRepositoryBenchmark {
+
+    /** The logger for this class. */
+    private static final Logger LOG =
+            LoggerFactory.getLogger(StateRepositoryBenchmark.class);
+
+    /** The number of registrations per client. */
+    private static final int CHATS_PER_CLIENT = 5;
+
+    /** The number of documents written per bulk operation. */
+    private static final int BATCH_SIZE = 10_000;
+
+    /** The number of point operations timed at each size. */
+    private static final int OPERATIONS = 10_000;
+
+    /** The template. */
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    /** The repository being measured. */
+    @Autowired
+    private StateRepository stateRepository;
+
+    /**
+     * Returns the collection sizes to measure.
+     *
+     * @return The collection sizes.
+     */
+    static IntStream sizes() {
+        return Arrays
+                .stream(System
+                        .getProperty("benchmark.sizes", "10000,100000,1000000")
+                        .split(","))
+                .map(String::trim)
+                .mapToInt(Integer::parseInt);
+    }
+
+    /**
+     * Returns the chat ID for the provided registration number.
+     *
+     * @param i The registration number.
+     *
+     * @return The chat ID.
+     */
+    private static String toChatId(final int i) {
+        return "C" + i;
+    }
+
+    /** Drops the registrations between sizes. */
+    @AfterEach
+    void clear() {
+        this.mongoTemplate.remove(new Query(), State.class);
+    }
+
+    /**
+     * Measures the poller's queries at the provided collection size.
+     *
+     * @param size The number of registrations.
+     */
+    @ParameterizedTest
+    @MethodSource("sizes")
+    void benchmark(final int size) {
+        populate(size);
+        final Random random = new Random(size);
+
+        // The registry load: every registration, without credentials
+        time(size, "findRegistrations", 3, i ->
+                assertThat(this.stateRepository.findRegistrations()).hasSize(size));
+
+        // Read for each session as it's processed
+        time(size, "findCredentials", OPERATIONS, i ->
+                this.stateRepository.findCredentials(toChatId(random.nextInt(size))));
+
+        // Test commands and filtered exports
+        time(size, "findByClientId", OPERATIONS, i ->
+                this.stateRepository.findByClientId(random.nextInt(size / CHATS_PER_CLIENT)));
+
+        // Written after each delivered page
+        time(size, "checkpoint", OPERATIONS, i ->
+                this.stateRepository.checkpoint(toChatId(random.nextInt(size)), size + i));
+
+        // Imports and bulk filter changes
+        time(size, "bulkUpdate", 1, ignored -> {
+            final BulkOperations bulkOperations =
+                    this.mongoTemplate.bulkOps(
+                            BulkOperations.BulkMode.UNORDERED,
+                            State.class);
+            for (int i = 0; i < Math.min(size, OPERATIONS); i++) {
+                bulkOperations.updateOne(
+                        Query.query(
+                                Criteria
+                                        .where("_id")
+                                        .is(toChatId(random.nextInt(size)))),
+                        Update.update("clientId", random.nextInt(size / CHATS_PER_CLIENT)));
+            }
+            bulkOperations.execute();
+        });
+
+        assertIndexed(eq("_id", toChatId(0)));
+        assertIndexed(eq("clientId", 0));
+    }
+
+    /**
+     * Checks that the provided filter isn't answered with a collection scan.
+     *
+     * @param filter The filter.
+     */
+    private void assertIndexed(final Bson filter) {
+        final Document plan =
+                this.mongoTemplate
+                        .getCollection(this.mongoTemplate.getCollectionName(State.class))
+                        .find(filter)
+                        .explain();
+        assertThat(plan.toJson())
+                .as("Plan for %s", filter)
+                .doesNotContain("COLLSCAN");
+    }
+
+    /**
+     * Inserts the provided number of registrations.
+     *
+     * @param size The number of registrations.
+     */
+    private void populate(final int size) {
+        final long start = System.nanoTime();
+        for (int offset = 0; offset < size; offset += BATCH_SIZE) {
+            final List<State> batch = new ArrayList<>(BATCH_SIZE);
+            for (int i = offset; i < Math.min(offset + BATCH_SIZE, size); i++) {
+                batch.add(
+                        State
+                                .builder()
+                                .chatId(toChatId(i))
+                                .clientId(i / CHATS_PER_CLIENT)
+                                .apiKey("api-key-" + i)
+                                .botToken("xoxb-" + i)
+                                .teamId("T" + (i / CHATS_PER_CLIENT))
+                                .dateRegistered(Instant.now())
+                                .lastNotificationId(i)
+                                .build());
+            }
+            this.mongoTemplate
+                    .bulkOps(BulkOperations.BulkMode.UNORDERED, State.class)
+                    .insert(batch)
+                    .execute();
+        }
+        LOG.info("[{}] inserted in {} ms",
+                size,
+                (System.nanoTime() - start) / 1_000_000);
+    }
+
+    /**
+     * Runs and reports the provided operation.
+     *
+     * @param size       The number of registrations.
+     * @param name       The operation name.
+     * @param iterations The number of times to run it.
+     * @param operation  The operation.
+     */
+    private void time(
+            final int size,
+            final String name,
+            final int iterations,
+            final IntConsumer operation) {
+        final long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            operation.accept(i);
+        }
+        final long elapsed = System.nanoTime() - start;
+        LOG.info("[{}] {}: {} ops in {} ms, {} ops/s",
+                size,
+                name,
+                iterations,
+                elapsed / 1_000_000,
+                iterations * 1_000_000_000L / Math.max(elapsed, 1));
+    }
+}
@@ -0,0 +1,129 @@
+package mn.foreman.slackbot.handlers;
+
+import mn.foreman.slackbot.db.session.NotificationFilter;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/** Tests how the {@link FilterCommandHandler} parses filter rules. */
+class FilterCommandHandlerTest {
+
+    /** Tests that every rule is parsed, including quoted values. */
+    @Test
+    void parsesEveryRule() {
+        final NotificationFilter filter =
+                FilterCommandHandler.merge(
+                        null,
+                        "miner:rig-* diagnosis:\"hash rate\" only:failures");
+
+        assertThat(filter.getMinerPattern()).isEqualTo("rig-*");
+        assertThat(filter.getDiagnosis()).isEqualTo("hash rate");
+        assertThat(filter.getType()).isEqualTo(NotificationFilter.Type.FAILURES);
+    }
+
+    /** Tests that rule names and types are parsed regardless of case. */
+    @Test
+    void parsesRulesRegardlessOfCase() {
+        final NotificationFilter filter =
+                FilterCommandHandler.merge(
+                        null,
+                        "MINER:Rig-1 Only:Recoveries");
+
+        assertThat(filter.getMinerPattern()).isEqualTo("Rig-1");
+        assertThat(filter.getType()).isEqualTo(NotificationFilter.Type.RECOVERIES);
+    }
+
+    /**
+     * Tests that new rules are merged into the existing ones without
+     * changing them.
+     */
+    @Test
+    void mergesIntoTheExistingRules() {
+        final NotificationFilter existing =
+                NotificationFilter
+                        .builder()
+                        .minerPattern("rig-*")
+                        .type(NotificationFilter.Type.FAILURES)
+                        .build();
+
+        final NotificationFilter filter =
+                FilterCommandHandler.merge(
+                        existing,
+                        "diagnosis:temp");
+
+        assertThat(filter.getMinerPattern()).isEqualTo("rig-*");
+        assertThat(filter.getDiagnosis()).isEqualTo("temp");
+        assertThat(filter.getType()).isEqualTo(NotificationFilter.Type.FAILURES);
+        assertThat(existing.getDiagnosis()).isNull();
+    }
+
+    /** Tests that an empty quoted value removes that rule. */
+    @Test
+    void removesARuleWithAnEmptyValue() {
+        final NotificationFilter existing =
+                NotificationFilter
+                        .builder()
+                        .minerPattern("rig-*")
+                        .diagnosis("temp")
+                        .build();
+
+        final NotificationFilter filter =
+                FilterCommandHandler.merge(
+                        existing,
+                        "miner:\"\"");
+
+        assertThat(filter.getMinerPattern()).isNull();
+        assertThat(filter.getDiagnosis()).isEqualTo("temp");
+    }
+
+    /**
+     * Tests that rules that match everything leave no filter at all, so the
+     * session isn't filtered.
+     */
+    @Test
+    void leavesNoFilterWhenEverythingMatches() {
+        final NotificationFilter existing =
+                NotificationFilter
+                        .builder()
+                        .minerPattern("rig-*")
+                        .build();
+
+        assertThat(FilterCommandHandler.merge(existing, "miner:\"\" only:all"))
+                .isNull();
+    }
+
+    /** Tests that an unknown rule is rejected. */
+    @Test
+    void rejectsAnUnknownRule() {
+        assertThatThrownBy(() -> FilterCommandHandler.merge(null, "pool:ethermine"))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("`pool`");
+    }
+
+    /** Tests that an unknown type is rejected. */
+    @Test
+    void rejectsAnUnknownType() {
+        assertThatThrownBy(() -> FilterCommandHandler.merge(null, "only:warnings"))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("failures, recoveries or all");
+    }
+
+    /**
+     * Tests that text that isn't a rule is rejected, whether it comes before,
+     * between or after the rules.
+     */
+    @Test
+    void rejectsTextThatIsntARule() {
+        assertThatThrownBy(() -> FilterCommandHandler.merge(null, "rigs miner:rig-*"))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("`rigs`");
+        assertThatThrownBy(() -> FilterCommandHandler.merge(null, "miner:rig-* and only:failures"))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("`and`");
+        assertThatThrownBy(() -> FilterCommandHandler.merge(null, "diagnosis:\"hash rate"))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("rate");
+    }
+}
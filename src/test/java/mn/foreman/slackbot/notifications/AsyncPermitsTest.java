@@ -0,0 +1,88 @@
+package mn.foreman.slackbot.notifications;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/** Tests the {@link AsyncNotificationsProcessorImpl.AsyncPermits}. */
+class AsyncPermitsTest {
+
+    /**
+     * Tests that permits are handed out right away until they run out, and
+     * that the callers after that wait in line.
+     */
+    @Test
+    void queuesCallersOnceThePermitsRunOut() {
+        final AsyncNotificationsProcessorImpl.AsyncPermits permits =
+                new AsyncNotificationsProcessorImpl.AsyncPermits(2);
+
+        assertThat(permits.acquire()).isDone();
+        assertThat(permits.acquire()).isDone();
+        final CompletableFuture<Void> first = permits.acquire();
+        final CompletableFuture<Void> second = permits.acquire();
+        assertThat(first).isNotDone();
+        assertThat(second).isNotDone();
+
+        permits.release();
+        assertThat(first).isDone();
+        assertThat(second).isNotDone();
+
+        permits.release();
+        assertThat(second).isDone();
+    }
+
+    /**
+     * Tests that a permit that's released with no one waiting can be
+     * acquired again.
+     */
+    @Test
+    void returnsAReleasedPermit() {
+        final AsyncNotificationsProcessorImpl.AsyncPermits permits =
+                new AsyncNotificationsProcessorImpl.AsyncPermits(1);
+
+        assertThat(permits.acquire()).isDone();
+        permits.release();
+        assertThat(permits.acquire()).isDone();
+        assertThat(permits.acquire()).isNotDone();
+    }
+
+    /** Tests that permits that are added go to the callers waiting. */
+    @Test
+    void grantsAddedPermitsToTheCallersWaiting() {
+        final AsyncNotificationsProcessorImpl.AsyncPermits permits =
+                new AsyncNotificationsProcessorImpl.AsyncPermits(1);
+
+        assertThat(permits.acquire()).isDone();
+        final CompletableFuture<Void> first = permits.acquire();
+        final CompletableFuture<Void> second = permits.acquire();
+        final CompletableFuture<Void> third = permits.acquire();
+
+        permits.resize(3);
+        assertThat(first).isDone();
+        assertThat(second).isDone();
+        assertThat(third).isNotDone();
+    }
+
+    /**
+     * Tests that permits that are removed while held are taken back as
+     * they're released, rather than handed to the callers waiting.
+     */
+    @Test
+    void takesBackRemovedPermitsAsTheyreReleased() {
+        final AsyncNotificationsProcessorImpl.AsyncPermits permits =
+                new AsyncNotificationsProcessorImpl.AsyncPermits(2);
+
+        assertThat(permits.acquire()).isDone();
+        assertThat(permits.acquire()).isDone();
+        final CompletableFuture<Void> waiting = permits.acquire();
+
+        permits.resize(1);
+        permits.release();
+        assertThat(waiting).isNotDone();
+
+        permits.release();
+        assertThat(waiting).isDone();
+    }
+}
@@ -0,0 +1,240 @@
+package mn.foreman.slackbot.notifications;
+
+import mn.foreman.slackbot.config.RuntimeSettings;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests the ordering guarantees of the {@link DeliveryScheduler}. Deliveries
+ * are submitted before the scheduler is started and only one is allowed in
+ * flight, so the order they're started in is the order it chose.
+ */
+class DeliverySchedulerTest {
+
+    /** The chats the deliveries were started for, in order. */
+    private final List<String> started =
+            Collections.synchronizedList(new ArrayList<>());
+
+    /** The scheduler being tested. */
+    private DeliveryScheduler scheduler;
+
+    /** Creates the scheduler, with one delivery in flight at a time. */
+    @BeforeEach
+    void setUp() {
+        final RuntimeSettings runtimeSettings = mock(RuntimeSettings.class);
+        when(runtimeSettings.getDeliveryMaxInFlight()).thenReturn(1);
+        when(runtimeSettings.getDeliveryRatePerSecond()).thenReturn(1_000_000);
+        this.scheduler =
+                new DeliveryScheduler(
+                        mock(SlackMessenger.class),
+                        runtimeSettings,
+                        new SimpleMeterRegistry(),
+                        Duration.ofMillis(200));
+    }
+
+    /** Stops the scheduler. */
+    @AfterEach
+    void tearDown() {
+        this.scheduler.stop();
+    }
+
+    /**
+     * Tests that two sessions with equal weights take turns, even though one
+     * submitted its whole backlog first.
+     *
+     * @throws Exception on failure.
+     */
+    @Test
+    void sharesDeliveriesFairlyAcrossSessions() throws Exception {
+        final List<CompletableFuture<String>> deliveries = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            deliveries.add(submit("A", DeliveryScheduler.Priority.RECOVERY));
+        }
+        for (int i = 0; i < 5; i++) {
+            deliveries.add(submit("B", DeliveryScheduler.Priority.RECOVERY));
+        }
+
+        this.scheduler.start();
+        awaitAll(deliveries);
+
+        assertThat(this.started).hasSize(10);
+        int lead = 0;
+        for (final String chatId : this.started) {
+            lead += "A".equals(chatId) ? 1 : -1;
+            assertThat(Math.abs(lead))
+                    .as("Deliveries started %s", this.started)
+                    .isLessThanOrEqualTo(1);
+        }
+    }
+
+    /**
+     * Tests that a session with a larger weight gets a larger share.
+     *
+     * @throws Exception on failure.
+     */
+    @Test
+    void sharesDeliveriesByWeight() throws Exception {
+        final List<CompletableFuture<String>> deliveries = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            deliveries.add(submit("A", DeliveryScheduler.Priority.RECOVERY, 2));
+            deliveries.add(submit("B", DeliveryScheduler.Priority.RECOVERY, 1));
+        }
+
+        this.scheduler.start();
+        awaitAll(deliveries);
+
+        assertThat(this.started.subList(0, 6))
+                .filteredOn("A"::equals)
+                .hasSize(4);
+    }
+
+    /**
+     * Tests that a failure for one session is started ahead of the recoveries
+     * already queued for another.
+     *
+     * @throws Exception on failure.
+     */
+    @Test
+    void startsAFailureAheadOfQueuedRecoveries() throws Exception {
+        final List<CompletableFuture<String>> deliveries = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            deliveries.add(submit("A", DeliveryScheduler.Priority.RECOVERY));
+        }
+        deliveries.add(submit("B", DeliveryScheduler.Priority.FAILURE));
+
+        this.scheduler.start();
+        awaitAll(deliveries);
+
+        assertThat(this.started.get(0)).isEqualTo("B");
+    }
+
+    /**
+     * Tests that a session's own deliveries keep their order, so a failure
+     * never overtakes the recovery that was submitted before it.
+     *
+     * @throws Exception on failure.
+     */
+    @Test
+    void keepsASessionsDeliveriesInOrder() throws Exception {
+        final List<String> order = Collections.synchronizedList(new ArrayList<>());
+        final CompletableFuture<String> recovery =
+                this.scheduler.submit(
+                        "A",
+                        DeliveryScheduler.Priority.RECOVERY,
+                        DeliveryScheduler.DEFAULT_WEIGHT,
+                        () -> {
+                            order.add("recovery");
+                            return CompletableFuture.completedFuture("recovery");
+                        });
+        final CompletableFuture<String> failure =
+                this.scheduler.submit(
+                        "A",
+                        DeliveryScheduler.Priority.FAILURE,
+                        DeliveryScheduler.DEFAULT_WEIGHT,
+                        () -> {
+                            order.add("failure");
+                            return CompletableFuture.completedFuture("failure");
+                        });
+
+        this.scheduler.start();
+        awaitAll(List.of(recovery, failure));
+
+        assertThat(order).containsExactly("recovery", "failure");
+    }
+
+    /**
+     * Tests that a delivery that never completes is failed once the timeout
+     * passes, and doesn't hold up the next one.
+     *
+     * @throws Exception on failure.
+     */
+    @Test
+    void failsADeliveryThatTimesOut() throws Exception {
+        final CompletableFuture<String> stuck =
+                this.scheduler.submit(
+                        "A",
+                        DeliveryScheduler.Priority.FAILURE,
+                        DeliveryScheduler.DEFAULT_WEIGHT,
+                        CompletableFuture::new);
+        final CompletableFuture<String> next =
+                submit("B", DeliveryScheduler.Priority.FAILURE);
+
+        this.scheduler.start();
+
+        assertThatThrownBy(() -> stuck.get(5, TimeUnit.SECONDS))
+                .isInstanceOf(ExecutionException.class)
+                .hasCauseInstanceOf(TimeoutException.class);
+        assertThat(next.get(5, TimeUnit.SECONDS)).isEqualTo("B");
+    }
+
+    /**
+     * Waits for the provided deliveries.
+     *
+     * @param deliveries The deliveries.
+     *
+     * @throws Exception on failure.
+     */
+    private static void awaitAll(final List<CompletableFuture<String>> deliveries) throws Exception {
+        CompletableFuture
+                .allOf(deliveries.toArray(new CompletableFuture[0]))
+                .get(5, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Submits a delivery with the default weight that records when it's
+     * started.
+     *
+     * @param chatId   The chat.
+     * @param priority The priority.
+     *
+     * @return The future delivery.
+     */
+    private CompletableFuture<String> submit(
+            final String chatId,
+            final DeliveryScheduler.Priority priority) {
+        return submit(
+                chatId,
+                priority,
+                DeliveryScheduler.DEFAULT_WEIGHT);
+    }
+
+    /**
+     * Submits a delivery that records when it's started.
+     *
+     * @param chatId   The chat.
+     * @param priority The priority.
+     * @param weight   The session's weight.
+     *
+     * @return The future delivery.
+     */
+    private CompletableFuture<String> submit(
+            final String chatId,
+            final DeliveryScheduler.Priority priority,
+            final double weight) {
+        return this.scheduler.submit(
+                chatId,
+                priority,
+                weight,
+                () -> {
+                    this.started.add(chatId);
+                    return CompletableFuture.completedFuture(chatId);
+                });
+    }
+}
@@ -0,0 +1,290 @@
+package mn.foreman.slackbot.notifications;
+
+import mn.foreman.api.endpoints.notifications.Notifications;
+import mn.foreman.slackbot.config.RuntimeSettings;
+import mn.foreman.slackbot.db.session.State;
+import mn.foreman.slackbot.replay.TrafficRecorder;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Checks the {@link ForemanNotificationsClient} against a stub Foreman that
+ * serves the notifications endpoint the way the Foreman java-api expects it
+ * to be served.
+ */
+class ForemanNotificationsClientTest {
+
+    /** The client ID the sessions are registered with. */
+    private static final int CLIENT_ID = 42;
+
+    /** Two notifications, oldest first, as Foreman returns them. */
+    private static final String NOTIFICATIONS =
+            "[" +
+                    "{\"id\":8,\"subject\":\"Hash rate\",\"timestamp\":\"2022-06-01T00:00:00Z\"," +
+                    "\"unknown\":true,\"failingMiners\":[{\"miner\":\"rig-1\",\"minerId\":1," +
+                    "\"diagnosis\":[\"Hash rate is 0 H/s\"]}]}," +
+                    "{\"id\":9,\"subject\":\"Hash rate\",\"timestamp\":\"2022-06-01T00:01:00Z\"," +
+                    "\"failingMiners\":[]}" +
+                    "]";
+
+    /** The Foreman read timeout. */
+    private static final Duration TIMEOUT = Duration.ofMillis(500);
+
+    /** Releases the stalled responses. */
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    /** The client being tested. */
+    private ForemanNotificationsClient client;
+
+    /** The last request the stub received. */
+    private final AtomicReference<HttpExchange> lastRequest = new AtomicReference<>();
+
+    /** The number of requests the stub received. */
+    private final AtomicInteger requests = new AtomicInteger();
+
+    /** The stub Foreman. */
+    private HttpServer server;
+
+    /**
+     * Starts the stub Foreman and the client.
+     *
+     * @throws IOException on failure.
+     */
+    @BeforeEach
+    void setUp() throws IOException {
+        this.server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        this.server.setExecutor(Executors.newCachedThreadPool());
+        this.server.start();
+
+        final RuntimeSettings runtimeSettings = mock(RuntimeSettings.class);
+        when(runtimeSettings.getForemanTimeout()).thenReturn(TIMEOUT);
+        this.client =
+                new ForemanNotificationsClient(
+                        "http://localhost:" + this.server.getAddress().getPort(),
+                        "/api/notifications/%d/slack",
+                        1,
+                        1,
+                        TIMEOUT,
+                        runtimeSettings,
+                        mock(TrafficRecorder.class),
+                        new ObjectMapper().findAndRegisterModules());
+    }
+
+    /** Stops the client and the stub Foreman. */
+    @AfterEach
+    void tearDown() {
+        this.release.countDown();
+        this.client.close();
+        this.server.stop(0);
+    }
+
+    /**
+     * Tests that the notifications are requested with the session's
+     * credentials and cursor, and parsed in order.
+     *
+     * @throws Exception on failure.
+     */
+    @Test
+    void requestsWithTheSessionsCredentialsAndCursor() throws Exception {
+        serve(200, NOTIFICATIONS);
+        final Instant since = Instant.parse("2022-05-31T00:00:00Z");
+
+        final List<Notifications.Notification> notifications =
+                fetch(7, since, 100);
+
+        final HttpExchange request = this.lastRequest.get();
+        assertThat(request.getRequestMethod()).isEqualTo("GET");
+        assertThat(request.getRequestURI().getPath())
+                .isEqualTo("/api/notifications/" + CLIENT_ID + "/slack");
+        assertThat(URLDecoder.decode(request.getRequestURI().getRawQuery(), StandardCharsets.UTF_8))
+                .isEqualTo("sinceId=7&start=" + since);
+        assertThat(request.getRequestHeaders().getFirst("Authorization"))
+                .isEqualTo("Token api-key");
+
+        assertThat(notifications)
+                .extracting(notification -> notification.id)
+                .containsExactly(8, 9);
+        final Notifications.Notification failure = notifications.get(0);
+        assertThat(failure.subject).isEqualTo("Hash rate");
+        assertThat(failure.timestamp).isEqualTo(Instant.parse("2022-06-01T00:00:00Z"));
+        assertThat(failure.failingMiners).hasSize(1);
+        assertThat(failure.failingMiners.get(0).miner).isEqualTo("rig-1");
+        assertThat(failure.failingMiners.get(0).diagnosis).containsExactly("Hash rate is 0 H/s");
+        assertThat(notifications.get(1).failingMiners).isEmpty();
+    }
+
+    /**
+     * Tests that consecutive windows are read from a single request, and
+     * that the stream ends once the notifications run out.
+     *
+     * @throws Exception on failure.
+     */
+    @Test
+    void readsConsecutiveWindowsFromOneRequest() throws Exception {
+        serve(200, NOTIFICATIONS);
+
+        final ForemanNotificationsClient.NotificationsStream stream =
+                this.client
+                        .open(toState(), 0, Instant.EPOCH)
+                        .get(5, TimeUnit.SECONDS);
+        assertThat(stream.next(1).get(5, TimeUnit.SECONDS))
+                .extracting(notification -> notification.id)
+                .containsExactly(8);
+        assertThat(stream.isExhausted()).isFalse();
+        assertThat(stream.next(1).get(5, TimeUnit.SECONDS))
+                .extracting(notification -> notification.id)
+                .containsExactly(9);
+        assertThat(stream.next(1).get(5, TimeUnit.SECONDS)).isEmpty();
+        assertThat(stream.isExhausted()).isTrue();
+        assertThat(stream.next(1).get(5, TimeUnit.SECONDS)).isEmpty();
+
+        assertThat(this.requests).hasValue(1);
+    }
+
+    /** Tests that a stream that was closed can't be read any further. */
+    @Test
+    void failsToReadAClosedStream() throws Exception {
+        serve(200, NOTIFICATIONS);
+
+        final ForemanNotificationsClient.NotificationsStream stream =
+                this.client
+                        .open(toState(), 0, Instant.EPOCH)
+                        .get(5, TimeUnit.SECONDS);
+        stream.close();
+
+        assertThatThrownBy(() -> stream.next(1).get(5, TimeUnit.SECONDS))
+                .isInstanceOf(ExecutionException.class)
+                .hasCauseInstanceOf(IllegalStateException.class);
+        assertThat(stream.isExhausted()).isFalse();
+    }
+
+    /** Tests that an error response fails the fetch. */
+    @Test
+    void failsOnAnErrorResponse() {
+        serve(401, "{\"detail\":\"Invalid token.\"}");
+
+        assertThatThrownBy(() -> fetch(0, Instant.EPOCH, 100))
+                .isInstanceOf(ExecutionException.class)
+                .hasCauseInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("401");
+    }
+
+    /**
+     * Tests that a body that stalls after the headers fails the fetch once
+     * the read deadline passes, and frees the only parse thread for the next
+     * fetch.
+     *
+     * @throws Exception on failure.
+     */
+    @Test
+    void closesABodyThatStalls() throws Exception {
+        this.server.createContext("/", exchange -> {
+            this.lastRequest.set(exchange);
+            exchange.sendResponseHeaders(200, 0);
+            final OutputStream body = exchange.getResponseBody();
+            body.write("[{\"id\":1,\"subject\":\"Stalled\",\"failingMiners\":[]},".getBytes(StandardCharsets.UTF_8));
+            body.flush();
+            try {
+                this.release.await();
+            } catch (final InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            }
+            exchange.close();
+        });
+
+        final long start = System.nanoTime();
+        assertThatThrownBy(() -> fetch(0, Instant.EPOCH, 100))
+                .isInstanceOf(ExecutionException.class)
+                .hasCauseInstanceOf(TimeoutException.class);
+        assertThat(Duration.ofNanos(System.nanoTime() - start))
+                .isLessThan(TIMEOUT.multipliedBy(4));
+
+        this.server.removeContext("/");
+        serve(200, NOTIFICATIONS);
+        assertThat(fetch(0, Instant.EPOCH, 100)).hasSize(2);
+    }
+
+    /**
+     * Reads the first window of notifications for the test session.
+     *
+     * @param sinceId   The last notification that was seen.
+     * @param startDate The earliest notification time to consider.
+     * @param limit     The max number of notifications to read.
+     *
+     * @return The notifications.
+     *
+     * @throws Exception on failure.
+     */
+    private List<Notifications.Notification> fetch(
+            final int sinceId,
+            final Instant startDate,
+            final int limit) throws Exception {
+        return this.client
+                .open(toState(), sinceId, startDate)
+                .thenCompose(stream ->
+                        stream
+                                .next(limit)
+                                .whenComplete((notifications, throwable) -> stream.close()))
+                .get(5, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Creates a session with credentials.
+     *
+     * @return The {@link State}.
+     */
+    private static State toState() {
+        return State
+                .builder()
+                .chatId("C1")
+                .clientId(CLIENT_ID)
+                .apiKey("api-key")
+                .build();
+    }
+
+    /**
+     * Answers every request with the provided response.
+     *
+     * @param status The status code.
+     * @param body   The body.
+     */
+    private void serve(
+            final int status,
+            final String body) {
+        this.server.createContext("/", exchange -> {
+            this.lastRequest.set(exchange);
+            this.requests.incrementAndGet();
+            final byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(status, bytes.length);
+            try (final OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
+            }
+        });
+    }
+}
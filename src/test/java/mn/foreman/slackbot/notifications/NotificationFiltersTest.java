@@ -0,0 +1,289 @@
+package mn.foreman.slackbot.notifications;
+
+import mn.foreman.api.endpoints.notifications.Notifications;
+import mn.foreman.slackbot.db.session.NotificationFilter;
+import mn.foreman.slackbot.db.session.State;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Predicate;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/** Tests the predicates compiled by {@link NotificationFilters}. */
+class NotificationFiltersTest {
+
+    /**
+     * Tests that {@code *} matches any run of characters, including none.
+     */
+    @Test
+    void matchesAnythingWithAStar() {
+        final Predicate<Notifications.Notification> predicate =
+                NotificationFilters.compile(toFilter("rig-*", null, null));
+
+        assertThat(predicate.test(toFailure("rig-", "Offline"))).isTrue();
+        assertThat(predicate.test(toFailure("rig-12", "Offline"))).isTrue();
+        assertThat(predicate.test(toFailure("big-rig-1", "Offline"))).isFalse();
+    }
+
+    /** Tests that {@code ?} matches exactly one character. */
+    @Test
+    void matchesOneCharacterWithAQuestionMark() {
+        final Predicate<Notifications.Notification> predicate =
+                NotificationFilters.compile(toFilter("rig-?", null, null));
+
+        assertThat(predicate.test(toFailure("rig-1", "Offline"))).isTrue();
+        assertThat(predicate.test(toFailure("rig-", "Offline"))).isFalse();
+        assertThat(predicate.test(toFailure("rig-12", "Offline"))).isFalse();
+    }
+
+    /**
+     * Tests that regular expression characters in a glob are matched
+     * literally.
+     */
+    @Test
+    void matchesRegexCharactersLiterally() {
+        final Predicate<Notifications.Notification> predicate =
+                NotificationFilters.compile(toFilter("s9.(1)+*", null, null));
+
+        assertThat(predicate.test(toFailure("s9.(1)+a", "Offline"))).isTrue();
+        assertThat(predicate.test(toFailure("s9x(1)+a", "Offline"))).isFalse();
+        assertThat(predicate.test(toFailure("s9.11a", "Offline"))).isFalse();
+    }
+
+    /** Tests that miner names and diagnoses are matched regardless of case. */
+    @Test
+    void matchesRegardlessOfCase() {
+        final Predicate<Notifications.Notification> predicate =
+                NotificationFilters.compile(toFilter("RIG-*", "HASH rate", null));
+
+        assertThat(predicate.test(toFailure("rig-1", "hash RATE is 0 H/s"))).isTrue();
+    }
+
+    /**
+     * Tests that a diagnosis rule matches any line of a miner's diagnosis
+     * that contains it.
+     */
+    @Test
+    void matchesADiagnosisAnywhereInAnyLine() {
+        final Predicate<Notifications.Notification> predicate =
+                NotificationFilters.compile(toFilter(null, "temp", null));
+
+        assertThat(predicate.test(toFailure("rig-1", "Offline", "Board temp is 95C"))).isTrue();
+        assertThat(predicate.test(toFailure("rig-1", "Offline"))).isFalse();
+    }
+
+    /**
+     * Tests that a failure passes when a single miner matches both rules, but
+     * not when each rule is matched by a different miner.
+     */
+    @Test
+    void requiresOneMinerToMatchEveryRule() {
+        final Predicate<Notifications.Notification> predicate =
+                NotificationFilters.compile(toFilter("rig-*", "temp", null));
+
+        final Notifications.Notification split =
+                toNotification(
+                        toMiner("rig-1", "Offline"),
+                        toMiner("other-1", "Board temp is 95C"));
+        final Notifications.Notification matched =
+                toNotification(
+                        toMiner("other-1", "Offline"),
+                        toMiner("rig-2", "Board temp is 95C"));
+
+        assertThat(predicate.test(split)).isFalse();
+        assertThat(predicate.test(matched)).isTrue();
+    }
+
+    /** Tests that miners without names or diagnoses don't match the rules. */
+    @Test
+    void doesntMatchMinersWithoutNamesOrDiagnoses() {
+        final Notifications.Notification.FailingMiner unnamed =
+                toMiner(null, "Offline");
+        final Notifications.Notification.FailingMiner undiagnosed =
+                toMiner("rig-1");
+        undiagnosed.diagnosis = null;
+
+        assertThat(
+                NotificationFilters
+                        .compile(toFilter("*", null, null))
+                        .test(toNotification(unnamed)))
+                .isFalse();
+        assertThat(
+                NotificationFilters
+                        .compile(toFilter(null, "offline", null))
+                        .test(toNotification(undiagnosed)))
+                .isFalse();
+    }
+
+    /**
+     * Tests that recoveries aren't filtered by the miner rules, since they
+     * don't name any miners.
+     */
+    @Test
+    void passesRecoveriesThroughTheMinerRules() {
+        final Predicate<Notifications.Notification> predicate =
+                NotificationFilters.compile(toFilter("rig-*", "temp", null));
+
+        assertThat(predicate.test(toNotification())).isTrue();
+    }
+
+    /** Tests that the type rule selects failures, recoveries or both. */
+    @Test
+    void filtersByType() {
+        final Notifications.Notification failure = toFailure("rig-1", "Offline");
+        final Notifications.Notification recovery = toNotification();
+
+        final Predicate<Notifications.Notification> failures =
+                NotificationFilters.compile(
+                        toFilter(null, null, NotificationFilter.Type.FAILURES));
+        assertThat(failures.test(failure)).isTrue();
+        assertThat(failures.test(recovery)).isFalse();
+
+        final Predicate<Notifications.Notification> recoveries =
+                NotificationFilters.compile(
+                        toFilter(null, null, NotificationFilter.Type.RECOVERIES));
+        assertThat(recoveries.test(failure)).isFalse();
+        assertThat(recoveries.test(recovery)).isTrue();
+
+        final Predicate<Notifications.Notification> all =
+                NotificationFilters.compile(
+                        toFilter(null, null, NotificationFilter.Type.ALL));
+        assertThat(all.test(failure)).isTrue();
+        assertThat(all.test(recovery)).isTrue();
+    }
+
+    /**
+     * Tests that a predicate gives the same answer however many times it's
+     * asked, so evaluating it has no side effects.
+     */
+    @Test
+    void answersTheSameEveryTime() {
+        final Predicate<Notifications.Notification> predicate =
+                NotificationFilters.compile(toFilter("rig-*", null, null));
+        final Notifications.Notification failure = toFailure("other-1", "Offline");
+        final Notifications.Notification recovery = toNotification();
+
+        for (int i = 0; i < 3; i++) {
+            assertThat(predicate.test(failure)).isFalse();
+            assertThat(predicate.test(recovery)).isTrue();
+        }
+    }
+
+    /** Tests which filters have miner rules. */
+    @Test
+    void detectsMinerRules() {
+        assertThat(NotificationFilters.hasMinerRules(null)).isFalse();
+        assertThat(NotificationFilters.hasMinerRules(
+                toFilter(null, null, NotificationFilter.Type.FAILURES)))
+                .isFalse();
+        assertThat(NotificationFilters.hasMinerRules(toFilter("rig-*", null, null)))
+                .isTrue();
+        assertThat(NotificationFilters.hasMinerRules(toFilter(null, "temp", null)))
+                .isTrue();
+    }
+
+    /**
+     * Tests that a session without a filter gets every notification, and
+     * that sessions with the same filter share its predicate.
+     */
+    @Test
+    void resolvesTheFilterForAState() {
+        final NotificationFilters filters = new NotificationFilters();
+
+        final Predicate<Notifications.Notification> unfiltered =
+                filters.forState(State.builder().chatId("C1").build());
+        assertThat(unfiltered.test(toFailure("rig-1", "Offline"))).isTrue();
+        assertThat(unfiltered.test(toNotification())).isTrue();
+
+        final Predicate<Notifications.Notification> first =
+                filters.forState(
+                        State
+                                .builder()
+                                .chatId("C1")
+                                .filter(toFilter("rig-*", null, null))
+                                .build());
+        final Predicate<Notifications.Notification> second =
+                filters.forState(
+                        State
+                                .builder()
+                                .chatId("C2")
+                                .filter(toFilter("rig-*", null, null))
+                                .build());
+        assertThat(second).isSameAs(first);
+    }
+
+    /**
+     * Creates a failure for a single miner.
+     *
+     * @param miner     The miner name.
+     * @param diagnosis The diagnosis lines.
+     *
+     * @return The notification.
+     */
+    private static Notifications.Notification toFailure(
+            final String miner,
+            final String... diagnosis) {
+        return toNotification(toMiner(miner, diagnosis));
+    }
+
+    /**
+     * Creates a filter.
+     *
+     * @param minerPattern The miner glob, if any.
+     * @param diagnosis    The diagnosis text, if any.
+     * @param type         The type, if any.
+     *
+     * @return The filter.
+     */
+    private static NotificationFilter toFilter(
+            final String minerPattern,
+            final String diagnosis,
+            final NotificationFilter.Type type) {
+        return NotificationFilter
+                .builder()
+                .minerPattern(minerPattern)
+                .diagnosis(diagnosis)
+                .type(type)
+                .build();
+    }
+
+    /**
+     * Creates a failing miner.
+     *
+     * @param miner     The miner name.
+     * @param diagnosis The diagnosis lines.
+     *
+     * @return The failing miner.
+     */
+    private static Notifications.Notification.FailingMiner toMiner(
+            final String miner,
+            final String... diagnosis) {
+        final Notifications.Notification.FailingMiner failingMiner =
+                new Notifications.Notification.FailingMiner();
+        failingMiner.miner = miner;
+        failingMiner.diagnosis = Arrays.asList(diagnosis);
+        return failingMiner;
+    }
+
+    /**
+     * Creates a notification for the provided failing miners, which is a
+     * recovery if there are none.
+     *
+     * @param failingMiners The failing miners.
+     *
+     * @return The notification.
+     */
+    private static Notifications.Notification toNotification(
+            final Notifications.Notification.FailingMiner... failingMiners) {
+        final Notifications.Notification notification =
+                new Notifications.Notification();
+        notification.id = 1;
+        notification.subject = "Hash rate";
+        notification.failingMiners = new ArrayList<>(List.of(failingMiners));
+        return notification;
+    }
+}
@@ -0,0 +1,133 @@
+package mn.foreman.slackbot.notifications;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/** Tests the bounds of a {@link PipelineStage}. */
+class PipelineStageTest {
+
+    /** Where the stage reports its metrics. */
+    private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    /** The stage being tested: one thread, two tasks in flight, one queued. */
+    private PipelineStage stage;
+
+    /** Creates the stage. */
+    @BeforeEach
+    void setUp() {
+        this.stage =
+                new PipelineStage(
+                        "test",
+                        1,
+                        2,
+                        1,
+                        this.meterRegistry);
+    }
+
+    /** Stops the stage. */
+    @AfterEach
+    void tearDown() {
+        this.stage.shutdown();
+    }
+
+    /**
+     * Tests that tasks beyond the concurrency wait in the queue, and tasks
+     * beyond the queue are rejected.
+     *
+     * @throws Exception on failure.
+     */
+    @Test
+    void rejectsTasksOnceTheQueueIsFull() throws Exception {
+        final CompletableFuture<String> first = new CompletableFuture<>();
+        final CompletableFuture<String> second = new CompletableFuture<>();
+        final AtomicInteger startedThird = new AtomicInteger();
+
+        final CompletableFuture<String> firstResult = this.stage.submit(() -> first);
+        final CompletableFuture<String> secondResult = this.stage.submit(() -> second);
+        final CompletableFuture<String> queued =
+                this.stage.submit(() -> {
+                    startedThird.incrementAndGet();
+                    return CompletableFuture.completedFuture("third");
+                });
+        final CompletableFuture<String> rejected =
+                this.stage.submit(() -> CompletableFuture.completedFuture("fourth"));
+
+        assertThatThrownBy(() -> rejected.get(5, TimeUnit.SECONDS))
+                .isInstanceOf(ExecutionException.class)
+                .hasCauseInstanceOf(RejectedExecutionException.class);
+        assertThat(this.stage.getQueued()).isEqualTo(1);
+        assertThat(startedThird).hasValue(0);
+        assertThat(this.meterRegistry.get("notifications.pipeline.rejected").counter().count())
+                .isEqualTo(1);
+
+        // Freeing a slot starts the queued task
+        first.complete("first");
+        assertThat(firstResult.get(5, TimeUnit.SECONDS)).isEqualTo("first");
+        assertThat(queued.get(5, TimeUnit.SECONDS)).isEqualTo("third");
+        assertThat(this.stage.getQueued()).isZero();
+        assertThat(secondResult).isNotDone();
+
+        second.complete("second");
+        assertThat(secondResult.get(5, TimeUnit.SECONDS)).isEqualTo("second");
+    }
+
+    /**
+     * Tests that a single thread keeps several asynchronous tasks in flight,
+     * since a task holds its slot rather than its thread.
+     *
+     * @throws Exception on failure.
+     */
+    @Test
+    void keepsMoreTasksInFlightThanThreads() throws Exception {
+        final CompletableFuture<String> first = new CompletableFuture<>();
+        final CompletableFuture<String> second = new CompletableFuture<>();
+
+        final CompletableFuture<String> firstResult = this.stage.submit(() -> first);
+        final CompletableFuture<String> secondResult = this.stage.submit(() -> second);
+
+        second.complete("second");
+        assertThat(secondResult.get(5, TimeUnit.SECONDS)).isEqualTo("second");
+        assertThat(firstResult).isNotDone();
+        first.complete("first");
+        assertThat(firstResult.get(5, TimeUnit.SECONDS)).isEqualTo("first");
+    }
+
+    /**
+     * Tests that a failed task reports its failure and frees its slot.
+     *
+     * @throws Exception on failure.
+     */
+    @Test
+    void freesTheSlotOfAFailedTask() throws Exception {
+        final CompletableFuture<String> failed =
+                this.stage.submit(() -> {
+                    throw new IllegalStateException("Failed");
+                });
+        assertThatThrownBy(() -> failed.get(5, TimeUnit.SECONDS))
+                .isInstanceOf(ExecutionException.class)
+                .hasCauseInstanceOf(IllegalStateException.class);
+
+        final CompletableFuture<String> held = new CompletableFuture<>();
+        this.stage.submit(() -> held);
+        assertThat(
+                this.stage
+                        .submit(() -> CompletableFuture.completedFuture("next"))
+                        .get(5, TimeUnit.SECONDS))
+                .isEqualTo("next");
+        assertThat(this.meterRegistry.get("notifications.pipeline.failed").counter().count())
+                .isEqualTo(1);
+        held.complete("held");
+    }
+}